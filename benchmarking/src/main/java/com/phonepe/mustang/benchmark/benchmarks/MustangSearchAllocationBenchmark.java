@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.benchmark.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Sets;
+import com.phonepe.mustang.MustangEngine;
+import com.phonepe.mustang.benchmark.utils.Utils;
+import com.phonepe.mustang.common.RequestContext;
+import com.phonepe.mustang.composition.impl.Conjunction;
+import com.phonepe.mustang.composition.impl.Disjunction;
+import com.phonepe.mustang.criteria.Criteria;
+import com.phonepe.mustang.criteria.impl.CNFCriteria;
+import com.phonepe.mustang.criteria.impl.DNFCriteria;
+import com.phonepe.mustang.predicate.Predicate;
+import com.phonepe.mustang.predicate.impl.ExcludedPredicate;
+import com.phonepe.mustang.predicate.impl.IncludedPredicate;
+import com.phonepe.mustang.search.Query;
+import com.phonepe.mustang.search.QueryBuilder;
+import com.phonepe.mustang.search.SearchFacade;
+
+import lombok.Getter;
+
+/*
+ * Bytes allocated per search against a warmed index. Queries are parsed up front and handed to the search facade, so
+ * only the search itself is measured. Run with the GC profiler and read gc.alloc.rate.norm :
+ * java -jar target/benchmarks.jar MustangSearchAllocationBenchmark -prof gc
+ * The trial also fails once the warmed search allocates more than maxBytesPerSearch, as measured on its own thread.
+ */
+public class MustangSearchAllocationBenchmark {
+    private static final int REQUEST_POOL_SIZE = 1024;
+
+    @Getter
+    @State(Scope.Benchmark)
+    public static class BenchmarkContext {
+        @Param({ "1000", "10000" })
+        private int indexSize;
+        // Output map, path values of the event and the per search handler and matchers, whatever the index size.
+        @Param({ "16384" })
+        private long maxBytesPerSearch;
+
+        private final ObjectMapper mapper = new ObjectMapper();
+        private MustangEngine engine;
+        private SearchFacade searchFacade;
+        private List<Query> queries;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+            engine = MustangEngine.builder()
+                    .mapper(mapper)
+                    .build();
+
+            for (int i = 0; i < indexSize; i++) {
+                final Criteria c = i % 2 == 0 ? DNFCriteria.builder()
+                        .id(UUID.randomUUID()
+                                .toString())
+                        .conjunction(Conjunction.builder()
+                                .predicates(getRandomPredicates())
+                                .build())
+                        .build()
+                        : CNFCriteria.builder()
+                                .id(UUID.randomUUID()
+                                        .toString())
+                                .disjunction(Disjunction.builder()
+                                        .predicates(getRandomPredicates())
+                                        .build())
+                                .build();
+                engine.add(Utils.INDEX_NAME, c);
+            }
+
+            searchFacade = engine.getSearchFacade();
+            // Queries are built and parsed up front so that only the search itself is profiled.
+            queries = IntStream.range(0, REQUEST_POOL_SIZE)
+                    .mapToObj(i -> {
+                        Collections.shuffle(Utils.PATHS);
+                        return QueryBuilder.buildQuery(RequestContext.builder()
+                                .node(mapper.valueToTree(Utils.PATHS.stream()
+                                        .limit(Utils.RANDOM.nextInt(Utils.PATHS.size()))
+                                        .collect(Collectors.toMap(x -> x, x -> Utils.getRandom()))))
+                                .build());
+                    })
+                    .collect(Collectors.toList());
+        }
+
+        // Runs once the measurement is over, against code the benchmark has warmed up.
+        @TearDown(Level.Trial)
+        public void checkAllocation() {
+            final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                    .getThreadMXBean();
+            final long before = threads.getCurrentThreadAllocatedBytes();
+            for (Query query : queries) {
+                search(query);
+            }
+            final long bytesPerSearch = (threads.getCurrentThreadAllocatedBytes() - before) / queries.size();
+            if (bytesPerSearch > maxBytesPerSearch) {
+                throw new IllegalStateException(String.format("A search allocated %d bytes, over the limit of %d",
+                        bytesPerSearch, maxBytesPerSearch));
+            }
+        }
+
+        private Object search(final Query query) {
+            return searchFacade.search(Utils.INDEX_NAME, query, -1, false);
+        }
+
+        private List<Predicate> getRandomPredicates() {
+            Collections.shuffle(Utils.PATHS);
+            return Utils.PATHS.subList(0, Utils.RANDOM.nextInt(5) + 1)
+                    .stream()
+                    .map(path -> {
+                        if (Utils.RANDOM.nextInt(5) != 0) { // 80-20 split
+                            return IncludedPredicate.builder()
+                                    .lhs("$." + path)
+                                    .values(Sets.newHashSet(Utils.getRandom()))
+                                    .build();
+                        }
+                        return ExcludedPredicate.builder()
+                                .lhs("$." + path)
+                                .values(Sets.newHashSet(Utils.getRandom()))
+                                .build();
+                    })
+                    .collect(Collectors.toList());
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class RequestCursor {
+        private int next;
+
+        private Query next(final BenchmarkContext context) {
+            next = (next + 1) % REQUEST_POOL_SIZE;
+            return context.getQueries()
+                    .get(next);
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1, warmups = 1)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 3)
+    @Threads(1)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void search(final Blackhole blackhole, final BenchmarkContext context, final RequestCursor cursor) {
+        blackhole.consume(context.search(cursor.next(context)));
+    }
+
+}
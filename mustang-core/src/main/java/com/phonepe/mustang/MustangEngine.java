@@ -17,7 +17,10 @@
 package com.phonepe.mustang;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
@@ -26,6 +29,7 @@ import org.apache.commons.lang3.tuple.Pair;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.phonepe.mustang.common.RequestContext;
+import com.phonepe.mustang.compaction.CompactionStats;
 import com.phonepe.mustang.criteria.Criteria;
 import com.phonepe.mustang.debug.DebugResult;
 import com.phonepe.mustang.index.IndexingFacade;
@@ -33,6 +37,8 @@ import com.phonepe.mustang.processor.AsyncProcessor;
 import com.phonepe.mustang.ratify.RatificationRequest;
 import com.phonepe.mustang.ratify.RatificationResult;
 import com.phonepe.mustang.scan.Scanner;
+import com.phonepe.mustang.search.ParallelSearch;
+import com.phonepe.mustang.search.PathStats;
 import com.phonepe.mustang.search.Query;
 import com.phonepe.mustang.search.QueryBuilder;
 import com.phonepe.mustang.search.SearchFacade;
@@ -53,10 +59,14 @@ public class MustangEngine {
     private ObjectMapper mapper;
     @Builder.Default
     private RankingStrategy rankingStrategy = RankingStrategy.EXPLICIT_WEIGHTS;
+    // Searches are sequential unless opted in
+    @Builder.Default
+    private ParallelSearch parallelSearch = ParallelSearch.DISABLED;
     private final IndexingFacade indexingFacde = IndexingFacade.builder()
             .build();
     private final SearchFacade searchFacade = SearchFacade.builder()
             .indexingFacade(indexingFacde)
+            .parallelSearch(this::getParallelSearch)
             .build();
     private final AsyncProcessor processor = AsyncProcessor.getInstance();
 
@@ -68,6 +78,37 @@ public class MustangEngine {
         indexingFacde.add(indexName, criterias);
     }
 
+    // Criterias of the index are then partitioned across shards, written to and searched on the common pool.
+    public void createShardedIndex(final String indexName, final int shards) {
+        createShardedIndex(indexName, shards, ForkJoinPool.commonPool());
+    }
+
+    public void createShardedIndex(final String indexName, final int shards, final Executor executor) {
+        indexingFacde.createShardedIndex(indexName, shards, executor);
+    }
+
+    // Writes then go to a delta segment of up to deltaLimit criterias, sealed segments being merged on the common pool.
+    public void createSegmentedIndex(final String indexName, final int deltaLimit, final int mergeFactor) {
+        createSegmentedIndex(indexName, deltaLimit, mergeFactor, ForkJoinPool.commonPool());
+    }
+
+    public void createSegmentedIndex(final String indexName,
+            final int deltaLimit,
+            final int mergeFactor,
+            final Executor executor) {
+        indexingFacde.createSegmentedIndex(indexName, deltaLimit, mergeFactor, executor);
+    }
+
+    // Builds the index whole from the criterias on the common pool, replacing whatever it held once done. The index is
+    // read only from then on unless segmented, see IndexingFacade.build.
+    public void buildIndex(final String indexName, final List<Criteria> criterias) {
+        buildIndex(indexName, criterias, ForkJoinPool.commonPool());
+    }
+
+    public void buildIndex(final String indexName, final List<Criteria> criterias, final Executor executor) {
+        indexingFacde.build(indexName, criterias, executor);
+    }
+
     public void update(final String indexName, final Criteria criteria) {
         indexingFacde.update(indexName, criteria);
     }
@@ -76,6 +117,15 @@ public class MustangEngine {
         indexingFacde.delete(indexName, criteria);
     }
 
+    public CompactionStats compact(final String indexName) {
+        return indexingFacde.compact(indexName);
+    }
+
+    // Renumbering compacts by rebuilding the index from its live criterias on the common pool, ids handed out densely.
+    public CompactionStats compact(final String indexName, final boolean renumber) {
+        return renumber ? indexingFacde.renumber(indexName, ForkJoinPool.commonPool()) : compact(indexName);
+    }
+
     public void replaceIndex(final String oldIndex, final String newIndex) {
         indexingFacde.replace(oldIndex, newIndex);
     }
@@ -115,6 +165,41 @@ public class MustangEngine {
         return searchFacade.search(indexName, query, -1, score);
     }
 
+    // Whether any criteria matches, the search stopping at the first match found.
+    public boolean exists(final String indexName, final RequestContext context) {
+        final Query query = QueryBuilder.buildQuery(context);
+        return searchFacade.exists(indexName, query);
+    }
+
+    // Any k matches, unscored and in no particular order.
+    public Set<String> searchFirst(final String indexName, final RequestContext context, final int k) {
+        final Query query = QueryBuilder.buildQuery(context);
+        return searchFacade.searchFirst(indexName, query, k);
+    }
+
+    // Matches of every context, aligned to the contexts.
+    public List<Set<String>> searchBatch(final String indexName, final List<RequestContext> contexts) {
+        return searchBatch(indexName, contexts, null);
+    }
+
+    public List<Set<String>> searchBatch(final String indexName,
+            final List<RequestContext> contexts,
+            final Executor executor) {
+        final List<Query> queries = contexts.stream()
+                .map(QueryBuilder::buildQuery)
+                .toList();
+        return searchFacade.searchBatch(indexName, queries, executor);
+    }
+
+    public Map<String, Double> searchWithScores(final String indexName, final RequestContext context, final int topN) {
+        final Query query = QueryBuilder.buildQuery(context);
+        return searchFacade.searchWithScores(indexName, query, topN);
+    }
+
+    public PathStats getPathStats(final String indexName) {
+        return searchFacade.getPathStats(indexName);
+    }
+
     public Set<String> scan(final String indexName, final RequestContext context) {
         return Scanner.builder()
                 .indexGroup(indexingFacde.getIndexGroup(indexName))
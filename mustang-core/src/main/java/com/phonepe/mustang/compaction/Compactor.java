@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.compaction;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+
+import com.google.common.collect.Sets;
+import com.phonepe.mustang.index.IndexGroup;
+import com.phonepe.mustang.index.core.InvertedIndex;
+import com.phonepe.mustang.index.core.Key;
+import com.phonepe.mustang.index.core.PostingList;
+
+import lombok.Builder;
+import lombok.Data;
+
+/*
+ * Updates and deletes retire a criteria's internal ids but leave its posting entries behind, searches passing over
+ * them. Compaction purges those entries from the table, drops the keys and k levels they leave empty and rebuilds the
+ * key dictionaries of the levels it changed. A purged posting list or linkage is replaced by a purged copy rather
+ * than changed in place, as snapshots may read the table off the lock. Key frequencies are counted down by the
+ * entries purged, and paths no key reads any more are dropped. It is to be run under the index's write lock.
+ */
+@Data
+@Builder
+public class Compactor {
+    @Valid
+    @NotNull
+    private final IndexGroup indexGroup;
+
+    public CompactionStats compact() {
+        final long startTime = System.currentTimeMillis();
+        final Set<Integer> staleCnfIds = Set.copyOf(indexGroup.getCnfInvertedIndex()
+                .getStaleIds());
+        final CompactionStats stats = compact(indexGroup.getDnfInvertedIndex(), PostingList::ofConjunctions,
+                indexGroup.getDnfKeyFrequency())
+                .plus(compact(indexGroup.getCnfInvertedIndex(), PostingList::ofDisjunctions,
+                        indexGroup.getCnfKeyFrequency()));
+        indexGroup.getCnfInvertedIndex()
+                .getDisjunctionCounters()
+                .keySet()
+                .removeAll(staleCnfIds);
+        final Set<String> livePaths = Stream.of(indexGroup.getDnfInvertedIndex(), indexGroup.getCnfInvertedIndex())
+                .flatMap(invertedIndex -> invertedIndex.getTable()
+                        .values()
+                        .stream())
+                .flatMap(level -> level.keySet()
+                        .stream())
+                .map(Key::getName)
+                .collect(Collectors.toSet());
+        indexGroup.getAllPaths()
+                .keySet()
+                .retainAll(livePaths);
+        indexGroup.getPathAccessors()
+                .keySet()
+                .retainAll(livePaths);
+        indexGroup.refreshPathTrie();
+        stats.setTimeTakenMs(System.currentTimeMillis() - startTime);
+        return stats;
+    }
+
+    private static <T> CompactionStats compact(final InvertedIndex<T> invertedIndex,
+            final Function<TreeMap<Integer, T>, PostingList> converter,
+            final Map<Key, AtomicInteger> keyFrequency) {
+        final Set<Integer> staleIds = Set.copyOf(invertedIndex.getStaleIds());
+        long removedEntries = 0;
+        long removedKeys = 0;
+        long removedLevels = 0;
+        long remainingEntries = 0;
+        for (final Integer k : Sets.newTreeSet(invertedIndex.getTable()
+                .keySet())) {
+            final Map<Key, TreeMap<Integer, T>> level = invertedIndex.getTable()
+                    .get(k);
+            boolean changed = false;
+            final Iterator<Map.Entry<Key, TreeMap<Integer, T>>> postingLists = level.entrySet()
+                    .iterator();
+            while (postingLists.hasNext()) {
+                final Map.Entry<Key, TreeMap<Integer, T>> entry = postingLists.next();
+                TreeMap<Integer, T> postingList = entry.getValue();
+                if (holdsAny(postingList.keySet(), staleIds)) {
+                    // Purged on a copy, readers off the lock seeing the list whole
+                    final TreeMap<Integer, T> purged = new TreeMap<>(postingList);
+                    purged.keySet()
+                            .removeAll(staleIds);
+                    removedEntries += postingList.size() - purged.size();
+                    countDown(keyFrequency, entry.getKey(), postingList.size() - purged.size());
+                    changed = true;
+                    postingList = purged;
+                    if (!postingList.isEmpty()) {
+                        entry.setValue(postingList);
+                    }
+                }
+                if (postingList.isEmpty()) {
+                    postingLists.remove();
+                    removedKeys++;
+                }
+                remainingEntries += postingList.size();
+            }
+            final TreeSet<Integer> linkage = invertedIndex.getLinkages()
+                    .get(k);
+            if (Objects.nonNull(linkage) && holdsAny(linkage, staleIds)) {
+                final TreeSet<Integer> purged = new TreeSet<>(linkage);
+                purged.removeAll(staleIds);
+                invertedIndex.getLinkages()
+                        .put(k, purged);
+            }
+            if (level.isEmpty()) {
+                invertedIndex.getTable()
+                        .remove(k);
+                invertedIndex.getLinkages()
+                        .remove(k);
+                invertedIndex.getKeyDictionaries()
+                        .remove(k);
+                removedLevels++;
+            } else if (changed) {
+                invertedIndex.refreshKeyDictionary(k, converter);
+            }
+        }
+        invertedIndex.getStaleIds()
+                .removeAll(staleIds);
+        return CompactionStats.builder()
+                .purgedIds(staleIds.size())
+                .removedEntries(removedEntries)
+                .removedKeys(removedKeys)
+                .removedLevels(removedLevels)
+                .remainingEntries(remainingEntries)
+                .build();
+    }
+
+    private static boolean holdsAny(final Set<Integer> ids, final Set<Integer> staleIds) {
+        return ids.size() < staleIds.size()
+                ? ids.stream()
+                        .anyMatch(staleIds::contains)
+                : staleIds.stream()
+                        .anyMatch(ids::contains);
+    }
+
+    // Frequencies are counted on keys without their order, see CNFPostingListsExtractor, and dropped once at 0.
+    private static void countDown(final Map<Key, AtomicInteger> keyFrequency, final Key key, final int count) {
+        final Key frequencyKey = Key.builder()
+                .name(key.getName())
+                .preOps(key.getPreOps())
+                .caveat(key.getCaveat())
+                .value(key.getValue())
+                .build();
+        keyFrequency.computeIfPresent(frequencyKey, (x, frequency) -> frequency.addAndGet(-count) > 0
+                ? frequency
+                : null);
+    }
+
+}
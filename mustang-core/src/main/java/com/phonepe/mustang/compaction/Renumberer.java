@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.compaction;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.google.common.collect.Sets;
+import com.phonepe.mustang.criteria.Criteria;
+import com.phonepe.mustang.index.IndexGroup;
+import com.phonepe.mustang.index.builder.BulkIndexBuilder;
+import com.phonepe.mustang.index.core.ConjunctionPostingEntry;
+import com.phonepe.mustang.index.core.DisjunctionPostingEntry;
+import com.phonepe.mustang.index.core.InvertedIndex;
+import com.phonepe.mustang.index.core.Key;
+
+import lombok.Builder;
+import lombok.Data;
+
+/*
+ * Internal ids are handed out from an ever increasing counter, so churn leaves the live ones spread thin across a
+ * wide range. Renumbering builds the index anew from its live criterias, off to the side, handing out ids densely
+ * from 1. Criterias are taken level by level, each level's most shared keys first, so that criterias of the same k
+ * sharing keys get neighbouring ids and the posting lists they share stay dense. Being a rebuild, it purges every
+ * stale entry along the way. The group returned is to be published in place of the one renumbered.
+ */
+@Data
+@Builder
+public class Renumberer {
+    @Valid
+    @NotNull
+    private final IndexGroup indexGroup;
+    // Null rebuilds on the calling thread.
+    private final Executor executor;
+
+    public Pair<IndexGroup, CompactionStats> renumber() {
+        final long startTime = System.currentTimeMillis();
+        final Map<String, Criteria> allCriterias = indexGroup.getAllCriterias();
+        final Set<String> order = Sets.newLinkedHashSet();
+        addInLocalityOrder(indexGroup.getDnfInvertedIndex(), ConjunctionPostingEntry::getEId, order);
+        addInLocalityOrder(indexGroup.getCnfInvertedIndex(), DisjunctionPostingEntry::getEId, order);
+        // Tautologies last, they have no ids to speak of
+        order.addAll(allCriterias.keySet());
+        order.retainAll(allCriterias.keySet());
+
+        final IndexGroup renumbered = BulkIndexBuilder.builder()
+                .indexGroup(IndexGroup.builder()
+                        .name(indexGroup.getName())
+                        .build())
+                .criterias(order.stream()
+                        .map(allCriterias::get)
+                        .toList())
+                .executor(executor)
+                .build()
+                .build();
+        // Criterias are still listed in the order they were added in
+        renumbered.getAllCriterias()
+                .clear();
+        renumbered.getAllCriterias()
+                .putAll(allCriterias);
+        renumbered.setRatificationResult(indexGroup.getRatificationResult());
+        renumbered.getSearchCount()
+                .add(indexGroup.getSearchCount()
+                        .sum());
+        renumbered.getResolvedPathCount()
+                .add(indexGroup.getResolvedPathCount()
+                        .sum());
+        renumbered.getVisitedPostingCount()
+                .add(indexGroup.getVisitedPostingCount()
+                        .sum());
+
+        final long[] before = measure(indexGroup);
+        final long[] after = measure(renumbered);
+        return Pair.of(renumbered, CompactionStats.builder()
+                .purgedIds(indexGroup.getDnfInvertedIndex()
+                        .getStaleIds()
+                        .size()
+                        + indexGroup.getCnfInvertedIndex()
+                                .getStaleIds()
+                                .size())
+                .removedLevels(before[0] - after[0])
+                .removedKeys(before[1] - after[1])
+                .removedEntries(before[2] - after[2])
+                .remainingEntries(after[2])
+                .timeTakenMs(System.currentTimeMillis() - startTime)
+                .build());
+    }
+
+    private static <T> void addInLocalityOrder(final InvertedIndex<T> invertedIndex,
+            final Function<T, String> eIdExtractor,
+            final Set<String> order) {
+        final Set<Integer> staleIds = invertedIndex.getStaleIds();
+        new TreeMap<>(invertedIndex.getTable()).values()
+                .forEach(level -> level.values()
+                        .stream()
+                        .sorted(Comparator.<TreeMap<Integer, T>>comparingInt(TreeMap::size)
+                                .reversed())
+                        .forEach(postingList -> postingList.forEach((iId, entry) -> {
+                            if (!staleIds.contains(iId)) {
+                                order.add(eIdExtractor.apply(entry));
+                            }
+                        })));
+    }
+
+    // Levels, keys and entries across both inverted indexes.
+    private static long[] measure(final IndexGroup indexGroup) {
+        final long[] dnf = measure(indexGroup.getDnfInvertedIndex()
+                .getTable());
+        final long[] cnf = measure(indexGroup.getCnfInvertedIndex()
+                .getTable());
+        return new long[] { dnf[0] + cnf[0], dnf[1] + cnf[1], dnf[2] + cnf[2] };
+    }
+
+    private static long[] measure(final Map<Integer, ? extends Map<Key, ? extends Map<Integer, ?>>> table) {
+        final long[] counts = new long[3];
+        table.values()
+                .forEach(level -> {
+                    counts[0]++;
+                    counts[1] += level.size();
+                    level.values()
+                            .forEach(postingList -> counts[2] += postingList.size());
+                });
+        return counts;
+    }
+
+}
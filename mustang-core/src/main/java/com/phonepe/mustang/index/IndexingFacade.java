@@ -19,18 +19,37 @@ package com.phonepe.mustang.index;
 import static com.phonepe.mustang.common.Utils.executeSecurely;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.commons.lang3.tuple.Pair;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
+import com.phonepe.mustang.common.SecureExecution;
+import com.phonepe.mustang.compaction.CompactionStats;
+import com.phonepe.mustang.compaction.Compactor;
+import com.phonepe.mustang.compaction.Renumberer;
 import com.phonepe.mustang.criteria.Criteria;
 import com.phonepe.mustang.exception.ErrorCode;
 import com.phonepe.mustang.exception.MustangException;
+import com.phonepe.mustang.index.builder.BulkIndexBuilder;
 import com.phonepe.mustang.index.builder.CriteriaIndexBuilder;
+import com.phonepe.mustang.index.entry.extractor.ScoreUpperBoundExtractor;
 import com.phonepe.mustang.index.operation.IndexOperation;
 
 import lombok.Builder;
@@ -39,79 +58,232 @@ import lombok.Data;
 @Data
 @Builder
 public class IndexingFacade {
+    private static final String SHARD_NAME_FORMAT = "%s#%d";
+    private static final String SEGMENT_NAME_FORMAT = "%s@%d";
     private final Map<String, IndexGroup> indexMap = Maps.newConcurrentMap();
     private final Map<String, ReentrantReadWriteLock.WriteLock> indexLocks = Maps.newConcurrentMap();
+    /*
+     * Locks of each sharded group, one per shard position and a last one for the group's own view, that of a segmented
+     * group being its only one. Held against the group itself, compared by identity, as replace renames a group, its
+     * shards and its segments in place and renumbering swaps shards out.
+     */
+    private final Map<IndexGroup, List<ReentrantReadWriteLock.WriteLock>> shardLocks = new MapMaker().weakKeys()
+            .makeMap();
+    private final AtomicLong segmentCounter = new AtomicLong();
 
     public void add(final String index, final Criteria criteria) {
         final IndexGroup indexGroup = get(index);
+        if (indexGroup.isSharded()) {
+            addToShard(indexGroup, indexGroup.getShardIndex(criteria.getId()), List.of(criteria));
+            return;
+        }
         executeSecurely(getLock(index), () -> {
-            if (indexGroup.getAllCriterias()
-                    .containsKey(criteria.getId())) {
-                throw MustangException.builder()
-                        .errorCode(ErrorCode.INDEX_GENERATION_ERROR)
-                        .build();
-            }
-            criteria.accept(CriteriaIndexBuilder.builder()
-                    .indexGroup(indexGroup)
-                    .operation(IndexOperation.ADD)
-                    .build());
-            indexGroup.getAllCriterias()
-                    .put(criteria.getId(), criteria);
+            addTo(get(index), criteria);
             return null;
         });
-
+        mergeSegments(index);
     }
 
     public void add(final String index, final List<Criteria> criterias) {
         final IndexGroup indexGroup = get(index);
+        if (indexGroup.isSharded()) {
+            addToShards(indexGroup, criterias);
+            return;
+        }
         executeSecurely(getLock(index), () -> {
-            criterias.forEach(criteria -> {
-                if (indexGroup.getAllCriterias()
-                        .containsKey(criteria.getId())) {
-                    throw MustangException.builder()
-                            .errorCode(ErrorCode.INDEX_GENERATION_ERROR)
-                            .build();
-                }
-                criteria.accept(CriteriaIndexBuilder.builder()
-                        .indexGroup(indexGroup)
-                        .operation(IndexOperation.ADD)
-                        .build());
-                indexGroup.getAllCriterias()
-                        .put(criteria.getId(), criteria);
-            });
+            final IndexGroup current = get(index);
+            criterias.forEach(criteria -> addTo(current, criteria));
             return null;
         });
+        mergeSegments(index);
+    }
+
+    /*
+     * A sharded index partitions its criterias by id across shards of their own, each with its own inverted indexes
+     * and write lock, so that writes to different shards go on together and searches are spread across them.
+     */
+    public IndexGroup createShardedIndex(final String index, final int shardCount, final Executor executor) {
+        if (shardCount < 1 || indexMap.containsKey(index)) {
+            throw MustangException.builder()
+                    .errorCode(shardCount < 1 ? ErrorCode.INDEX_GENERATION_ERROR : ErrorCode.INDEX_GROUP_EXISTS)
+                    .build();
+        }
+        final List<IndexGroup> shards = IntStream.range(0, shardCount)
+                .mapToObj(i -> IndexGroup.builder()
+                        .name(getShardName(index, i))
+                        .build())
+                .toList();
+        return indexMap.computeIfAbsent(index, x -> IndexGroup.builder()
+                .name(index)
+                .shards(shards)
+                .shardExecutor(executor)
+                .build());
+    }
+
+    /*
+     * A segmented index takes every write in a small mutable delta segment, sealed once it holds deltaLimit criterias,
+     * while older criterias live in sealed segments that are searched as they are. An update or delete retires the
+     * older version in the segment holding it, much like a tombstone, so a criteria is only ever live in one segment.
+     * Sealed segments are merged mergeFactor at a time on the executor, keeping them few.
+     */
+    public IndexGroup createSegmentedIndex(final String index,
+            final int deltaLimit,
+            final int mergeFactor,
+            final Executor executor) {
+        if (deltaLimit < 1 || mergeFactor < 2 || indexMap.containsKey(index)) {
+            throw MustangException.builder()
+                    .errorCode(indexMap.containsKey(index) ? ErrorCode.INDEX_GROUP_EXISTS
+                            : ErrorCode.INDEX_GENERATION_ERROR)
+                    .build();
+        }
+        return indexMap.computeIfAbsent(index, x -> IndexGroup.builder()
+                .name(index)
+                .segments(List.of(newSegment(index)))
+                .deltaLimit(deltaLimit)
+                .mergeFactor(mergeFactor)
+                .mergeExecutor(executor)
+                .build());
+    }
+
+    /*
+     * Builds the index from all of its criterias at once, off to the side and on the executor, and then publishes it
+     * in place of whatever the index held before. Searches see either the old index or the complete new one. A
+     * sharded index stays sharded, across as many shards as before, and a segmented one gets a single sealed segment.
+     * The built index is frozen, writes to it failing with INDEX_FROZEN, except for a segmented one, which keeps
+     * taking writes in its delta. The index replaced is frozen too, under every one of its locks, so a write that got
+     * to it before the swap fails rather than being lost with it.
+     */
+    public IndexGroup build(final String index, final List<Criteria> criterias, final Executor executor) {
+        final IndexGroup current = indexMap.get(index);
+        final IndexGroup indexGroup;
+        if (Objects.nonNull(current) && current.isSharded()) {
+            indexGroup = buildShards(index, current.getShards()
+                    .size(), current.getShardExecutor(), criterias, executor);
+        } else if (Objects.nonNull(current) && current.isSegmented()) {
+            indexGroup = buildSegments(index, current, criterias, executor);
+        } else {
+            indexGroup = BulkIndexBuilder.builder()
+                    .indexGroup(IndexGroup.builder()
+                            .name(index)
+                            .build())
+                    .criterias(criterias)
+                    .executor(executor)
+                    .build()
+                    .build();
+        }
+        if (!indexGroup.isSegmented()) {
+            indexGroup.freeze();
+        }
+        executeSecurely(getLock(index), () -> {
+            final IndexGroup replaced = indexMap.get(index);
+            if (Objects.isNull(replaced)) {
+                return indexMap.put(index, indexGroup);
+            }
+            return executeOnGroup(replaced, () -> {
+                replaced.freeze();
+                return indexMap.put(index, indexGroup);
+            });
+        });
+        return indexGroup;
     }
 
     public void update(final String index, final Criteria criteria) {
         final IndexGroup indexGroup = get(index);
+        if (indexGroup.isSharded()) {
+            executeSecurely(getShardLock(indexGroup, indexGroup.getShardIndex(criteria.getId())), () -> {
+                final IndexGroup current = indexGroup.getShard(criteria.getId());
+                updateCriteria(current, criteria);
+                mirror(indexGroup, current, criteria.getId());
+                return null;
+            });
+            return;
+        }
         executeSecurely(getLock(index), () -> {
-            criteria.accept(CriteriaIndexBuilder.builder()
-                    .indexGroup(indexGroup)
-                    .operation(IndexOperation.UPDATE)
-                    .build());
-            indexGroup.getAllCriterias()
-                    .put(criteria.getId(), criteria);
+            updateIn(get(index), criteria);
             return true;
         });
+        mergeSegments(index);
     }
 
     public void delete(final String index, final Criteria criteria) {
         final IndexGroup indexGroup = get(index);
+        if (indexGroup.isSharded()) {
+            executeSecurely(getShardLock(indexGroup, indexGroup.getShardIndex(criteria.getId())), () -> {
+                final IndexGroup current = indexGroup.getShard(criteria.getId());
+                deleteCriteria(current, criteria);
+                mirror(indexGroup, current, criteria.getId());
+                return null;
+            });
+            return;
+        }
         executeSecurely(getLock(index), () -> {
-            if (indexGroup.getAllCriterias()
-                    .containsKey(criteria.getId())) {
-                criteria.accept(CriteriaIndexBuilder.builder()
-                        .indexGroup(indexGroup)
-                        .operation(IndexOperation.DELETE)
-                        .build());
-                indexGroup.getAllCriterias()
-                        .remove(criteria.getId());
+            deleteFrom(get(index), criteria);
+            return null;
+        });
+    }
+
+    /*
+     * Purges the posting entries that updates and deletes left behind, a sharded index being compacted a shard at a
+     * time under each shard's own lock. Meant to be run now and then, say on a schedule, as churn piles them up.
+     */
+    public CompactionStats compact(final String index) {
+        final IndexGroup indexGroup = getWritableIndexGroup(index);
+        if (indexGroup.isSharded()) {
+            final CompactionStats stats = IntStream.range(0, indexGroup.getShards()
+                    .size())
+                    .mapToObj(i -> executeSecurely(getShardLock(indexGroup, i), () -> {
+                        checkWritable(indexGroup.getShards()
+                                .get(i));
+                        return compact(indexGroup.getShards()
+                                .get(i));
+                    }))
+                    .reduce(CompactionStats::plus)
+                    .orElseGet(CompactionStats::new);
+            executeSecurely(getShardLock(indexGroup, indexGroup.getShards()
+                    .size()), () -> {
+                retainPaths(indexGroup, indexGroup.getShards());
                 return null;
+            });
+            return stats;
+        }
+        return executeSecurely(getLock(index), () -> {
+            final IndexGroup current = getWritableIndexGroup(index);
+            return current.isSegmented() ? executeOnSegments(current, () -> compact(current)) : compact(current);
+        });
+    }
+
+    /*
+     * Compacts the index by building it anew from its live criterias, which also renumbers their internal ids densely
+     * and in an order that keeps criterias sharing keys together. Writes wait for the rebuild while searches go on
+     * against the index it replaces. A sharded index is renumbered a shard at a time, a segmented one a segment at a
+     * time.
+     */
+    public CompactionStats renumber(final String index, final Executor executor) {
+        final IndexGroup indexGroup = getWritableIndexGroup(index);
+        if (indexGroup.isSharded()) {
+            return IntStream.range(0, indexGroup.getShards()
+                    .size())
+                    .mapToObj(i -> executeSecurely(getShardLock(indexGroup, i), () -> {
+                        checkWritable(indexGroup.getShards()
+                                .get(i));
+                        final Pair<IndexGroup, CompactionStats> renumbered = renumber(indexGroup.getShards()
+                                .get(i), executor);
+                        final List<IndexGroup> shards = new ArrayList<>(indexGroup.getShards());
+                        shards.set(i, renumbered.getLeft());
+                        indexGroup.setShards(List.copyOf(shards));
+                        return renumbered.getRight();
+                    }))
+                    .reduce(CompactionStats::plus)
+                    .orElseGet(CompactionStats::new);
+        }
+        return executeSecurely(getLock(index), () -> {
+            final IndexGroup current = getWritableIndexGroup(index);
+            if (current.isSegmented()) {
+                return renumberSegments(current, executor);
             }
-            throw MustangException.builder()
-                    .errorCode(ErrorCode.INDEX_NOT_FOUND)
-                    .build();
+            final Pair<IndexGroup, CompactionStats> renumbered = renumber(current, executor);
+            indexMap.put(index, renumbered.getLeft());
+            return renumbered.getRight();
         });
     }
 
@@ -124,6 +296,7 @@ public class IndexingFacade {
                     indexMap.put(oldIndex, getIndexGroup(newIndex));
                 }
                 getIndexGroup(oldIndex).setName(oldIndex);
+                renameShards(getIndexGroup(oldIndex));
                 indexMap.remove(newIndex, getIndexGroup(newIndex));
             } else {
                 indexMap.remove(oldIndex);
@@ -133,7 +306,7 @@ public class IndexingFacade {
     }
 
     public String exportIndexGroup(final String index, final ObjectMapper mapper) {
-        return executeSecurely(getLock(index), () -> {
+        return executeSecurely(getLock(index), () -> executeOnGroup(getIndexGroup(index), () -> {
             try {
                 return mapper.writeValueAsString(getIndexGroup(index).getAllCriterias()
                         .values());
@@ -143,11 +316,11 @@ public class IndexingFacade {
                         .cause(e)
                         .build();
             }
-        });
+        }));
     }
 
     public String snapshot(final String index, final ObjectMapper mapper) {
-        return executeSecurely(getLock(index), () -> {
+        return executeSecurely(getLock(index), () -> executeOnGroup(getIndexGroup(index), () -> {
             try {
                 return mapper.writeValueAsString(getIndexGroup(index));
             } catch (JsonProcessingException e) {
@@ -156,7 +329,7 @@ public class IndexingFacade {
                         .cause(e)
                         .build();
             }
-        });
+        }));
 
     }
 
@@ -191,6 +364,21 @@ public class IndexingFacade {
                 .build();
     }
 
+    // A frozen group has nothing to compact, having been built whole, and is not to be rebuilt by renumbering.
+    private IndexGroup getWritableIndexGroup(final String index) {
+        final IndexGroup indexGroup = getIndexGroup(index);
+        checkWritable(indexGroup);
+        return indexGroup;
+    }
+
+    private static void checkWritable(final IndexGroup indexGroup) {
+        if (indexGroup.isFrozen()) {
+            throw MustangException.builder()
+                    .errorCode(ErrorCode.INDEX_FROZEN)
+                    .build();
+        }
+    }
+
     private IndexGroup get(final String index) {
         return indexMap.computeIfAbsent(index,
                 x -> IndexGroup.builder()
@@ -198,8 +386,494 @@ public class IndexingFacade {
                         .build());
     }
 
+    private static CompactionStats compact(final IndexGroup indexGroup) {
+        if (indexGroup.isSegmented()) {
+            final CompactionStats stats = indexGroup.getSegments()
+                    .stream()
+                    .map(IndexingFacade::compact)
+                    .reduce(CompactionStats::plus)
+                    .orElseGet(CompactionStats::new);
+            retainPaths(indexGroup, indexGroup.getSegments());
+            return stats;
+        }
+        return Compactor.builder()
+                .indexGroup(indexGroup)
+                .build()
+                .compact();
+    }
+
+    // A group's paths are those of its shards or segments, compaction having dropped the ones they no longer read.
+    private static void retainPaths(final IndexGroup indexGroup, final List<IndexGroup> parts) {
+        final Set<String> paths = parts.stream()
+                .flatMap(part -> part.getAllPaths()
+                        .keySet()
+                        .stream())
+                .collect(Collectors.toSet());
+        indexGroup.getAllPaths()
+                .keySet()
+                .retainAll(paths);
+        indexGroup.getPathAccessors()
+                .keySet()
+                .retainAll(paths);
+        indexGroup.refreshPathTrie();
+    }
+
+    private static Pair<IndexGroup, CompactionStats> renumber(final IndexGroup indexGroup, final Executor executor) {
+        return Renumberer.builder()
+                .indexGroup(indexGroup)
+                .executor(executor)
+                .build()
+                .renumber();
+    }
+
+    private void addCriteria(final IndexGroup indexGroup, final Criteria criteria) {
+        checkWritable(indexGroup);
+        if (indexGroup.getAllCriterias()
+                .containsKey(criteria.getId())) {
+            throw MustangException.builder()
+                    .errorCode(ErrorCode.INDEX_GENERATION_ERROR)
+                    .build();
+        }
+        criteria.accept(CriteriaIndexBuilder.builder()
+                .indexGroup(indexGroup)
+                .operation(IndexOperation.ADD)
+                .build());
+        indexGroup.getAllCriterias()
+                .put(criteria.getId(), criteria);
+        indexGroup.getScoreUpperBounds()
+                .put(criteria.getId(), criteria.accept(new ScoreUpperBoundExtractor()));
+    }
+
+    private void updateCriteria(final IndexGroup indexGroup, final Criteria criteria) {
+        checkWritable(indexGroup);
+        CriteriaIndexBuilder.retire(indexGroup, criteria.getId());
+        criteria.accept(CriteriaIndexBuilder.builder()
+                .indexGroup(indexGroup)
+                .operation(IndexOperation.UPDATE)
+                .build());
+        indexGroup.getAllCriterias()
+                .put(criteria.getId(), criteria);
+        indexGroup.getScoreUpperBounds()
+                .put(criteria.getId(), criteria.accept(new ScoreUpperBoundExtractor()));
+    }
+
+    private void deleteCriteria(final IndexGroup indexGroup, final Criteria criteria) {
+        checkWritable(indexGroup);
+        if (indexGroup.getAllCriterias()
+                .containsKey(criteria.getId())) {
+            CriteriaIndexBuilder.retire(indexGroup, criteria.getId());
+            indexGroup.getAllCriterias()
+                    .remove(criteria.getId());
+            indexGroup.getScoreUpperBounds()
+                    .remove(criteria.getId());
+            return;
+        }
+        throw MustangException.builder()
+                .errorCode(ErrorCode.INDEX_NOT_FOUND)
+                .build();
+    }
+
+    private void addTo(final IndexGroup indexGroup, final Criteria criteria) {
+        if (!indexGroup.isSegmented()) {
+            addCriteria(indexGroup, criteria);
+            return;
+        }
+        if (indexGroup.getAllCriterias()
+                .containsKey(criteria.getId())) {
+            throw MustangException.builder()
+                    .errorCode(ErrorCode.INDEX_GENERATION_ERROR)
+                    .build();
+        }
+        executeOnSegments(indexGroup, () -> {
+            addCriteria(indexGroup.getDelta(), criteria);
+            own(indexGroup, criteria.getId());
+            return null;
+        });
+    }
+
+    private void updateIn(final IndexGroup indexGroup, final Criteria criteria) {
+        if (!indexGroup.isSegmented()) {
+            updateCriteria(indexGroup, criteria);
+            return;
+        }
+        executeOnSegments(indexGroup, () -> {
+            final IndexGroup owner = indexGroup.getSegmentOwners()
+                    .get(criteria.getId());
+            // The older version is retired in the sealed segment holding it, the newer one going to the delta.
+            if (Objects.nonNull(owner) && owner != indexGroup.getDelta()) {
+                deleteCriteria(owner, criteria);
+            }
+            updateCriteria(indexGroup.getDelta(), criteria);
+            own(indexGroup, criteria.getId());
+            return null;
+        });
+    }
+
+    private void deleteFrom(final IndexGroup indexGroup, final Criteria criteria) {
+        if (!indexGroup.isSegmented()) {
+            deleteCriteria(indexGroup, criteria);
+            return;
+        }
+        executeOnSegments(indexGroup, () -> {
+            final IndexGroup owner = indexGroup.getSegmentOwners()
+                    .remove(criteria.getId());
+            if (Objects.isNull(owner)) {
+                throw MustangException.builder()
+                        .errorCode(ErrorCode.INDEX_NOT_FOUND)
+                        .build();
+            }
+            deleteCriteria(owner, criteria);
+            mirrorCriteria(indexGroup, owner, criteria.getId());
+            return null;
+        });
+    }
+
+    // The delta now holds the criteria's live version, and is sealed once full.
+    private void own(final IndexGroup indexGroup, final String criteriaId) {
+        final IndexGroup delta = indexGroup.getDelta();
+        indexGroup.getSegmentOwners()
+                .put(criteriaId, delta);
+        mirrorCriteria(indexGroup, delta, criteriaId);
+        mirrorPaths(indexGroup, delta);
+        if (delta.getAllCriterias()
+                .size() >= indexGroup.getDeltaLimit()) {
+            compact(delta);
+            final List<IndexGroup> segments = new ArrayList<>(indexGroup.getSegments());
+            segments.add(newSegment(indexGroup.getName()));
+            indexGroup.setSegments(List.copyOf(segments));
+        }
+    }
+
+    private IndexGroup newSegment(final String index) {
+        return IndexGroup.builder()
+                .name(getSegmentName(index))
+                .build();
+    }
+
+    /*
+     * Sealed segments are merged mergeFactor at a time, the newest ones once they have all come to the same tier.
+     * Segments thus grow geometrically and stay few. One merge runs at a time, on the group's executor when it has
+     * one, and is built off the group's lock, which is taken only to pick the segments and to swap the merged one in.
+     * That lock is the group's own rather than its name's, as replace may rename the group while a merge runs.
+     */
+    private void mergeSegments(final String index) {
+        final IndexGroup indexGroup = indexMap.get(index);
+        if (Objects.isNull(indexGroup) || !indexGroup.isSegmented() || !indexGroup.getMerging()
+                .compareAndSet(false, true)) {
+            return;
+        }
+        final Runnable merges = () -> {
+            try {
+                while (mergeSegments(indexGroup)) {
+                    // A merged segment is of the next tier, and may complete a run of its own
+                }
+            } finally {
+                indexGroup.getMerging()
+                        .set(false);
+            }
+        };
+        if (Objects.isNull(indexGroup.getMergeExecutor())) {
+            merges.run();
+        } else {
+            indexGroup.getMergeExecutor()
+                    .execute(merges);
+        }
+    }
+
+    private boolean mergeSegments(final IndexGroup indexGroup) {
+        final Pair<List<IndexGroup>, List<Criteria>> run = executeOnSegments(indexGroup, () -> {
+            final List<IndexGroup> segments = indexGroup.getSegments();
+            final int sealed = segments.size() - 1;
+            if (sealed < indexGroup.getMergeFactor()) {
+                return null;
+            }
+            final List<IndexGroup> candidates = List.copyOf(segments.subList(sealed - indexGroup.getMergeFactor(),
+                    sealed));
+            final int tier = getTier(indexGroup, candidates.get(0));
+            if (candidates.stream()
+                    .anyMatch(segment -> getTier(indexGroup, segment) != tier)) {
+                return null;
+            }
+            return Pair.of(candidates, candidates.stream()
+                    .flatMap(segment -> segment.getAllCriterias()
+                            .values()
+                            .stream())
+                    .toList());
+        });
+        if (Objects.isNull(run)) {
+            return false;
+        }
+        // Built on the merging thread, which may well be one of the executor's own
+        final IndexGroup merged = BulkIndexBuilder.builder()
+                .indexGroup(newSegment(indexGroup.getName()))
+                .criterias(run.getRight())
+                .build()
+                .build();
+        return executeOnSegments(indexGroup, () -> {
+            final List<IndexGroup> segments = new ArrayList<>(indexGroup.getSegments());
+            final int at = indexOf(segments, run.getLeft()
+                    .get(0));
+            // Segments replaced meanwhile, as by renumbering, leave the merge nothing to swap
+            if (at < 0 || IntStream.range(0, run.getLeft()
+                    .size())
+                    .anyMatch(i -> at + i >= segments.size() || segments.get(at + i) != run.getLeft()
+                            .get(i))) {
+                return false;
+            }
+            // Criterias updated or deleted while the merge was built have left the run, and are retired in it too
+            run.getRight()
+                    .forEach(criteria -> {
+                        final IndexGroup owner = indexGroup.getSegmentOwners()
+                                .get(criteria.getId());
+                        if (indexOf(run.getLeft(), owner) >= 0) {
+                            indexGroup.getSegmentOwners()
+                                    .put(criteria.getId(), merged);
+                        } else {
+                            deleteCriteria(merged, criteria);
+                        }
+                    });
+            segments.subList(at, at + run.getLeft()
+                    .size())
+                    .clear();
+            // Named after the group as it is now, should it have been renamed while the merge was built
+            merged.setName(getSegmentName(indexGroup.getName()));
+            segments.add(at, merged);
+            indexGroup.setSegments(List.copyOf(segments));
+            return true;
+        });
+    }
+
+    // How many times over mergeFactor a segment is the size of a full delta.
+    private static int getTier(final IndexGroup indexGroup, final IndexGroup segment) {
+        int tier = 0;
+        long size = segment.getAllCriterias()
+                .size() / indexGroup.getDeltaLimit();
+        while (size >= indexGroup.getMergeFactor()) {
+            size /= indexGroup.getMergeFactor();
+            tier++;
+        }
+        return tier;
+    }
+
+    // Segments are told apart by identity, a rebuilt one keeping the name of the one it replaced.
+    private static int indexOf(final List<IndexGroup> segments, final IndexGroup segment) {
+        for (int i = 0; i < segments.size(); i++) {
+            if (segments.get(i) == segment) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private IndexGroup buildSegments(final String index,
+            final IndexGroup current,
+            final List<Criteria> criterias,
+            final Executor executor) {
+        final IndexGroup sealed = BulkIndexBuilder.builder()
+                .indexGroup(newSegment(index))
+                .criterias(criterias)
+                .executor(executor)
+                .build()
+                .build();
+        final IndexGroup indexGroup = IndexGroup.builder()
+                .name(index)
+                .segments(List.of(sealed, newSegment(index)))
+                .deltaLimit(current.getDeltaLimit())
+                .mergeFactor(current.getMergeFactor())
+                .mergeExecutor(current.getMergeExecutor())
+                .build();
+        criterias.forEach(criteria -> {
+            indexGroup.getSegmentOwners()
+                    .put(criteria.getId(), sealed);
+            mirrorCriteria(indexGroup, sealed, criteria.getId());
+        });
+        mirrorPaths(indexGroup, sealed);
+        return indexGroup;
+    }
+
+    private CompactionStats renumberSegments(final IndexGroup indexGroup, final Executor executor) {
+        return executeOnSegments(indexGroup, () -> renumberSegmentsOf(indexGroup, executor));
+    }
+
+    private static CompactionStats renumberSegmentsOf(final IndexGroup indexGroup, final Executor executor) {
+        final List<IndexGroup> segments = new ArrayList<>();
+        CompactionStats stats = new CompactionStats();
+        for (IndexGroup segment : indexGroup.getSegments()) {
+            final Pair<IndexGroup, CompactionStats> renumbered = renumber(segment, executor);
+            renumbered.getLeft()
+                    .getAllCriterias()
+                    .keySet()
+                    .forEach(criteriaId -> indexGroup.getSegmentOwners()
+                            .put(criteriaId, renumbered.getLeft()));
+            segments.add(renumbered.getLeft());
+            stats = stats.plus(renumbered.getRight());
+        }
+        indexGroup.setSegments(List.copyOf(segments));
+        return stats;
+    }
+
+    // Shards are written to together, each under its own lock, on the group's executor when it has one.
+    private void addToShards(final IndexGroup indexGroup, final List<Criteria> criterias) {
+        final Map<Integer, List<Criteria>> partitions = criterias.stream()
+                .collect(Collectors.groupingBy(criteria -> indexGroup.getShardIndex(criteria.getId()),
+                        LinkedHashMap::new,
+                        Collectors.toList()));
+        final Executor executor = indexGroup.getShardExecutor();
+        final List<CompletableFuture<Void>> writes = new ArrayList<>(partitions.size());
+        partitions.forEach((shard, partition) -> writes.add(Objects.isNull(executor)
+                ? CompletableFuture.completedFuture(addToShard(indexGroup, shard, partition))
+                : CompletableFuture.supplyAsync(() -> addToShard(indexGroup, shard, partition), executor)));
+        try {
+            writes.forEach(CompletableFuture::join);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private Void addToShard(final IndexGroup indexGroup, final int shard, final List<Criteria> criterias) {
+        return executeSecurely(getShardLock(indexGroup, shard), () -> {
+            criterias.forEach(criteria -> {
+                final IndexGroup current = indexGroup.getShard(criteria.getId());
+                addCriteria(current, criteria);
+                mirror(indexGroup, current, criteria.getId());
+            });
+            return null;
+        });
+    }
+
+    private IndexGroup buildShards(final String index,
+            final int shardCount,
+            final Executor shardExecutor,
+            final List<Criteria> criterias,
+            final Executor executor) {
+        final IndexGroup indexGroup = IndexGroup.builder()
+                .name(index)
+                .shards(IntStream.range(0, shardCount)
+                        .mapToObj(i -> IndexGroup.builder()
+                                .name(getShardName(index, i))
+                                .build())
+                        .toList())
+                .shardExecutor(shardExecutor)
+                .build();
+        criterias.stream()
+                .collect(Collectors.groupingBy(criteria -> indexGroup.getShard(criteria.getId()),
+                        LinkedHashMap::new,
+                        Collectors.toList()))
+                .forEach((shard, partition) -> BulkIndexBuilder.builder()
+                        .indexGroup(shard)
+                        .criterias(partition)
+                        .executor(executor)
+                        .build()
+                        .build());
+        // Not yet published, so no lock is needed to fill the group's own view.
+        criterias.forEach(criteria -> mirrorCriteria(indexGroup, indexGroup.getShard(criteria.getId()),
+                criteria.getId()));
+        indexGroup.getShards()
+                .forEach(shard -> mirrorPaths(indexGroup, shard));
+        return indexGroup;
+    }
+
+    /*
+     * Brings the sharded group's own view of a criteria in line with the shard holding it. Taken under the shard's
+     * lock, so writes to one criteria reach the group in the order they reached the shard.
+     */
+    private void mirror(final IndexGroup indexGroup, final IndexGroup shard, final String criteriaId) {
+        executeSecurely(getShardLock(indexGroup, indexGroup.getShards()
+                .size()), () -> {
+            mirrorCriteria(indexGroup, shard, criteriaId);
+            mirrorPaths(indexGroup, shard);
+            return null;
+        });
+    }
+
+    private static void mirrorCriteria(final IndexGroup indexGroup, final IndexGroup shard, final String criteriaId) {
+        mirror(shard.getAllCriterias(), indexGroup.getAllCriterias(), criteriaId);
+        mirror(shard.getTautologicalCriterias(), indexGroup.getTautologicalCriterias(), criteriaId);
+        mirror(shard.getScoreUpperBounds(), indexGroup.getScoreUpperBounds(), criteriaId);
+    }
+
+    private static void mirrorPaths(final IndexGroup indexGroup, final IndexGroup shard) {
+        indexGroup.getAllPaths()
+                .putAll(shard.getAllPaths());
+        indexGroup.getPathAccessors()
+                .putAll(shard.getPathAccessors());
+        indexGroup.refreshPathTrie();
+    }
+
+    private static <T> void mirror(final Map<String, T> from, final Map<String, T> to, final String criteriaId) {
+        final T value = from.get(criteriaId);
+        if (Objects.isNull(value)) {
+            to.remove(criteriaId);
+        } else {
+            to.put(criteriaId, value);
+        }
+    }
+
+    private void renameShards(final IndexGroup indexGroup) {
+        for (int i = 0; i < indexGroup.getShards()
+                .size(); i++) {
+            indexGroup.getShards()
+                    .get(i)
+                    .setName(getShardName(indexGroup.getName(), i));
+        }
+        if (indexGroup.isSegmented()) {
+            executeOnSegments(indexGroup, () -> {
+                indexGroup.getSegments()
+                        .forEach(segment -> segment.setName(getSegmentName(indexGroup.getName())));
+                return null;
+            });
+        }
+    }
+
+    private static String getShardName(final String index, final int shard) {
+        return String.format(SHARD_NAME_FORMAT, index, shard);
+    }
+
+    private String getSegmentName(final String index) {
+        return String.format(SEGMENT_NAME_FORMAT, index, segmentCounter.incrementAndGet());
+    }
+
     private ReentrantReadWriteLock.WriteLock getLock(final String index) {
         return indexLocks.computeIfAbsent(index, x -> new ReentrantReadWriteLock(true).writeLock());
     }
 
+    // Lock of a shard position of the group, the position past its last shard being that of the group's own view.
+    private ReentrantReadWriteLock.WriteLock getShardLock(final IndexGroup indexGroup, final int shard) {
+        return getGroupLocks(indexGroup).get(shard);
+    }
+
+    private List<ReentrantReadWriteLock.WriteLock> getGroupLocks(final IndexGroup indexGroup) {
+        return shardLocks.computeIfAbsent(indexGroup, x -> IntStream.rangeClosed(0, x.getShards()
+                .size())
+                .mapToObj(i -> new ReentrantReadWriteLock(true).writeLock())
+                .toList());
+    }
+
+    /*
+     * Runs the block holding every lock of the group, taken in position order as writes taking two of them do, so that
+     * what it reads of a sharded group's shards and view is at rest.
+     */
+    private <T> T executeOnGroup(final IndexGroup indexGroup, final SecureExecution<T> block) {
+        return executeOnLocks(getGroupLocks(indexGroup), block);
+    }
+
+    /*
+     * Segments are swapped in and out under the group's own lock, which stays with the group when replace renames it
+     * whereas the lock of its name does not.
+     */
+    private <T> T executeOnSegments(final IndexGroup indexGroup, final SecureExecution<T> block) {
+        return executeSecurely(getShardLock(indexGroup, indexGroup.getShards()
+                .size()), block);
+    }
+
+    private static <T> T executeOnLocks(final List<ReentrantReadWriteLock.WriteLock> locks,
+            final SecureExecution<T> block) {
+        return executeSecurely(locks.get(0), locks.size() == 1
+                ? block
+                : () -> executeOnLocks(locks.subList(1, locks.size()), block));
+    }
+
 }
@@ -0,0 +1,252 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.index.builder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.phonepe.mustang.composition.impl.Conjunction;
+import com.phonepe.mustang.composition.impl.Disjunction;
+import com.phonepe.mustang.criteria.Criteria;
+import com.phonepe.mustang.criteria.CriteriaUtils;
+import com.phonepe.mustang.criteria.impl.CNFCriteria;
+import com.phonepe.mustang.criteria.impl.DNFCriteria;
+import com.phonepe.mustang.criteria.impl.UNFCriteria;
+import com.phonepe.mustang.exception.ErrorCode;
+import com.phonepe.mustang.exception.MustangException;
+import com.phonepe.mustang.index.IndexGroup;
+import com.phonepe.mustang.index.core.ConjunctionPostingEntry;
+import com.phonepe.mustang.index.core.DisjunctionPostingEntry;
+import com.phonepe.mustang.index.core.InvertedIndex;
+import com.phonepe.mustang.index.core.Key;
+import com.phonepe.mustang.index.core.PostingList;
+import com.phonepe.mustang.index.entry.extractor.ScoreUpperBoundExtractor;
+
+import lombok.Builder;
+import lombok.Data;
+
+/*
+ * Builds an index group from a whole list of criterias at once, as when an index is loaded on startup. Criterias are
+ * normalized and their posting lists extracted on the executor, internal ids are handed out in input order, every
+ * level of the table is then filled in one pass and its read side built once. The group is meant to be published
+ * only after build() returns. It is left writable, as merged segments are written to once swapped in, and it is up
+ * to IndexingFacade.build to freeze a group it publishes on its own, see IndexGroup.freeze.
+ */
+@Data
+@Builder
+public class BulkIndexBuilder {
+    @Valid
+    @NotNull
+    private final IndexGroup indexGroup;
+    @NotNull
+    private final List<Criteria> criterias;
+    // Null builds on the calling thread.
+    private final Executor executor;
+
+    public IndexGroup build() {
+        final List<Pair<Criteria, Double>> prepared = map(criterias,
+                criteria -> Pair.of(criteria instanceof UNFCriteria unf ? CriteriaUtils.getNormalizedCriteria(unf)
+                        : criteria, criteria.accept(new ScoreUpperBoundExtractor())));
+
+        final List<Supplier<Map<Integer, Map<Key, TreeMap<Integer, ConjunctionPostingEntry>>>>> dnfExtractions =
+                new ArrayList<>();
+        final List<Supplier<Map<Integer, Map<Key, TreeMap<Integer, DisjunctionPostingEntry>>>>> cnfExtractions =
+                new ArrayList<>();
+        IntStream.range(0, criterias.size())
+                .forEach(i -> {
+                    final Criteria criteria = criterias.get(i);
+                    if (indexGroup.getAllCriterias()
+                            .containsKey(criteria.getId())) {
+                        throw MustangException.builder()
+                                .errorCode(ErrorCode.INDEX_GENERATION_ERROR)
+                                .build();
+                    }
+                    indexGroup.getAllCriterias()
+                            .put(criteria.getId(), criteria);
+                    indexGroup.getScoreUpperBounds()
+                            .put(criteria.getId(), prepared.get(i)
+                                    .getRight());
+
+                    final Criteria normalizedCriteria = prepared.get(i)
+                            .getLeft();
+                    if (CriteriaIndexBuilder.isTautological(normalizedCriteria)) {
+                        indexGroup.getTautologicalCriterias()
+                                .put(criteria.getId(), normalizedCriteria);
+                        return;
+                    }
+                    // A UNF criteria is scored on its own tree, see CriteriaIndexBuilder
+                    final Long scoreCeiling = criteria instanceof UNFCriteria
+                            ? ScoreUpperBoundExtractor.getScoreCeiling(prepared.get(i)
+                                    .getRight())
+                            : null;
+                    if (normalizedCriteria instanceof DNFCriteria dnf) {
+                        dnfExtractions.add(assign(dnf, scoreCeiling));
+                    } else if (normalizedCriteria instanceof CNFCriteria cnf) {
+                        cnfExtractions.add(assign(cnf, scoreCeiling));
+                    } else {
+                        throw new AssertionError("Should never happen");
+                    }
+                });
+
+        final List<Map<Integer, Map<Key, TreeMap<Integer, ConjunctionPostingEntry>>>> dnfFragments = map(
+                dnfExtractions, Supplier::get);
+        final List<Map<Integer, Map<Key, TreeMap<Integer, DisjunctionPostingEntry>>>> cnfFragments = map(
+                cnfExtractions, Supplier::get);
+        final List<Runnable> levels = new ArrayList<>();
+        levels.addAll(fill(indexGroup.getDnfInvertedIndex(), dnfFragments, PostingList::ofConjunctions));
+        levels.addAll(fill(indexGroup.getCnfInvertedIndex(), cnfFragments, PostingList::ofDisjunctions));
+        map(levels, level -> {
+            level.run();
+            return null;
+        });
+        indexGroup.refreshPathTrie();
+        return indexGroup;
+    }
+
+    /*
+     * Hands out the internal ids of a criteria's conjunctions and records what hangs off them, returning the
+     * extraction of its posting lists, kept by k.
+     */
+    private Supplier<Map<Integer, Map<Key, TreeMap<Integer, ConjunctionPostingEntry>>>> assign(final DNFCriteria dnf,
+            final Long scoreCeiling) {
+        final List<Conjunction> conjunctions = dnf.getConjunctions();
+        final Set<Integer> iIds = Sets.newHashSet();
+        final List<Integer> conjunctionIds = IntStream.range(0, conjunctions.size())
+                .mapToObj(j -> {
+                    final Integer iId = indexGroup.getDnfInvertedIndex()
+                            .getInternalIdFromCache(DNFIndexer.getConjunctionId(dnf.getId(), j));
+                    indexGroup.getDnfInvertedIndex()
+                            .getLinkages()
+                            .computeIfAbsent(DNFIndexer.getKSize(conjunctions.get(j)), x -> Sets.newTreeSet())
+                            .add(iId);
+                    iIds.add(iId);
+                    return iId;
+                })
+                .toList();
+        indexGroup.getDnfInvertedIndex()
+                .getActiveIds()
+                .put(dnf.getId(), iIds);
+
+        return () -> {
+            final Map<Integer, Map<Key, TreeMap<Integer, ConjunctionPostingEntry>>> fragment = Maps.newHashMap();
+            IntStream.range(0, conjunctions.size())
+                    .forEach(j -> {
+                        final int kSize = DNFIndexer.getKSize(conjunctions.get(j));
+                        CriteriaIndexBuilder.mergePostingLists(fragment.computeIfAbsent(kSize, x -> Maps.newHashMap()),
+                                DNFIndexer.extractPostingLists(conjunctions.get(j), kSize, conjunctionIds.get(j),
+                                        dnf.getId(), scoreCeiling, indexGroup));
+                    });
+            return fragment;
+        };
+    }
+
+    private Supplier<Map<Integer, Map<Key, TreeMap<Integer, DisjunctionPostingEntry>>>> assign(final CNFCriteria cnf,
+            final Long scoreCeiling) {
+        final List<Disjunction> disjunctions = cnf.getDisjunctions();
+        final int kSize = CNFIndexer.getKSize(cnf);
+        final Integer iId = indexGroup.getCnfInvertedIndex()
+                .getInternalIdFromCache(cnf.getId());
+        indexGroup.getCnfInvertedIndex()
+                .getLinkages()
+                .computeIfAbsent(kSize, x -> Sets.newTreeSet())
+                .add(iId);
+        indexGroup.getCnfInvertedIndex()
+                .getDisjunctionCounters()
+                .put(iId, disjunctions.stream()
+                        .map(CNFIndexer::getExcludedPredicateCountFromDisjunction)
+                        .toArray(Integer[]::new));
+
+        return () -> {
+            // Key orders only look at the criteria's own entries, which all land in this level.
+            final Map<Key, TreeMap<Integer, DisjunctionPostingEntry>> level = Maps.newHashMap();
+            IntStream.range(0, disjunctions.size())
+                    .forEach(i -> CriteriaIndexBuilder.mergePostingLists(level,
+                            CNFIndexer.extractPostingLists(disjunctions.get(i), i, kSize, iId, cnf.getId(), level,
+                                    scoreCeiling, indexGroup)));
+            return Map.of(kSize, level);
+        };
+    }
+
+    /*
+     * One task per level of the table, copying the fragments' posting lists into it in input order. Internal ids
+     * were handed out in that order too, so every posting list is appended to in ascending order of id and never
+     * needs sorting again.
+     */
+    private static <T> List<Runnable> fill(final InvertedIndex<T> invertedIndex,
+            final List<Map<Integer, Map<Key, TreeMap<Integer, T>>>> fragments,
+            final Function<TreeMap<Integer, T>, PostingList> converter) {
+        return fragments.stream()
+                .flatMap(fragment -> fragment.keySet()
+                        .stream())
+                .collect(Collectors.toCollection(Sets::newTreeSet))
+                .stream()
+                .<Runnable>map(kSize -> () -> {
+                    final Map<Key, TreeMap<Integer, T>> level = invertedIndex.getTable()
+                            .computeIfAbsent(kSize, x -> Maps.newConcurrentMap());
+                    fragments.stream()
+                            .map(fragment -> fragment.get(kSize))
+                            .filter(Objects::nonNull)
+                            .forEach(fragment -> fragment.forEach((key, entries) -> {
+                                final TreeMap<Integer, T> postingList = level.computeIfAbsent(key,
+                                        x -> new TreeMap<>());
+                                entries.forEach(postingList::putIfAbsent);
+                            }));
+                    invertedIndex.refreshKeyDictionary(kSize, converter);
+                })
+                .toList();
+    }
+
+    private <T, R> List<R> map(final List<T> items, final Function<T, R> task) {
+        if (Objects.isNull(executor)) {
+            return items.stream()
+                    .map(task)
+                    .toList();
+        }
+        final List<CompletableFuture<R>> results = items.stream()
+                .map(item -> CompletableFuture.supplyAsync(() -> task.apply(item), executor))
+                .toList();
+        try {
+            return results.stream()
+                    .map(CompletableFuture::join)
+                    .toList();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+}
@@ -16,11 +16,9 @@
  */
 package com.phonepe.mustang.index.builder;
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -29,15 +27,16 @@ import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 
 import com.phonepe.mustang.common.Utils;
-import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.tuple.Pair;
 
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.phonepe.mustang.composition.impl.Disjunction;
 import com.phonepe.mustang.criteria.impl.CNFCriteria;
 import com.phonepe.mustang.detail.Caveat;
 import com.phonepe.mustang.index.core.DisjunctionPostingEntry;
 import com.phonepe.mustang.index.core.Key;
+import com.phonepe.mustang.index.core.PostingList;
 import com.phonepe.mustang.index.core.impl.CNFInvertedIndex;
 import com.phonepe.mustang.index.entry.extractor.CNFPostingListsExtractor;
 import com.phonepe.mustang.index.IndexGroup;
@@ -51,27 +50,6 @@ import lombok.Data;
 @Builder
 public class CNFIndexer {
     public static final String ZERO_SIZE_DISJUNCTION_ENTRY_KEYNAME = "ZZZ";
-    private static final Comparator<TreeMap<Integer, DisjunctionPostingEntry>> ID_COMPARATOR = (e1,
-            e2) -> (ObjectUtils.compare(e1.firstEntry()
-                    .getValue()
-                    .getIId(),
-                    e2.firstEntry()
-                            .getValue()
-                            .getIId()));
-    private static final Comparator<TreeMap<Integer, DisjunctionPostingEntry>> TYPE_COMPARATOR = (e1,
-            e2) -> (ObjectUtils.compare(e1.firstEntry()
-                    .getValue()
-                    .getType(),
-                    e2.firstEntry()
-                            .getValue()
-                            .getType()));
-    private static final Comparator<TreeMap<Integer, DisjunctionPostingEntry>> ORDER_COMPARATOR = (e1,
-            e2) -> (ObjectUtils.compare(e1.firstEntry()
-                    .getValue()
-                    .getOrder(),
-                    e2.firstEntry()
-                            .getValue()
-                            .getOrder()));
     @NotNull
     private final CNFCriteria criteria;
     @Valid
@@ -79,6 +57,8 @@ public class CNFIndexer {
     private final IndexGroup indexGroup;
     @NotNull
     private final IndexOperation operation;
+    // Set for a criteria scored on its own tree, see ScoreUpperBoundExtractor.getScoreCeiling.
+    private final Long scoreCeiling;
 
     public void index() {
         final int disjunctionSize = criteria.getDisjunctions()
@@ -90,15 +70,11 @@ public class CNFIndexer {
         final Integer internalId = operationMeta.getRight();
         final Map<Integer, Map<Key, TreeMap<Integer, DisjunctionPostingEntry>>> indexTable = cnfInvertedIndex
                 .getTable();
+        final Map<Key, TreeMap<Integer, DisjunctionPostingEntry>> addedEntries = Maps.newHashMap();
 
         if (Boolean.TRUE.equals(operationMeta.getLeft())) {
-            final Integer[] disjunctionCounter = disjunctionCounters.computeIfAbsent(internalId,
-                    x -> new Integer[disjunctionSize]);
-            final int kSize = criteria.getDisjunctions()
-                    .stream()
-                    .filter(disjunction -> !isDisjunctionWithExcludedPredicate(disjunction))
-                    .mapToInt(e -> 1)
-                    .sum();
+            final Integer[] disjunctionCounter = new Integer[disjunctionSize];
+            final int kSize = getKSize(criteria);
 
             cnfInvertedIndex.getLinkages()
                     .computeIfAbsent(kSize, x -> Sets.newTreeSet())
@@ -109,82 +85,101 @@ public class CNFIndexer {
                     .forEach(i -> {
                         final Disjunction disjunction = criteria.getDisjunctions()
                                 .get(i);
-                        final List<Map<Key, TreeMap<Integer, DisjunctionPostingEntry>>> postingLists = disjunction
-                                .getPredicates()
-                                .stream()
-                                .map(predicate -> predicate.accept(CNFPostingListsExtractor.builder()
-                                        .iId(internalId)
-                                        .eId(criteria.getId())
-                                        .order(i)
-                                        .postingLists(indexTable.getOrDefault(kSize, Collections.emptyMap()))
-                                        .cnfKeyFrequency(indexGroup.getCnfKeyFrequency())
-                                        .allPaths(indexGroup.getAllPaths())
-                                        .build()))
-                                .collect(Collectors.toList());
-
-                        if (kSize == 0) {
-                            // Zero size handling
-                            final Key key = Key.builder()
-                                    .name(ZERO_SIZE_DISJUNCTION_ENTRY_KEYNAME)
-                                    .preOps(Utils.DEFAULT_PREOPERATION)
-                                    .caveat(Caveat.NONE)
-                                    .value(0)
-                                    .upperBoundScore(0)
-                                    .build();
-                            final Map<Key, TreeMap<Integer, DisjunctionPostingEntry>> zPostingLists = postingLists
-                                    .stream()
-                                    .flatMap(m -> m.entrySet()
-                                            .stream())
-                                    .map(Map.Entry::getValue)
-                                    .flatMap(x -> x.entrySet()
-                                            .stream())
-                                    .map(Map.Entry::getValue)
-                                    .distinct()
-                                    .map(entry -> DisjunctionPostingEntry.builder()
-                                            .iId(entry.getIId())
-                                            .eId(entry.getEId())
-                                            .type(PredicateType.INCLUDED)
-                                            .order(-1)
-                                            .score(0)
-                                            .build())
-                                    .distinct()
-                                    .map(entry -> Pair.of(key, entry))
-                                    .collect(Collectors.groupingBy(Pair::getKey,
-                                            Collectors.mapping(Pair::getValue,
-                                                    Collectors.toMap(DisjunctionPostingEntry::getIId,
-                                                            x -> x,
-                                                            (o, n) -> n,
-                                                            TreeMap::new))));
-                            postingLists.add(zPostingLists);
-                        }
-
-                        postingLists.add(indexTable.getOrDefault(kSize, Collections.emptyMap()));
-                        indexTable.put(kSize, CriteriaIndexBuilder.compactPostingLists(postingLists));
+                        final Map<Key, TreeMap<Integer, DisjunctionPostingEntry>> level = indexTable
+                                .computeIfAbsent(kSize, x -> Maps.newConcurrentMap());
+                        CriteriaIndexBuilder.mergePostingLists(level,
+                                extractPostingLists(disjunction, i, kSize, internalId, criteria.getId(), level,
+                                        scoreCeiling, indexGroup))
+                                .forEach((key, entries) -> addedEntries.computeIfAbsent(key, x -> new TreeMap<>())
+                                        .putAll(entries));
                         disjunctionCounter[i] = getExcludedPredicateCountFromDisjunction(disjunction);
                     });
+            indexGroup.refreshPathTrie();
+            cnfInvertedIndex.updateKeyDictionary(kSize, addedEntries, List.of(internalId),
+                    PostingList::ofDisjunctions);
+            // Searches only evaluate ids with counters, set once the id is in every posting list it belongs to
+            disjunctionCounters.put(internalId, disjunctionCounter);
         }
+    }
 
-        // Keep the index sorted.
-        indexTable.entrySet()
-                .forEach(x -> x.setValue(sortPostingLists(x.getValue())));
+    static int getKSize(final CNFCriteria criteria) {
+        return criteria.getDisjunctions()
+                .stream()
+                .filter(disjunction -> !isDisjunctionWithExcludedPredicate(disjunction))
+                .mapToInt(e -> 1)
+                .sum();
     }
 
-    private LinkedHashMap<Key, TreeMap<Integer, DisjunctionPostingEntry>> sortPostingLists(
-            Map<Key, TreeMap<Integer, DisjunctionPostingEntry>> map) {
-        return map.entrySet()
+    /*
+     * Posting lists of the disjunction's predicates, along with the zero size entry for a criteria of size 0. Key
+     * orders are told apart against the given level, where the criteria's earlier disjunctions are found.
+     */
+    static List<Map<Key, TreeMap<Integer, DisjunctionPostingEntry>>> extractPostingLists(final Disjunction disjunction,
+            final int order,
+            final int kSize,
+            final Integer iId,
+            final String eId,
+            final Map<Key, TreeMap<Integer, DisjunctionPostingEntry>> level,
+            final Long scoreCeiling,
+            final IndexGroup indexGroup) {
+        final List<Map<Key, TreeMap<Integer, DisjunctionPostingEntry>>> postingLists = disjunction.getPredicates()
                 .stream()
-                .sorted(Map.Entry.comparingByValue(ID_COMPARATOR.thenComparing(TYPE_COMPARATOR)
-                        .thenComparing(ORDER_COMPARATOR)))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (o, n) -> n, LinkedHashMap::new));
+                .map(predicate -> predicate.accept(CNFPostingListsExtractor.builder()
+                        .iId(iId)
+                        .eId(eId)
+                        .order(order)
+                        .postingLists(level)
+                        .cnfKeyFrequency(indexGroup.getCnfKeyFrequency())
+                        .allPaths(indexGroup.getAllPaths())
+                        .pathAccessors(indexGroup.getPathAccessors())
+                        .scoreCeiling(scoreCeiling)
+                        .build()))
+                .collect(Collectors.toList());
+
+        if (kSize == 0) {
+            // Zero size handling
+            final Key key = Key.builder()
+                    .name(ZERO_SIZE_DISJUNCTION_ENTRY_KEYNAME)
+                    .preOps(Utils.DEFAULT_PREOPERATION)
+                    .caveat(Caveat.NONE)
+                    .value(0)
+                    .upperBoundScore(0)
+                    .build();
+            final Map<Key, TreeMap<Integer, DisjunctionPostingEntry>> zPostingLists = postingLists.stream()
+                    .flatMap(m -> m.entrySet()
+                            .stream())
+                    .map(Map.Entry::getValue)
+                    .flatMap(x -> x.entrySet()
+                            .stream())
+                    .map(Map.Entry::getValue)
+                    .distinct()
+                    .map(entry -> DisjunctionPostingEntry.builder()
+                            .iId(entry.getIId())
+                            .eId(entry.getEId())
+                            .type(PredicateType.INCLUDED)
+                            .order(-1)
+                            .score(Objects.isNull(scoreCeiling) ? 0 : scoreCeiling)
+                            .build())
+                    .distinct()
+                    .map(entry -> Pair.of(key, entry))
+                    .collect(Collectors.groupingBy(Pair::getKey,
+                            Collectors.mapping(Pair::getValue,
+                                    Collectors.toMap(DisjunctionPostingEntry::getIId,
+                                            x -> x,
+                                            (o, n) -> n,
+                                            TreeMap::new))));
+            postingLists.add(zPostingLists);
+        }
+        return postingLists;
     }
 
-    private boolean isDisjunctionWithExcludedPredicate(Disjunction disjunction) {
+    private static boolean isDisjunctionWithExcludedPredicate(Disjunction disjunction) {
         return disjunction.getPredicates()
                 .stream()
                 .anyMatch(predicate -> PredicateType.EXCLUDED.equals(predicate.getType()));
     }
 
-    private int getExcludedPredicateCountFromDisjunction(Disjunction disjunction) {
+    static int getExcludedPredicateCountFromDisjunction(Disjunction disjunction) {
         return disjunction.getPredicates()
                 .stream()
                 .filter(predicate -> PredicateType.EXCLUDED.equals(predicate.getType()))
@@ -19,12 +19,11 @@ package com.phonepe.mustang.index.builder;
 import com.phonepe.mustang.criteria.Criteria;
 import com.phonepe.mustang.criteria.CriteriaUtils;
 import com.phonepe.mustang.criteria.impl.UNFCriteria;
-import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.TreeMap;
-import java.util.stream.Collectors;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
@@ -35,6 +34,7 @@ import com.phonepe.mustang.criteria.impl.DNFCriteria;
 import com.phonepe.mustang.criteria.tautology.CNFTautologicalCriteria;
 import com.phonepe.mustang.criteria.tautology.DNFTautologicalCriteria;
 import com.phonepe.mustang.index.IndexGroup;
+import com.phonepe.mustang.index.entry.extractor.ScoreUpperBoundExtractor;
 import com.phonepe.mustang.index.operation.IndexOperation;
 
 import lombok.Builder;
@@ -51,8 +51,29 @@ public class CriteriaIndexBuilder implements CriteriaVisitor<Void> {
 
     @Override
     public Void visit(DNFCriteria dnf) {
-        if (dnf instanceof DNFTautologicalCriteria || dnf.getConjunctions()
-                .isEmpty()) {
+        return index(dnf, null);
+    }
+
+    @Override
+    public Void visit(CNFCriteria cnf) {
+        return index(cnf, null);
+    }
+
+    // Indexed in its normal form, its entries carrying its upper bound as it is scored on its own tree.
+    @Override
+    public Void visit(UNFCriteria unf) {
+        final Criteria normalizedCriteria = CriteriaUtils.getNormalizedCriteria(unf);
+        final Long scoreCeiling = ScoreUpperBoundExtractor.getScoreCeiling(unf.accept(new ScoreUpperBoundExtractor()));
+        if (normalizedCriteria instanceof CNFCriteria cnfCriteria) {
+            return index(cnfCriteria, scoreCeiling);
+        } else if (normalizedCriteria instanceof DNFCriteria dnfCriteria) {
+            return index(dnfCriteria, scoreCeiling);
+        }
+        throw new AssertionError("Should never happen");
+    }
+
+    private Void index(final DNFCriteria dnf, final Long scoreCeiling) {
+        if (isTautological(dnf)) {
             indexGroup.getTautologicalCriterias()
                     .put(dnf.getId(), dnf);
         } else {
@@ -60,16 +81,15 @@ public class CriteriaIndexBuilder implements CriteriaVisitor<Void> {
                     .criteria(dnf)
                     .indexGroup(indexGroup)
                     .operation(operation)
+                    .scoreCeiling(scoreCeiling)
                     .build()
                     .index();
         }
         return null;
     }
 
-    @Override
-    public Void visit(CNFCriteria cnf) {
-        if (cnf instanceof CNFTautologicalCriteria || cnf.getDisjunctions()
-                .isEmpty()) {
+    private Void index(final CNFCriteria cnf, final Long scoreCeiling) {
+        if (isTautological(cnf)) {
             indexGroup.getTautologicalCriterias()
                     .put(cnf.getId(), cnf);
         } else {
@@ -77,34 +97,55 @@ public class CriteriaIndexBuilder implements CriteriaVisitor<Void> {
                     .criteria(cnf)
                     .indexGroup(indexGroup)
                     .operation(operation)
+                    .scoreCeiling(scoreCeiling)
                     .build()
                     .index();
         }
         return null;
     }
 
-    @Override
-    public Void visit(UNFCriteria unf) {
-        final Criteria normalizedCriteria = CriteriaUtils.getNormalizedCriteria(unf);
-        if (normalizedCriteria instanceof CNFCriteria cnfCriteria) {
-            return this.visit(cnfCriteria);
-        } else if (normalizedCriteria instanceof DNFCriteria dnfCriteria) {
-            return this.visit(dnfCriteria);
+    /*
+     * Retires whatever version of the criteria is indexed, in either form, so that it stops matching right away.
+     * Its posting entries are left in place for compaction to purge.
+     */
+    public static void retire(final IndexGroup indexGroup, final String criteriaId) {
+        indexGroup.getTautologicalCriterias()
+                .remove(criteriaId);
+        DNFIndexer.retire(indexGroup, criteriaId);
+        indexGroup.getCnfInvertedIndex()
+                .retire(criteriaId);
+    }
+
+    // Matches every event, so it is kept aside rather than indexed.
+    static boolean isTautological(final Criteria criteria) {
+        if (criteria instanceof DNFCriteria dnf) {
+            return dnf instanceof DNFTautologicalCriteria || dnf.getConjunctions()
+                    .isEmpty();
+        } else if (criteria instanceof CNFCriteria cnf) {
+            return cnf instanceof CNFTautologicalCriteria || cnf.getDisjunctions()
+                    .isEmpty();
         }
-        throw new AssertionError("Should never happen");
+        return false;
     }
 
-    public static <T, S> Map<T, TreeMap<Integer, S>> compactPostingLists(List<Map<T, TreeMap<Integer, S>>> maps) {
-        final List<Map.Entry<T, TreeMap<Integer, S>>> tempResult = maps.stream()
-                .collect(ArrayList::new, (set, map) -> set.addAll(map.entrySet()), ArrayList::addAll);
-        return tempResult.stream()
-                .collect(Collectors.groupingBy(Map.Entry::getKey,
-                        LinkedHashMap::new,
-                        Collectors.mapping(Map.Entry::getValue, Collectors.reducing(new TreeMap<>(), (s1, s2) -> {
-                            final TreeMap<Integer, S> combined = new TreeMap<>(s1);
-                            combined.putAll(s2);
-                            return combined;
-                        }))));
+    /*
+     * Adds the posting lists extracted for a criteria to a level of the table, touching only their keys. A touched
+     * list is replaced by a copy holding the new entries, never changed in place, so that snapshots and other readers
+     * off the write lock see it whole. Among the extracted lists the last entry of an id wins, while an entry the level
+     * already holds is kept. Returns the extracted entries by key, for the key dictionary to splice in.
+     */
+    public static <T, S> Map<T, TreeMap<Integer, S>> mergePostingLists(final Map<T, TreeMap<Integer, S>> level,
+            final List<Map<T, TreeMap<Integer, S>>> maps) {
+        final Map<T, TreeMap<Integer, S>> combined = new LinkedHashMap<>();
+        maps.forEach(map -> map.forEach((key, entries) -> combined.computeIfAbsent(key, x -> new TreeMap<>())
+                .putAll(entries)));
+        combined.forEach((key, entries) -> {
+            final TreeMap<Integer, S> current = level.get(key);
+            final TreeMap<Integer, S> postingList = Objects.isNull(current) ? new TreeMap<>() : new TreeMap<>(current);
+            entries.forEach(postingList::putIfAbsent);
+            level.put(key, postingList);
+        });
+        return combined;
     }
 
 }
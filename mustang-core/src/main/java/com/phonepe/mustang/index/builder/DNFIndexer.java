@@ -16,11 +16,9 @@
  */
 package com.phonepe.mustang.index.builder;
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
@@ -30,15 +28,16 @@ import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 
 import com.phonepe.mustang.common.Utils;
-import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.tuple.Pair;
 
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.phonepe.mustang.composition.impl.Conjunction;
 import com.phonepe.mustang.criteria.impl.DNFCriteria;
 import com.phonepe.mustang.detail.Caveat;
 import com.phonepe.mustang.index.core.ConjunctionPostingEntry;
 import com.phonepe.mustang.index.core.Key;
+import com.phonepe.mustang.index.core.PostingList;
 import com.phonepe.mustang.index.core.impl.DNFInvertedIndex;
 import com.phonepe.mustang.index.entry.extractor.DNFPostingListsExtractor;
 import com.phonepe.mustang.index.IndexGroup;
@@ -53,12 +52,6 @@ import lombok.Data;
 public class DNFIndexer {
     public static final String ZERO_SIZE_CONJUNCTION_ENTRY_KEYNAME = "ZZZ";
     private static final String CONJUNCTION_ENTRY_ID_FORMAT = "%s#%s";
-    private static final Comparator<TreeMap<Integer, ConjunctionPostingEntry>> POSTING_ENTRY_COMPARATOR = (e1,
-            e2) -> (ObjectUtils.compare(e1.firstEntry()
-                    .getValue(),
-                    e2.firstEntry()
-                            .getValue(),
-                    true));
     @NotNull
     private final DNFCriteria criteria;
     @Valid
@@ -66,12 +59,16 @@ public class DNFIndexer {
     private final IndexGroup indexGroup;
     @NotNull
     private final IndexOperation operation;
+    // Set for a criteria scored on its own tree, see ScoreUpperBoundExtractor.getScoreCeiling.
+    private final Long scoreCeiling;
 
     public void index() {
         final DNFInvertedIndex<ConjunctionPostingEntry> dnfInvertedIndex = indexGroup.getDnfInvertedIndex();
         final Map<Integer, Map<Key, TreeMap<Integer, ConjunctionPostingEntry>>> indexTable = dnfInvertedIndex
                 .getTable();
         final Set<Integer> newIIds = Sets.newHashSet();
+        final Map<Integer, Map<Key, TreeMap<Integer, ConjunctionPostingEntry>>> addedEntries = Maps.newHashMap();
+        final Map<Integer, Set<Integer>> addedIIds = Maps.newHashMap();
 
         IntStream.range(0,
                 criteria.getConjunctions()
@@ -82,86 +79,116 @@ public class DNFIndexer {
                             .get(j);
                     final Pair<Boolean, Integer> operationMeta = operation
                             .accept(new IndexOperationMetaExtractor(dnfInvertedIndex,
-                                    String.format(CONJUNCTION_ENTRY_ID_FORMAT, criteria.getId(), j)));
+                                    getConjunctionId(criteria.getId(), j)));
                     final Integer iId = operationMeta.getRight();
                     newIIds.add(iId);
                     if (Boolean.TRUE.equals(operationMeta.getLeft())) {
-                        final int kSize = conjunction.getPredicates()
-                                .stream()
-                                .filter(predicate -> PredicateType.INCLUDED.equals(predicate.getType()))
-                                .mapToInt(e -> 1)
-                                .sum();
+                        final int kSize = getKSize(conjunction);
 
                         dnfInvertedIndex.getLinkages()
                                 .computeIfAbsent(kSize, x -> Sets.newTreeSet())
                                 .add(iId);
 
-                        final List<Map<Key, TreeMap<Integer, ConjunctionPostingEntry>>> postingLists = conjunction
-                                .getPredicates()
-                                .stream()
-                                .map(predicate -> predicate.accept(DNFPostingListsExtractor.builder()
-                                        .iId(iId)
-                                        .eId(criteria.getId())
-                                        .dnfKeyFrequency(indexGroup.getDnfKeyFrequency())
-                                        .allPaths(indexGroup.getAllPaths())
-                                        .build()))
-                                .collect(Collectors.toList());
-
-                        if (kSize == 0) {
-                            // ZERO size handling
-                            final Key key = Key.builder()
-                                    .name(ZERO_SIZE_CONJUNCTION_ENTRY_KEYNAME)
-                                    .preOps(Utils.DEFAULT_PREOPERATION)
-                                    .caveat(Caveat.NONE)
-                                    .value(0)
-                                    .upperBoundScore(0)
-                                    .build();
-                            final Map<Key, TreeMap<Integer, ConjunctionPostingEntry>> zPostingLists = postingLists
-                                    .stream()
-                                    .flatMap(m -> m.entrySet()
-                                            .stream())
-                                    .map(Map.Entry::getValue)
-                                    .flatMap(x -> x.entrySet()
-                                            .stream())
-                                    .map(Map.Entry::getValue)
-                                    .distinct()
-                                    .map(entry -> ConjunctionPostingEntry.builder()
-                                            .iId(entry.getIId())
-                                            .eId(entry.getEId())
-                                            .type(PredicateType.INCLUDED)
-                                            .score(0)
-                                            .build())
-                                    .distinct()
-                                    .map(entry -> Pair.of(key, entry))
-                                    .collect(Collectors.groupingBy(Pair::getKey,
-                                            Collectors.mapping(Pair::getValue,
-                                                    Collectors.toMap(ConjunctionPostingEntry::getIId,
-                                                            x -> x,
-                                                            (o, n) -> n,
-                                                            TreeMap::new))));
-                            postingLists.add(zPostingLists);
-                        }
-
-                        postingLists.add(indexTable.getOrDefault(kSize, Collections.emptyMap()));
-                        indexTable.put(kSize, CriteriaIndexBuilder.compactPostingLists(postingLists));
+                        CriteriaIndexBuilder.mergePostingLists(
+                                indexTable.computeIfAbsent(kSize, x -> Maps.newConcurrentMap()),
+                                extractPostingLists(conjunction, kSize, iId, criteria.getId(), scoreCeiling,
+                                        indexGroup))
+                                .forEach((key, entries) -> addedEntries
+                                        .computeIfAbsent(kSize, x -> Maps.newHashMap())
+                                        .computeIfAbsent(key, x -> new TreeMap<>())
+                                        .putAll(entries));
+                        addedIIds.computeIfAbsent(kSize, x -> Sets.newHashSet())
+                                .add(iId);
                     }
                 });
+        indexGroup.refreshPathTrie();
+        addedEntries.forEach((kSize, entries) -> dnfInvertedIndex.updateKeyDictionary(kSize, entries,
+                addedIIds.get(kSize), PostingList::ofConjunctions));
 
+        // Searches only match conjunctions of active ids, set once they are in every posting list they belong to
         dnfInvertedIndex.getActiveIds()
                 .put(criteria.getId(), newIIds);
+    }
 
-        // Keep the index sorted.
-        indexTable.entrySet()
-                .forEach(x -> x.setValue(sortPostingLists(x.getValue())));
+    // Retires the conjunctions of the criteria's live version, one internal id and conjunction id apiece.
+    static void retire(final IndexGroup indexGroup, final String criteriaId) {
+        final DNFInvertedIndex<ConjunctionPostingEntry> dnfInvertedIndex = indexGroup.getDnfInvertedIndex();
+        final Set<Integer> activeIds = dnfInvertedIndex.getActiveIds()
+                .remove(criteriaId);
+        if (Objects.isNull(activeIds)) {
+            return;
+        }
+        IntStream.range(0, activeIds.size())
+                .forEach(j -> dnfInvertedIndex.retire(getConjunctionId(criteriaId, j)));
+        dnfInvertedIndex.getStaleIds()
+                .addAll(activeIds);
     }
 
-    private LinkedHashMap<Key, TreeMap<Integer, ConjunctionPostingEntry>> sortPostingLists(
-            Map<Key, TreeMap<Integer, ConjunctionPostingEntry>> map) {
-        return map.entrySet()
+    static String getConjunctionId(final String criteriaId, final int conjunction) {
+        return String.format(CONJUNCTION_ENTRY_ID_FORMAT, criteriaId, conjunction);
+    }
+
+    static int getKSize(final Conjunction conjunction) {
+        return conjunction.getPredicates()
                 .stream()
-                .sorted(Map.Entry.comparingByValue(POSTING_ENTRY_COMPARATOR))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (o, n) -> n, LinkedHashMap::new));
+                .filter(predicate -> PredicateType.INCLUDED.equals(predicate.getType()))
+                .mapToInt(e -> 1)
+                .sum();
+    }
 
+    // Posting lists of the conjunction's predicates, along with the zero size entry for a conjunction of size 0.
+    static List<Map<Key, TreeMap<Integer, ConjunctionPostingEntry>>> extractPostingLists(final Conjunction conjunction,
+            final int kSize,
+            final Integer iId,
+            final String eId,
+            final Long scoreCeiling,
+            final IndexGroup indexGroup) {
+        final List<Map<Key, TreeMap<Integer, ConjunctionPostingEntry>>> postingLists = conjunction.getPredicates()
+                .stream()
+                .map(predicate -> predicate.accept(DNFPostingListsExtractor.builder()
+                        .iId(iId)
+                        .eId(eId)
+                        .dnfKeyFrequency(indexGroup.getDnfKeyFrequency())
+                        .allPaths(indexGroup.getAllPaths())
+                        .pathAccessors(indexGroup.getPathAccessors())
+                        .scoreCeiling(scoreCeiling)
+                        .build()))
+                .collect(Collectors.toList());
+
+        if (kSize == 0) {
+            // ZERO size handling
+            final Key key = Key.builder()
+                    .name(ZERO_SIZE_CONJUNCTION_ENTRY_KEYNAME)
+                    .preOps(Utils.DEFAULT_PREOPERATION)
+                    .caveat(Caveat.NONE)
+                    .value(0)
+                    .upperBoundScore(0)
+                    .build();
+            final Map<Key, TreeMap<Integer, ConjunctionPostingEntry>> zPostingLists = postingLists.stream()
+                    .flatMap(m -> m.entrySet()
+                            .stream())
+                    .map(Map.Entry::getValue)
+                    .flatMap(x -> x.entrySet()
+                            .stream())
+                    .map(Map.Entry::getValue)
+                    .distinct()
+                    .map(entry -> ConjunctionPostingEntry.builder()
+                            .iId(entry.getIId())
+                            .eId(entry.getEId())
+                            .type(PredicateType.INCLUDED)
+                            .score(Objects.isNull(scoreCeiling) ? 0 : scoreCeiling)
+                            .build())
+                    .distinct()
+                    .map(entry -> Pair.of(key, entry))
+                    .collect(Collectors.groupingBy(Pair::getKey,
+                            Collectors.mapping(Pair::getValue,
+                                    Collectors.toMap(ConjunctionPostingEntry::getIId,
+                                            x -> x,
+                                            (o, n) -> n,
+                                            TreeMap::new))));
+            postingLists.add(zPostingLists);
+        }
+        return postingLists;
     }
 
     private static class IndexOperationMetaExtractor implements IndexOperation.Visitor<Pair<Boolean, Integer>> {
@@ -16,8 +16,9 @@
  */
 package com.phonepe.mustang.index.entry.extractor;
 
-import com.google.common.collect.Sets;
 import com.jayway.jsonpath.JsonPath;
+import com.phonepe.mustang.common.PathAccessor;
+import com.phonepe.mustang.detail.Caveat;
 import com.phonepe.mustang.detail.Detail;
 import com.phonepe.mustang.index.core.DisjunctionPostingEntry;
 import com.phonepe.mustang.index.core.Key;
@@ -27,10 +28,10 @@ import com.phonepe.mustang.predicate.impl.ExcludedPredicate;
 import com.phonepe.mustang.predicate.impl.IncludedPredicate;
 import com.phonepe.mustang.preoperation.PreOperation;
 
-import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -45,85 +46,82 @@ import org.apache.commons.lang3.tuple.Pair;
 @AllArgsConstructor
 public class CNFPostingListsExtractor implements PredicateVisitor<Map<Key, TreeMap<Integer, DisjunctionPostingEntry>>> {
 
-    private static final Comparator<Key> KEY_ORDER_COMPARATOR = (k1, k2) -> Integer.compare(k1.getOrder(),
-            k2.getOrder());
     private final Integer iId;
     private final String eId;
     private final int order;
     private final Map<Key, TreeMap<Integer, DisjunctionPostingEntry>> postingLists;
     private final Map<Key, AtomicInteger> cnfKeyFrequency;
     private final Map<String, JsonPath> allPaths;
+    private final Map<String, PathAccessor> pathAccessors;
+    // Set for a criteria scored on its own tree, its included entries carrying it instead of their weights.
+    private final Long scoreCeiling;
 
     @Override
     public Map<Key, TreeMap<Integer, DisjunctionPostingEntry>> visit(IncludedPredicate predicate) {
         return extractPostingLists(predicate.getType(),
                 predicate.getLhs(),
                 predicate.getPreOperations(),
-                predicate.getDetail());
+                predicate.getDetail(),
+                Objects.isNull(scoreCeiling) ? predicate.getWeight() : scoreCeiling);
     }
 
     @Override
     public Map<Key, TreeMap<Integer, DisjunctionPostingEntry>> visit(ExcludedPredicate predicate) {
+        // A satisfied excluded predicate adds nothing to the score.
         return extractPostingLists(predicate.getType(),
                 predicate.getLhs(),
                 predicate.getPreOperations(),
-                predicate.getDetail());
+                predicate.getDetail(),
+                0);
+    }
+
+    /*
+     * First key of the value, by order, not yet holding an entry of this criteria of the same type, so that a predicate
+     * repeated across disjunctions gets a posting list of its own in each. Probed key by key rather than by scanning
+     * the level.
+     */
+    private Key getKey(final PredicateType pType,
+            final String lhs,
+            final List<PreOperation> preOperations,
+            final Caveat caveat,
+            final Object value) {
+        for (int keyOrder = 0;; keyOrder++) {
+            final Key key = Key.builder()
+                    .name(lhs)
+                    .preOps(preOperations)
+                    .caveat(caveat)
+                    .value(value)
+                    .order(keyOrder)
+                    .build();
+            final TreeMap<Integer, DisjunctionPostingEntry> entries = postingLists.get(key);
+            if (Objects.isNull(entries)) {
+                return key;
+            }
+            final DisjunctionPostingEntry entry = entries.get(iId);
+            if (Objects.isNull(entry) || !pType.equals(entry.getType())) {
+                return key;
+            }
+        }
     }
 
     private Map<Key, TreeMap<Integer, DisjunctionPostingEntry>> extractPostingLists(final PredicateType pType,
             final String lhs,
             final List<PreOperation> preOperations,
-            final Detail detail) {
+            final Detail detail,
+            final long weight) {
 
         final DisjunctionPostingEntry postingEntry = DisjunctionPostingEntry.builder()
                 .iId(iId)
                 .eId(eId)
                 .type(pType)
                 .order(order)
-                .score(0)
+                .score(weight)
                 .build();
 
         final Set<Object> values = detail.accept(new DetailValueExtractor());
 
         return values.stream()
-                .map(value -> {
-                    final Set<Key> keys = postingLists.keySet()
-                            .stream()
-                            .filter(key -> key.getName()
-                                    .equals(lhs)
-                                    && key.getCaveat()
-                                            .equals(detail.getCaveat())
-                                    && key.getValue()
-                                            .equals(value))
-                            .sorted(KEY_ORDER_COMPARATOR)
-                            .collect(Collectors.toSet());
-                    if (keys.isEmpty()) {
-                        return Key.builder()
-                                .name(lhs)
-                                .preOps(preOperations)
-                                .caveat(detail.getCaveat())
-                                .value(value)
-                                .order(0)
-                                .build();
-                    }
-                    final AtomicInteger counter = new AtomicInteger(0);
-                    return keys.stream()
-                            .sequential()
-                            .filter(key -> {
-                                counter.incrementAndGet();
-                                return !Sets.newTreeSet(postingLists.get(key)
-                                        .values())
-                                        .contains(postingEntry);
-                            })
-                            .findFirst()
-                            .orElse(Key.builder()
-                                    .name(lhs)
-                                    .preOps(preOperations)
-                                    .caveat(detail.getCaveat())
-                                    .value(value)
-                                    .order(counter.get())
-                                    .build());
-                })
+                .map(value -> getKey(pType, lhs, preOperations, detail.getCaveat(), value))
                 .map(key -> {
                     final Key baseKey = Key.builder()
                             .name(key.getName())
@@ -134,6 +132,7 @@ public class CNFPostingListsExtractor implements PredicateVisitor<Map<Key, TreeM
                     cnfKeyFrequency.computeIfAbsent(baseKey, x -> new AtomicInteger(0))
                             .getAndIncrement();
                     allPaths.computeIfAbsent(lhs, x -> JsonPath.compile(lhs));
+                    pathAccessors.computeIfAbsent(lhs, PathAccessor::compile);
                     return key;
                 })
                 .map(key -> Pair.of(key, postingEntry))
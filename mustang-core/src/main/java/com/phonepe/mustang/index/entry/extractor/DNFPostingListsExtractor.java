@@ -19,6 +19,7 @@ package com.phonepe.mustang.index.entry.extractor;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -27,6 +28,7 @@ import java.util.stream.Collectors;
 import org.apache.commons.lang3.tuple.Pair;
 
 import com.jayway.jsonpath.JsonPath;
+import com.phonepe.mustang.common.PathAccessor;
 import com.phonepe.mustang.detail.Detail;
 import com.phonepe.mustang.index.core.ConjunctionPostingEntry;
 import com.phonepe.mustang.index.core.Key;
@@ -48,27 +50,34 @@ public class DNFPostingListsExtractor implements PredicateVisitor<Map<Key, TreeM
     private final String eId;
     private final Map<Key, AtomicInteger> dnfKeyFrequency;
     private final Map<String, JsonPath> allPaths;
+    private final Map<String, PathAccessor> pathAccessors;
+    // Set for a criteria scored on its own tree, its included entries carrying it instead of their weights.
+    private final Long scoreCeiling;
 
     @Override
     public Map<Key, TreeMap<Integer, ConjunctionPostingEntry>> visit(IncludedPredicate predicate) {
         return extractPostingLists(predicate.getType(),
                 predicate.getLhs(),
                 predicate.getPreOperations(),
-                predicate.getDetail());
+                predicate.getDetail(),
+                Objects.isNull(scoreCeiling) ? predicate.getWeight() : scoreCeiling);
     }
 
     @Override
     public Map<Key, TreeMap<Integer, ConjunctionPostingEntry>> visit(ExcludedPredicate predicate) {
+        // A satisfied excluded predicate adds nothing to the score.
         return extractPostingLists(predicate.getType(),
                 predicate.getLhs(),
                 predicate.getPreOperations(),
-                predicate.getDetail());
+                predicate.getDetail(),
+                0);
     }
 
     private Map<Key, TreeMap<Integer, ConjunctionPostingEntry>> extractPostingLists(final PredicateType pType,
             final String lhs,
             final List<PreOperation> preOperations,
-            final Detail detail) {
+            final Detail detail,
+            final long weight) {
         final Set<Object> values = detail.accept(new DetailValueExtractor());
         return values.stream()
                 .map(value -> {
@@ -81,6 +90,7 @@ public class DNFPostingListsExtractor implements PredicateVisitor<Map<Key, TreeM
                     dnfKeyFrequency.computeIfAbsent(key, x -> new AtomicInteger(0))
                             .getAndIncrement();
                     allPaths.computeIfAbsent(lhs, x -> JsonPath.compile(lhs));
+                    pathAccessors.computeIfAbsent(lhs, PathAccessor::compile);
                     return key;
                 })
                 .map(key -> Pair.of(key,
@@ -88,7 +98,7 @@ public class DNFPostingListsExtractor implements PredicateVisitor<Map<Key, TreeM
                                 .iId(iId)
                                 .eId(eId)
                                 .type(pType)
-                                .score(0)
+                                .score(weight)
                                 .build()))
                 .collect(Collectors.groupingBy(Pair::getLeft,
                         LinkedHashMap::new,
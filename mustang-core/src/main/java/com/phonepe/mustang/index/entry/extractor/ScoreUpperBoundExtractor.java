@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.index.entry.extractor;
+
+import java.util.List;
+
+import com.phonepe.mustang.composition.CompositionType;
+import com.phonepe.mustang.composition.impl.Conjunction;
+import com.phonepe.mustang.composition.impl.Disjunction;
+import com.phonepe.mustang.criteria.Criteria;
+import com.phonepe.mustang.criteria.CriteriaVisitor;
+import com.phonepe.mustang.criteria.impl.CNFCriteria;
+import com.phonepe.mustang.criteria.impl.DNFCriteria;
+import com.phonepe.mustang.criteria.impl.UNFCriteria;
+import com.phonepe.mustang.predicate.Predicate;
+import com.phonepe.mustang.predicate.PredicateType;
+
+/*
+ * Highest score a criteria can get on any request, i.e. its score with every included predicate matched. Mirrors
+ * the getScore of each form.
+ */
+public class ScoreUpperBoundExtractor implements CriteriaVisitor<Double> {
+
+    @Override
+    public Double visit(DNFCriteria dnf) {
+        return dnf.getConjunctions()
+                .stream()
+                .mapToDouble(this::getUpperBound)
+                .max()
+                .orElse(0D);
+    }
+
+    @Override
+    public Double visit(CNFCriteria cnf) {
+        return cnf.getDisjunctions()
+                .stream()
+                .mapToDouble(this::getUpperBound)
+                .sum();
+    }
+
+    @Override
+    public Double visit(UNFCriteria unf) {
+        final List<Criteria> criterias = unf.getCriterias();
+        final List<Predicate> predicates = unf.getPredicates();
+        return unf.getType()
+                .accept(new CompositionType.Visitor<>() {
+                    @Override
+                    public Double visitAnd() {
+                        return criterias.stream()
+                                .mapToDouble(criteria -> criteria.accept(ScoreUpperBoundExtractor.this))
+                                .sum() + getSum(predicates);
+                    }
+
+                    @Override
+                    public Double visitOr() {
+                        return Math.max(criterias.stream()
+                                .mapToDouble(criteria -> criteria.accept(ScoreUpperBoundExtractor.this))
+                                .max()
+                                .orElse(0D), getMax(predicates));
+                    }
+                });
+    }
+
+    /*
+     * Score the posting entries of a criteria scored on its own tree carry in place of predicate weights. Posting list
+     * bounds then hold for it as well, whatever its normalized predicates weigh.
+     */
+    public static long getScoreCeiling(final double upperBound) {
+        return Math.max(0L, (long) Math.ceil(upperBound));
+    }
+
+    private double getUpperBound(final Conjunction conjunction) {
+        return getSum(conjunction.getPredicates());
+    }
+
+    private double getUpperBound(final Disjunction disjunction) {
+        return getMax(disjunction.getPredicates());
+    }
+
+    private static double getSum(final List<Predicate> predicates) {
+        return predicates.stream()
+                .mapToDouble(ScoreUpperBoundExtractor::getUpperBound)
+                .sum();
+    }
+
+    private static double getMax(final List<Predicate> predicates) {
+        return predicates.stream()
+                .mapToDouble(ScoreUpperBoundExtractor::getUpperBound)
+                .max()
+                .orElse(0D);
+    }
+
+    // An excluded predicate scores 0 when satisfied, an included one its weight.
+    private static double getUpperBound(final Predicate predicate) {
+        return PredicateType.INCLUDED.equals(predicate.getType()) ? predicate.getWeight() : 0D;
+    }
+
+}
@@ -125,20 +125,29 @@ public class Ratifier {
     }
 
     private Set<Key> getAllKeys(final IndexGroup index) {
+        if (index.isSharded() || index.isSegmented()) {
+            return index.getParts()
+                    .stream()
+                    .map(this::getAllKeys)
+                    .flatMap(Set::stream)
+                    .collect(Collectors.toSet());
+        }
         final Set<Key> dnfKeys = index.getDnfInvertedIndex()
-                .getTable()
+                .getKeyDictionaries()
                 .values()
                 .stream()
-                .map(Map::keySet)
+                .map(dictionary -> dictionary.getPostingLists()
+                        .keySet())
                 .flatMap(Set::stream)
                 .filter(key -> !key.getName()
                         .equals(DNFIndexer.ZERO_SIZE_CONJUNCTION_ENTRY_KEYNAME))
                 .collect(Collectors.toSet());
         final Set<Key> cnfKeys = index.getCnfInvertedIndex()
-                .getTable()
+                .getKeyDictionaries()
                 .values()
                 .stream()
-                .map(Map::keySet)
+                .map(dictionary -> dictionary.getPostingLists()
+                        .keySet())
                 .flatMap(Set::stream)
                 .filter(key -> !key.getName()
                         .equals(CNFIndexer.ZERO_SIZE_DISJUNCTION_ENTRY_KEYNAME))
@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.search;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+/*
+ * Opt in spreading of a single search across threads, every k level of both normal forms being matched as a task
+ * of its own. Small indexes gain nothing from it and are searched sequentially.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+public class ParallelSearch {
+    public static final ParallelSearch DISABLED = ParallelSearch.builder()
+            .executor(null)
+            .build();
+    // Null keeps every search sequential
+    @Builder.Default
+    private final Executor executor = ForkJoinPool.commonPool();
+    // Indexes with fewer criterias are searched sequentially.
+    @Builder.Default
+    private final int threshold = 10_000;
+
+    public boolean isApplicable(final int criteriaCount) {
+        return Objects.nonNull(executor) && criteriaCount >= threshold;
+    }
+
+}
@@ -16,16 +16,25 @@
  */
 package com.phonepe.mustang.search;
 
-import java.util.Comparator;
-import java.util.LinkedHashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 import javax.validation.constraints.NotNull;
 
+import com.google.common.collect.Maps;
+import com.phonepe.mustang.index.IndexGroup;
 import com.phonepe.mustang.index.IndexingFacade;
 import com.phonepe.mustang.search.handler.CriteriaSearchHandler;
+import com.phonepe.mustang.search.matcher.PathValues;
+import com.phonepe.mustang.search.matcher.TopNCollector;
 
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -37,24 +46,109 @@ import lombok.Data;
 public class SearchFacade {
     @NotNull
     private final IndexingFacade indexingFacade;
+    // Read per search, so the engine's setting can be changed while it serves.
+    @Builder.Default
+    private final Supplier<ParallelSearch> parallelSearch = () -> ParallelSearch.DISABLED;
 
     public Set<String> search(final String indexName, final Query query, final int topN, final boolean score) {
-        final Map<String, Double> result = CriteriaSearchHandler.builder()
+        if (!score) {
+            return handle(indexName, query, topN, false).keySet();
+        }
+        return searchWithScores(indexName, query, topN).keySet();
+    }
+
+    // Scores of the best topN matches (-1 for all), ordered best first.
+    public Map<String, Double> searchWithScores(final String indexName, final Query query, final int topN) {
+        final Map<String, Double> result = handle(indexName, query, topN, true);
+        if (topN > 0) {
+            // Ranked already while matching
+            return result;
+        }
+        return TopNCollector.rank(result, topN);
+    }
+
+    // Any k matches, fewer when fewer match. Tautological criterias come first as they match whatever the query.
+    public Set<String> searchFirst(final String indexName, final Query query, final int k) {
+        if (k <= 0) {
+            return Collections.emptySet();
+        }
+        return CriteriaSearchHandler.builder()
                 .indexGroup(indexingFacade.getIndexGroup(indexName))
                 .query(query)
-                .score(score)
+                .limit(k)
                 .build()
-                .handle();
-        if (!score) {
-            return result.keySet();
+                .handle()
+                .keySet();
+    }
+
+    public boolean exists(final String indexName, final Query query) {
+        return !searchFirst(indexName, query, 1).isEmpty();
+    }
+
+    /*
+     * Matches of every query, aligned to the queries. Queries agreeing on every indexed path can't be told apart
+     * by the index, so each distinct projection is searched once, on the executor when one is given. The executor
+     * already spreads the batch, so its searches are not spread further.
+     */
+    public List<Set<String>> searchBatch(final String indexName, final List<Query> queries, final Executor executor) {
+        final IndexGroup indexGroup = indexingFacade.getIndexGroup(indexName);
+        final Map<Map<String, Object>, CompletableFuture<Set<String>>> searches = Maps.newHashMap();
+        final List<CompletableFuture<Set<String>>> pending = new ArrayList<>(queries.size());
+        for (Query query : queries) {
+            final PathValues pathValues = PathValues.project(query, indexGroup.getPathAccessors(),
+                    indexGroup.getPathTrie());
+            pending.add(searches.computeIfAbsent(pathValues.getProjection(), x -> {
+                final CriteriaSearchHandler handler = CriteriaSearchHandler.builder()
+                        .indexGroup(indexGroup)
+                        .query(query)
+                        .pathValues(pathValues)
+                        .build();
+                return Objects.isNull(executor)
+                        ? CompletableFuture.completedFuture(Collections.unmodifiableSet(handler.handle()
+                                .keySet()))
+                        : CompletableFuture.supplyAsync(() -> Collections.unmodifiableSet(handler.handle()
+                                .keySet()), executor);
+            }));
         }
+        final List<Set<String>> results = new ArrayList<>(queries.size());
+        try {
+            pending.forEach(search -> results.add(search.join()));
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    public PathStats getPathStats(final String indexName) {
+        final IndexGroup indexGroup = indexingFacade.getIndexGroup(indexName);
+        final long searches = indexGroup.getSearchCount()
+                .sum();
+        final long resolvedPaths = indexGroup.getResolvedPathCount()
+                .sum();
+        return PathStats.builder()
+                .indexedPaths(indexGroup.getAllPaths()
+                        .size())
+                .searches(searches)
+                .resolvedPaths(resolvedPaths)
+                .resolvedPathsPerSearch(searches == 0 ? 0 : (double) resolvedPaths / searches)
+                .build();
+    }
 
-        return result.entrySet()
-                .stream()
-                .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                .limit(topN == -1 ? result.size() : topN)
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toCollection(LinkedHashSet::new));
+    private Map<String, Double> handle(final String indexName,
+            final Query query,
+            final int topN,
+            final boolean score) {
+        return CriteriaSearchHandler.builder()
+                .indexGroup(indexingFacade.getIndexGroup(indexName))
+                .query(query)
+                .score(score)
+                .topN(topN)
+                .parallelSearch(parallelSearch.get())
+                .build()
+                .handle();
     }
 
 }
@@ -15,22 +15,29 @@
  */
 package com.phonepe.mustang.search.handler;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.IntFunction;
 import java.util.stream.Stream;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 
 import com.google.common.collect.Maps;
-import com.phonepe.mustang.common.Utils;
 import com.phonepe.mustang.criteria.CriteriaForm;
 import com.phonepe.mustang.index.IndexGroup;
+import com.phonepe.mustang.search.ParallelSearch;
 import com.phonepe.mustang.search.Query;
 import com.phonepe.mustang.search.matcher.CNFMatcher;
 import com.phonepe.mustang.search.matcher.DNFMatcher;
 import com.phonepe.mustang.search.matcher.Matches;
+import com.phonepe.mustang.search.matcher.PathValues;
+import com.phonepe.mustang.search.matcher.TopNCollector;
 
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -40,55 +47,215 @@ import lombok.Data;
 @Builder
 @AllArgsConstructor
 public class CriteriaSearchHandler implements CriteriaForm.Visitor<Matches> {
+    private static final CriteriaForm[] NORMALIZED_FORMS = Stream.of(CriteriaForm.values())
+            .filter(CriteriaForm::isNormalizedForm)
+            .toArray(CriteriaForm[]::new);
+    private static final Double TAUTOLOGY_SCORE = 0.0;
     @NotNull
     private final IndexGroup indexGroup;
     @Valid
     @NotNull
     private final Query query;
     private final boolean score;
-    private final Map<String, Object> pathValues = Maps.newHashMap();
+    // Number of best scored matches wanted, -1 for all of them.
+    @Builder.Default
+    private final int topN = -1;
+    // Number of matches wanted when any will do, -1 for all of them.
+    @Builder.Default
+    private final int limit = -1;
+    @Builder.Default
+    private final ParallelSearch parallelSearch = ParallelSearch.DISABLED;
+    // Given when the query's paths were read already, as in a batch search.
+    private PathValues pathValues;
+    private TopNCollector collector;
 
     public Map<String, Double> handle() {
-        extractValuesForPaths();
-        final Map<String, Double> searchResults = Stream.of(CriteriaForm.values())
-                .filter(CriteriaForm::isNormalizedForm)
-                .map(cForm -> cForm.accept(this))
-                .map(Matches::getProbables)
-                .flatMap(map -> map.entrySet()
-                        .stream())
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (o, n) -> o));
+        final boolean ranked = score && topN > 0;
+        final boolean first = limit > 0;
+        // A sharded or segmented group is searched part by part.
+        final boolean composite = indexGroup.isSharded() || indexGroup.isSegmented();
+        // Path values handed in belong to a batch, whose executor already spreads its searches.
+        final boolean scattered = indexGroup.isSharded() && !first && Objects.isNull(pathValues)
+                && Objects.nonNull(indexGroup.getShardExecutor());
+        final boolean parallel = !composite && !ranked && !first
+                && parallelSearch.isApplicable(indexGroup.getAllCriterias()
+                        .size());
+        if (Objects.isNull(pathValues)) {
+            pathValues = parallel || scattered
+                    ? PathValues.shared(query, indexGroup.getPathAccessors(), indexGroup.getPathTrie())
+                    : new PathValues(query, indexGroup.getPathAccessors(), indexGroup.getPathTrie());
+        }
+        final Map<String, Double> searchResults;
+        if (first) {
+            searchResults = handleFirst();
+        } else if (composite) {
+            searchResults = handleParts(ranked, scattered);
+        } else if (ranked) {
+            searchResults = handleTopN();
+        } else if (parallel) {
+            searchResults = handleAllInParallel();
+        } else {
+            searchResults = handleAll();
+        }
+        indexGroup.getSearchCount()
+                .increment();
+        indexGroup.getResolvedPathCount()
+                .add(pathValues.getResolvedCount());
+        return searchResults;
+    }
+
+    // Both normal forms add their matches to the search's result, a criteria being indexed in one of them only.
+    private Map<String, Double> handleAll() {
+        final Map<String, Double> searchResults = Maps.newHashMap();
+        buildDNFMatcher().getMatches(searchResults);
+        buildCNFMatcher().getMatches(searchResults);
+
+        indexGroup.getTautologicalCriterias()
+                .keySet()
+                .forEach(criteriaKey -> searchResults.putIfAbsent(criteriaKey, TAUTOLOGY_SCORE));
+        return searchResults;
+    }
+
+    /*
+     * Any limit matches. Tautologies match whatever the event, so they are taken first, and the normal forms, or the
+     * shards or segments in turn, are asked only for the matches still missing.
+     */
+    private Map<String, Double> handleFirst() {
+        final Map<String, Double> searchResults = Maps.newLinkedHashMap();
+        for (String criteriaKey : indexGroup.getTautologicalCriterias()
+                .keySet()) {
+            if (searchResults.size() >= limit) {
+                return searchResults;
+            }
+            searchResults.put(criteriaKey, TAUTOLOGY_SCORE);
+        }
+        if (indexGroup.isSharded() || indexGroup.isSegmented()) {
+            for (IndexGroup part : indexGroup.getParts()) {
+                if (searchResults.size() >= limit) {
+                    break;
+                }
+                searchResults.putAll(searchPart(part, limit - searchResults.size()));
+            }
+            return searchResults;
+        }
+        if (searchResults.size() < limit) {
+            searchResults.putAll(buildDNFMatcher(limit - searchResults.size()).getMatches());
+        }
+        if (searchResults.size() < limit) {
+            buildCNFMatcher(limit - searchResults.size()).getMatches()
+                    .forEach(searchResults::putIfAbsent);
+        }
+        return searchResults;
+    }
+
+    /*
+     * Every shard or segment is searched on its own against the path values of this search, shards on the group's
+     * executor when scattered. A criteria is live in a single part, a segment it left having retired its older
+     * version, so part results are put together as they are, a top N search ranking the best N of every part once
+     * more.
+     */
+    private Map<String, Double> handleParts(final boolean ranked, final boolean scattered) {
+        final List<IndexGroup> parts = indexGroup.getParts();
+        final List<CompletableFuture<Map<String, Double>>> partResults = new ArrayList<>(parts.size());
+        for (IndexGroup part : parts) {
+            partResults.add(scattered
+                    ? CompletableFuture.supplyAsync(() -> searchPart(part, limit), indexGroup.getShardExecutor())
+                    : CompletableFuture.completedFuture(searchPart(part, limit)));
+        }
+        final Map<String, Double> searchResults = Maps.newHashMap();
+        try {
+            partResults.forEach(partResult -> searchResults.putAll(partResult.join()));
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        return ranked ? TopNCollector.rank(searchResults, topN) : searchResults;
+    }
+
+    private Map<String, Double> searchPart(final IndexGroup part, final int partLimit) {
+        return CriteriaSearchHandler.builder()
+                .indexGroup(part)
+                .query(query)
+                .score(score)
+                .topN(topN)
+                .limit(partLimit)
+                .pathValues(pathValues)
+                .build()
+                .handle();
+    }
+
+    /*
+     * Every k level of either normal form is matched as a task of its own. Level results are merged as the
+     * sequential search merges them, a criteria scoring the best of its matched levels, DNF matches first.
+     */
+    private Map<String, Double> handleAllInParallel() {
+        final List<CompletableFuture<Map<String, Double>>> dnfLevels = fanOut(indexGroup.getDnfInvertedIndex()
+                .getMaxK(), k -> buildDNFMatcher().getMatches(k));
+        final List<CompletableFuture<Map<String, Double>>> cnfLevels = fanOut(indexGroup.getCnfInvertedIndex()
+                .getMaxK(), k -> buildCNFMatcher().getMatches(k));
+        final Map<String, Double> searchResults = merge(dnfLevels);
+        merge(cnfLevels).forEach(searchResults::putIfAbsent);
 
         indexGroup.getTautologicalCriterias()
                 .keySet()
-                .forEach(criteriaKey -> searchResults.computeIfAbsent(criteriaKey, x -> 0.0));
+                .forEach(criteriaKey -> searchResults.putIfAbsent(criteriaKey, TAUTOLOGY_SCORE));
         return searchResults;
     }
 
+    private List<CompletableFuture<Map<String, Double>>> fanOut(final int maxK,
+            final IntFunction<Map<String, Double>> levelMatcher) {
+        final List<CompletableFuture<Map<String, Double>>> levels = new ArrayList<>();
+        for (int k = maxK; k >= 0; k--) {
+            final int level = k;
+            levels.add(CompletableFuture.supplyAsync(() -> levelMatcher.apply(level), parallelSearch.getExecutor()));
+        }
+        return levels;
+    }
+
+    private Map<String, Double> merge(final List<CompletableFuture<Map<String, Double>>> levels) {
+        final Map<String, Double> result = Maps.newHashMap();
+        try {
+            for (CompletableFuture<Map<String, Double>> level : levels) {
+                level.join()
+                        .forEach((cId, levelScore) -> result.merge(cId, levelScore, Math::max));
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        return result;
+    }
+
+    /*
+     * Matchers share one collector, so candidates whose score upper bound can't beat the N-th best match found so
+     * far, in any normal form, are never scored. The matches come back ranked.
+     */
+    private Map<String, Double> handleTopN() {
+        collector = new TopNCollector(topN);
+        for (CriteriaForm cForm : NORMALIZED_FORMS) {
+            cForm.accept(this);
+        }
+        indexGroup.getTautologicalCriterias()
+                .keySet()
+                .forEach(criteriaKey -> collector.offer(criteriaKey, TAUTOLOGY_SCORE));
+        return collector.rank();
+    }
+
     @Override
     public Matches visitDNF() {
         return Matches.builder()
-                .probables(DNFMatcher.builder()
-                        .invertedIndex(indexGroup.getDnfInvertedIndex())
-                        .query(query)
-                        .allCriterias(indexGroup.getAllCriterias())
-                        .pathValues(pathValues)
-                        .score(score)
-                        .build()
-                        .getMatches())
+                .probables(buildDNFMatcher().getMatches())
                 .build();
     }
 
     @Override
     public Matches visitCNF() {
         return Matches.builder()
-                .probables(CNFMatcher.builder()
-                        .invertedIndex(indexGroup.getCnfInvertedIndex())
-                        .query(query)
-                        .allCriterias(indexGroup.getAllCriterias())
-                        .pathValues(pathValues)
-                        .score(score)
-                        .build()
-                        .getMatches())
+                .probables(buildCNFMatcher().getMatches())
                 .build();
     }
 
@@ -99,11 +266,40 @@ public class CriteriaSearchHandler implements CriteriaForm.Visitor<Matches> {
                 .build();
     }
 
-    private void extractValuesForPaths() {
-        indexGroup.getAllPaths()
-                .entrySet()
-                .forEach(entry -> pathValues.put(entry.getKey(),
-                        Utils.getNodeValue(query.getParsedContext(), entry.getValue(), null)));
+    private DNFMatcher buildDNFMatcher() {
+        return buildDNFMatcher(-1);
+    }
+
+    private DNFMatcher buildDNFMatcher(final int matcherLimit) {
+        return DNFMatcher.builder()
+                .invertedIndex(indexGroup.getDnfInvertedIndex())
+                .query(query)
+                .allCriterias(indexGroup.getAllCriterias())
+                .pathValues(pathValues)
+                .score(score)
+                .scoreUpperBounds(indexGroup.getScoreUpperBounds())
+                .collector(collector)
+                .limit(matcherLimit)
+                .visitedPostings(indexGroup.getVisitedPostingCount())
+                .build();
+    }
+
+    private CNFMatcher buildCNFMatcher() {
+        return buildCNFMatcher(-1);
+    }
+
+    private CNFMatcher buildCNFMatcher(final int matcherLimit) {
+        return CNFMatcher.builder()
+                .invertedIndex(indexGroup.getCnfInvertedIndex())
+                .query(query)
+                .allCriterias(indexGroup.getAllCriterias())
+                .pathValues(pathValues)
+                .score(score)
+                .scoreUpperBounds(indexGroup.getScoreUpperBounds())
+                .collector(collector)
+                .limit(matcherLimit)
+                .visitedPostings(indexGroup.getVisitedPostingCount())
+                .build();
     }
 
 }
@@ -18,291 +18,257 @@ package com.phonepe.mustang.search.matcher;
 
 import com.google.common.collect.Maps;
 import com.phonepe.mustang.criteria.Criteria;
+import com.phonepe.mustang.criteria.CriteriaForm;
 import com.phonepe.mustang.index.core.DisjunctionPostingEntry;
-import com.phonepe.mustang.index.core.Key;
+import com.phonepe.mustang.index.core.KeyDictionary;
 import com.phonepe.mustang.index.core.impl.CNFInvertedIndex;
-import com.phonepe.mustang.predicate.PredicateType;
-import com.phonepe.mustang.preoperation.ChainOperator;
 import com.phonepe.mustang.search.Query;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
-import java.util.Optional;
-import java.util.TreeMap;
-import java.util.TreeSet;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.LongAdder;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
-import org.apache.commons.lang3.ObjectUtils;
-import org.apache.commons.lang3.tuple.MutablePair;
 
 @Data
 @Builder
 @AllArgsConstructor
 public class CNFMatcher {
-    private static final Comparator<Map.Entry<Key, MutablePair<Integer, TreeMap<Integer, DisjunctionPostingEntry>>>> ID_COMPARATOR = (
-            e1,
-            e2) -> (ObjectUtils.compare(getIdSafely(e1), getIdSafely(e2), true));
-    private static final Comparator<Map.Entry<Key, MutablePair<Integer, TreeMap<Integer, DisjunctionPostingEntry>>>> TYPE_COMPARATOR = (
-            e1,
-            e2) -> (ObjectUtils.compare(getTypeSafely(e1), getTypeSafely(e2), true));
-    private static final Comparator<Map.Entry<Key, MutablePair<Integer, TreeMap<Integer, DisjunctionPostingEntry>>>> ORDER_COMPARATOR = (
-            e1,
-            e2) -> (ObjectUtils.compare(getOrderSafely(e1), getOrderSafely(e2), true));
+    private static final Double NO_SCORE = 0.0;
     private final CNFInvertedIndex<DisjunctionPostingEntry> invertedIndex;
     private final Query query;
     private final Map<String, Criteria> allCriterias;
-    private final Map<String, Object> pathValues;
+    private final PathValues pathValues;
     private final boolean score;
+    private final Map<String, Double> scoreUpperBounds;
+    // Present only for a top N search, matches are then collected here instead of in the result.
+    private final TopNCollector collector;
+    // Matches wanted, -1 for all of them. Posting list walks stop as soon as that many are found.
+    @Builder.Default
+    private final int limit = -1;
+    // Counts the postings the cursors land on, when given.
+    private final LongAdder visitedPostings;
 
-    private static DisjunctionPostingEntry getDisjunctionPostingEntry(
-            final TreeMap<Integer, DisjunctionPostingEntry> map,
-            final Integer iId) {
-        return Objects.nonNull(iId) ? map.get(iId) : null;
+    public Map<String, Double> getMatches() {
+        return getMatches(Maps.newHashMap());
     }
 
-    private static Integer getIdSafely(
-            final Entry<Key, MutablePair<Integer, TreeMap<Integer, DisjunctionPostingEntry>>> entry) {
-        final DisjunctionPostingEntry disjunctionPostingEntry = getDisjunctionPostingEntry(entry.getValue()
-                .getValue(),
-                entry.getValue()
-                        .getKey());
-        return disjunctionPostingEntry != null ? disjunctionPostingEntry.getIId() : null;
+    // Adds the matches to the given map, for the normal forms of a search to fill a single one.
+    public Map<String, Double> getMatches(final Map<String, Double> result) {
+        final MatchScratch scratch = MatchScratch.get();
+        for (int k = invertedIndex.getMaxK(); k >= 0 && !isSatisfied(result); k--) {
+            match(result, scratch, k);
+        }
+        return result;
     }
 
-    private static PredicateType getTypeSafely(
-            final Entry<Key, MutablePair<Integer, TreeMap<Integer, DisjunctionPostingEntry>>> entry) {
-        final DisjunctionPostingEntry disjunctionPostingEntry = getDisjunctionPostingEntry(entry.getValue()
-                .getValue(),
-                entry.getValue()
-                        .getKey());
-        return disjunctionPostingEntry != null ? disjunctionPostingEntry.getType() : null;
+    // Matches of a single k level, for a search spread across threads.
+    public Map<String, Double> getMatches(final int k) {
+        final Map<String, Double> result = Maps.newHashMap();
+        match(result, MatchScratch.get(), k);
+        return result;
     }
 
-    private static Integer getOrderSafely(
-            Entry<Key, MutablePair<Integer, TreeMap<Integer, DisjunctionPostingEntry>>> entry) {
-        final DisjunctionPostingEntry disjunctionPostingEntry = getDisjunctionPostingEntry(entry.getValue()
-                .getValue(),
-                entry.getValue()
-                        .getKey());
-        return disjunctionPostingEntry != null ? disjunctionPostingEntry.getOrder() : Integer.MAX_VALUE;
+    private void match(final Map<String, Double> result, final MatchScratch scratch, final int k) {
+        try {
+            matchLevel(result, scratch, k);
+        } finally {
+            if (Objects.nonNull(visitedPostings)) {
+                visitedPostings.add(scratch.getVisitedCount());
+            }
+            scratch.release();
+        }
     }
 
-    public Map<String, Double> getMatches() {
-        final Map<String, Double> result = Maps.newHashMap();
-        final Map<Integer, Map<Key, TreeMap<Integer, DisjunctionPostingEntry>>> table = invertedIndex.getTable();
+    private void matchLevel(final Map<String, Double> result, final MatchScratch scratch, int k) {
         final Map<Integer, Integer[]> disjunctionCounters = invertedIndex.getDisjunctionCounters();
-        final int start = 0;
-        final int end = table.keySet()
-                .stream()
-                .mapToInt(x -> x)
-                .max()
-                .orElse(0);
-        IntStream.rangeClosed(start, end)
-                .map(i -> end - i + start)
-                .boxed()
-                .forEach(k -> {
-                    final TreeSet<Integer> links = invertedIndex.getLinkages()
-                            .get(k);
-                    final Map.Entry<Key, MutablePair<Integer, TreeMap<Integer, DisjunctionPostingEntry>>>[] pLists = getPostingListsCNF(
-                            table,
-                            k);
-                    initializeCurrentEntriesCNF(pLists);
-                    /* Processing k = 0 and k = 1 are identical */
-                    if (k == 0) {
-                        k = 1;
-                    }
-                    if (pLists.length < k) {
-                        /* Too few posting lists for any conjunction to be satisfied */
-                        return;
-                    }
-                    int nextID = 0;
-                    while (canContinue(pLists, k)) {
-                        /*
-                         * Check if the first k posting lists have the same conjunction ID in their
-                         * current entries
-                         */
-                        if (sameConjunctionCheck(pLists, k - 1)) {
-                            /*
-                             * For each disjunction in the current CNF, one counter is initialized to the
-                             * negative number of EXCLUDED predicates
-                             */
-                            final Integer[] counters = getCounters(disjunctionCounters,
-                                    pLists[0].getValue()
-                                            .getKey());
-
-                            disjunctionEvaluationCheck(result, pLists, k, counters);
-
-                            /* nextID is the smallest possible ID after current ID */
-                            nextID = getNextHigherId(links,
-                                    pLists[k - 1].getValue()
-                                            .getKey());
-
-                        } else {
-                            /* Skip first k-1 posting lists */
-                            nextID = getNextId(links,
-                                    pLists[k - 1].getValue()
-                                            .getKey(),
-                                    nextID);
-                        }
-                        skipTo(pLists, nextID);
+        final KeyDictionary keyDictionary = invertedIndex.getKeyDictionary(k);
+        scratch.reset(keyDictionary.getPostingLists());
+        if (!KeySelector.select(keyDictionary, k, pathValues, scratch)) {
+            /* Too few candidate posting lists for any match */
+            return;
+        }
+        final PostingCursor[] pLists = scratch.getCursors();
+        final int size = scratch.getCursorCount();
+        PostingCursor.sort(pLists, size, PostingCursor.ORDERED_ENTRY_COMPARATOR);
+        /* Processing k = 0 and k = 1 are identical */
+        if (k == 0) {
+            k = 1;
+        }
+        if (size < k) {
+            /* Too few posting lists for any conjunction to be satisfied */
+            return;
+        }
+        if (isOutscored(pLists, size)) {
+            /* No criteria of the level can beat the N-th best match */
+            return;
+        }
+        scratch.addVisited(size);
+        int nextID = 0;
+        while (!pLists[k - 1].isExhausted() && !isSatisfied(result)) {
+            if (Objects.nonNull(collector)) {
+                final int pivot = findPivot(pLists, size, k);
+                if (pivot < 0) {
+                    /* No id left in the level can beat the N-th best match */
+                    break;
+                }
+                final int pivotId = pLists[pivot].getId();
+                if (pLists[0].getId() < pivotId) {
+                    /* Ids ahead of the pivot's are held by too few bounds to be worth matching */
+                    scratch.addVisited(PostingCursor.advanceTo(pLists, size, pivotId,
+                            PostingCursor.ORDERED_ENTRY_COMPARATOR));
+                    continue;
+                }
+            }
+            /*
+             * Check if the first k posting lists have the same conjunction ID in their
+             * current entries
+             */
+            if (sameConjunctionCheck(pLists, k - 1)) {
+                /*
+                 * For each disjunction in the current CNF, one counter is initialized to the
+                 * negative number of EXCLUDED predicates
+                 */
+                final Integer[] excludedCounts = disjunctionCounters.get(pLists[0].getId());
+                // Entries of a retired version are passed over without evaluating them.
+                if (Objects.nonNull(excludedCounts) && isLatestVersion(pLists[0])) {
+                    final int[] counters = scratch.getCounters(excludedCounts.length);
+                    final long[] disjunctionScores = scratch.getScores(excludedCounts.length);
+                    for (int i = 0; i < excludedCounts.length; i++) {
+                        counters[i] = -1 * excludedCounts[i];
+                        disjunctionScores[i] = 0;
                     }
-                });
 
-        return result;
+                    disjunctionEvaluationCheck(result, pLists, size, k, counters, disjunctionScores,
+                            excludedCounts.length);
+                }
 
-    }
+                /* nextID is the smallest possible ID after current ID */
+                nextID = keyDictionary.getNextHigherId(pLists[k - 1].getId());
 
-    @SuppressWarnings("unchecked")
-    private Map.Entry<Key, MutablePair<Integer, TreeMap<Integer, DisjunctionPostingEntry>>>[] getPostingListsCNF(
-            final Map<Integer, Map<Key, TreeMap<Integer, DisjunctionPostingEntry>>> table,
-            final int k) {
-        final Map<Key, TreeMap<Integer, DisjunctionPostingEntry>> map = table.getOrDefault(k, Collections.emptyMap());
-        return getMatchingKeys(map).collect(Collectors.toMap(x -> x, x -> MutablePair.of(0, map.get(x))))
-                .entrySet()
-                .toArray(Entry[]::new);
+            } else {
+                /* Skip first k-1 posting lists */
+                nextID = getNextId(keyDictionary, pLists[k - 1].getId(), nextID);
+            }
+            scratch.addVisited(PostingCursor.advanceTo(pLists, size, nextID,
+                    PostingCursor.ORDERED_ENTRY_COMPARATOR));
+        }
     }
 
-    private Stream<Key> getMatchingKeys(final Map<Key, TreeMap<Integer, DisjunctionPostingEntry>> map) {
-        return map.keySet()
-                .stream()
-                .filter(key -> key.getCaveat()
-                        .visit(new CaveatEnforcer(key,
-                                ChainOperator.operate(key.getPreOps(), pathValues.get(key.getName())))));
+    // Check to see if the current entry represents criteria's latest version.
+    private boolean isLatestVersion(final PostingCursor cursor) {
+        final Integer internalId = invertedIndex.getLiveInternalId(cursor.getEId());
+        return Objects.nonNull(internalId) && internalId == cursor.getId();
     }
 
-    private void initializeCurrentEntriesCNF(
-            final Map.Entry<Key, MutablePair<Integer, TreeMap<Integer, DisjunctionPostingEntry>>>[] pLists) {
-        Arrays.stream(pLists)
-                .forEach(pList -> pList.getValue()
-                        .setLeft(pList.getValue()
-                                .getRight()
-                                .firstEntry()
-                                .getValue()
-                                .getIId()));
-        sortByCurrentEntriesCNF(pLists);
+    /*
+     * A criteria of the level sums the best satisfied predicate of each disjunction, each read off the current entry
+     * of a distinct posting list, so it scores at most the sum of the list bounds.
+     */
+    private boolean isOutscored(final PostingCursor[] pLists, final int size) {
+        if (Objects.isNull(collector)) {
+            return false;
+        }
+        long bound = 0;
+        for (int i = 0; i < size; i++) {
+            bound += pLists[i].getMaxScore();
+        }
+        return !collector.canAdmit(bound);
     }
 
-    private boolean canContinue(
-            final Map.Entry<Key, MutablePair<Integer, TreeMap<Integer, DisjunctionPostingEntry>>>[] pLists,
-            final int k) {
-        return Objects.nonNull(pLists[k - 1].getValue()
-                .getKey()) && Objects.nonNull(
-                        getDisjunctionPostingEntry(pLists[k - 1].getValue()
-                                .getValue(),
-                                pLists[k - 1].getValue()
-                                        .getKey()));
+    /*
+     * WAND pivot of the ordered cursors : the first one, from the k-th on, at which its bound and those of the cursors
+     * ahead of it add up to beat the N-th best match, -1 if there is none. A criteria with an id below the pivot's has
+     * its entries on cursors ahead of the pivot only, so it cannot make the top N and those cursors may skip to the
+     * pivot's id.
+     */
+    private int findPivot(final PostingCursor[] pLists, final int size, final int k) {
+        long bound = 0;
+        for (int p = 0; p < size && !pLists[p].isExhausted(); p++) {
+            bound += pLists[p].getMaxScore();
+            if (p >= k - 1 && collector.canAdmit(bound)) {
+                return p;
+            }
+        }
+        return -1;
     }
 
-    private void sortByCurrentEntriesCNF(
-            final Map.Entry<Key, MutablePair<Integer, TreeMap<Integer, DisjunctionPostingEntry>>>[] pLists) {
-        Arrays.sort(pLists,
-                ID_COMPARATOR.thenComparing(TYPE_COMPARATOR)
-                        .thenComparing(ORDER_COMPARATOR));
+    private boolean isSatisfied(final Map<String, Double> result) {
+        return limit > 0 && result.size() >= limit;
     }
 
-    private boolean sameConjunctionCheck(
-            final Map.Entry<Key, MutablePair<Integer, TreeMap<Integer, DisjunctionPostingEntry>>>[] pLists,
-            final Integer k) {
-        return Objects.nonNull(getDisjunctionPostingEntry(pLists[0].getValue()
-                .getValue(),
-                pLists[0].getValue()
-                        .getKey()))
-                && Objects.nonNull(getDisjunctionPostingEntry(pLists[k].getValue()
-                        .getValue(),
-                        pLists[k].getValue()
-                                .getKey()))
-                && pLists[0].getValue()
-                        .getKey()
-                        .equals(pLists[k].getValue()
-                                .getKey());
+    private boolean sameConjunctionCheck(final PostingCursor[] pLists, final int k) {
+        return !pLists[0].isExhausted() && !pLists[k].isExhausted() && pLists[0].getId() == pLists[k].getId();
     }
 
     private void disjunctionEvaluationCheck(final Map<String, Double> result,
-            final Map.Entry<Key, MutablePair<Integer, TreeMap<Integer, DisjunctionPostingEntry>>>[] pLists,
-            final Integer k,
-            final Integer[] counters) {
-        for (int l = 0; ((l < pLists.length) && sameConjunctionCheck(pLists, l)); l++) {
+            final PostingCursor[] pLists,
+            final int size,
+            final int k,
+            final int[] counters,
+            final long[] disjunctionScores,
+            final int disjunctionCount) {
+        for (int l = 0; ((l < size) && sameConjunctionCheck(pLists, l)); l++) {
             /* Ignore entries in the Z posting list */
-            final DisjunctionPostingEntry disjunctionPostingEntry = getDisjunctionPostingEntry(pLists[l].getValue()
-                    .getValue(),
-                    pLists[l].getValue()
-                            .getKey());
-            if (Objects.isNull(disjunctionPostingEntry) || disjunctionPostingEntry.getOrder() == -1) {
+            if (pLists[l].getOrder() == -1) {
                 continue;
             }
-            if (PredicateType.EXCLUDED.equals(disjunctionPostingEntry.getType())) {
-                counters[disjunctionPostingEntry.getOrder()]++;
+            if (pLists[l].isExcluded()) {
+                counters[pLists[l].getOrder()]++;
             } else {
-                /* Disjunction is satisfied */
-                counters[disjunctionPostingEntry.getOrder()] = 1;
+                /* Disjunction is satisfied, it scores its best matched predicate */
+                counters[pLists[l].getOrder()] = 1;
+                disjunctionScores[pLists[l].getOrder()] = Math.max(disjunctionScores[pLists[l].getOrder()],
+                        pLists[l].getScore());
             }
         }
-        if (Arrays.stream(counters)
-                .allMatch(i -> i != 0)) {
-            final DisjunctionPostingEntry disjunctionPostingEntry = getDisjunctionPostingEntry(pLists[k - 1].getValue()
-                    .getValue(),
-                    pLists[k - 1].getValue()
-                            .getKey());
-            if (Objects.nonNull(disjunctionPostingEntry)) {
-                checkAndAdd(result, disjunctionPostingEntry);
+        long criteriaScore = 0;
+        for (int i = 0; i < disjunctionCount; i++) {
+            if (counters[i] == 0) {
+                return;
             }
+            criteriaScore += disjunctionScores[i];
         }
+        checkAndAdd(result, pLists[k - 1], criteriaScore);
     }
 
-    private void checkAndAdd(final Map<String, Double> result, final DisjunctionPostingEntry postingEntry) {
-        // Check to see if the current entry represents criteria's latest version.
-        if (invertedIndex.getInternalIdFromCache(postingEntry.getEId())
-                .equals(postingEntry.getIId())) {
-            result.put(postingEntry.getEId(), computeScore(postingEntry.getEId()));
+    private void checkAndAdd(final Map<String, Double> result, final PostingCursor cursor, final long criteriaScore) {
+        final String cId = cursor.getEId();
+        if (Objects.isNull(collector)) {
+            result.put(cId, computeScore(cId, criteriaScore));
+        } else if (isWorthScoring(cId)) {
+            collector.offer(cId, computeScore(cId, criteriaScore));
         }
     }
 
-    private double computeScore(final String cId) {
-        if (score) {
+    // Only a criteria scored on its tree is costly enough to be checked against its upper bound first.
+    private boolean isWorthScoring(final String cId) {
+        return !isScoredOnTree(cId)
+                || collector.canAdmit(scoreUpperBounds.getOrDefault(cId, Double.POSITIVE_INFINITY));
+    }
+
+    private Double computeScore(final String cId, final long criteriaScore) {
+        if (!score) {
+            return NO_SCORE;
+        }
+        if (isScoredOnTree(cId)) {
             return allCriterias.get(cId)
                     .getScore(query.getRequestContext());
         }
-        return 0;
+        return (double) criteriaScore;
     }
 
-    private int getNextHigherId(final TreeSet<Integer> links, final Integer internalId) {
-        return Optional.ofNullable(links.higher(internalId))
-                .orElse(internalId + 1);
+    // A UNF criteria is scored on its own tree, which need not agree with the disjunctions it was normalized into.
+    private boolean isScoredOnTree(final String cId) {
+        return CriteriaForm.UNF.equals(allCriterias.get(cId)
+                .getForm());
     }
 
-    private int getNextId(final TreeSet<Integer> links, final Integer internalId, final int nextId) {
+    private int getNextId(final KeyDictionary keyDictionary, final int internalId, final int nextId) {
         if (nextId != internalId) {
             return internalId;
         }
-        return getNextHigherId(links, internalId);
-    }
-
-    private Integer[] getCounters(final Map<Integer, Integer[]> disjunctionCounters, final int iId) {
-        return Arrays.stream(disjunctionCounters.get(iId))
-                .map(x -> -1 * x)
-                .toArray(Integer[]::new);
-    }
-
-    private void skipTo(final Entry<Key, MutablePair<Integer, TreeMap<Integer, DisjunctionPostingEntry>>>[] pLists,
-            final int nextID) {
-        IntStream.range(0, pLists.length)
-                .filter(l -> Objects.nonNull(pLists[l].getValue()
-                        .getKey())
-                        && pLists[l].getValue()
-                                .getKey() < nextID)
-                .forEach(l -> pLists[l].getValue()
-                        .setLeft(pLists[l].getValue()
-                                .getValue()
-                                .navigableKeySet()
-                                .ceiling(nextID)));
-        sortByCurrentEntriesCNF(pLists);
+        return keyDictionary.getNextHigherId(internalId);
     }
 
 }
@@ -29,12 +29,21 @@ import com.phonepe.mustang.index.core.Key;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 @Data
+@NoArgsConstructor
 @AllArgsConstructor
 public final class CaveatEnforcer implements Caveat.Visitor<Boolean> {
-    private final Key key;
-    private final Object lhsValue;
+    private Key key;
+    private Object lhsValue;
+
+    // Points the enforcer at another key and value, for a search to reuse one instance across its keys.
+    public CaveatEnforcer reset(final Key key, final Object lhsValue) {
+        this.key = key;
+        this.lhsValue = lhsValue;
+        return this;
+    }
 
     @Override
     public Boolean visitNone() {
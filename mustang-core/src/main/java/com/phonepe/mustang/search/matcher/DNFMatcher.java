@@ -18,231 +18,241 @@ package com.phonepe.mustang.search.matcher;
 
 import com.google.common.collect.Maps;
 import com.phonepe.mustang.criteria.Criteria;
+import com.phonepe.mustang.criteria.CriteriaForm;
 import com.phonepe.mustang.index.core.ConjunctionPostingEntry;
-import com.phonepe.mustang.index.core.Key;
+import com.phonepe.mustang.index.core.KeyDictionary;
 import com.phonepe.mustang.index.core.impl.DNFInvertedIndex;
-import com.phonepe.mustang.predicate.PredicateType;
-import com.phonepe.mustang.preoperation.ChainOperator;
 import com.phonepe.mustang.search.Query;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
-import java.util.Optional;
-import java.util.TreeMap;
-import java.util.TreeSet;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
-import org.apache.commons.lang3.ObjectUtils;
-import org.apache.commons.lang3.tuple.MutablePair;
 
 @Data
 @Builder
 @AllArgsConstructor
 public class DNFMatcher {
-
-    private static final Comparator<Map.Entry<Key, MutablePair<Integer, TreeMap<Integer, ConjunctionPostingEntry>>>> COMPARATOR = (
-            e1,
-            e2) -> (ObjectUtils.compare(getPostingEntry(e1), getPostingEntry(e2), true));
+    private static final Double NO_SCORE = 0.0;
     private final DNFInvertedIndex<ConjunctionPostingEntry> invertedIndex;
     private final Query query;
     private final Map<String, Criteria> allCriterias;
-    private final Map<String, Object> pathValues;
+    private final PathValues pathValues;
     private final boolean score;
+    private final Map<String, Double> scoreUpperBounds;
+    // Present only for a top N search, matches are then collected here instead of in the result.
+    private final TopNCollector collector;
+    // Matches wanted, -1 for all of them. Posting list walks stop as soon as that many are found.
+    @Builder.Default
+    private final int limit = -1;
+    // Counts the postings the cursors land on, when given.
+    private final LongAdder visitedPostings;
 
-    private static ConjunctionPostingEntry getConjunctionPostingEntry(
-            final TreeMap<Integer, ConjunctionPostingEntry> map,
-            final Integer iId) {
-        return Objects.nonNull(iId) ? map.get(iId) : null;
+    public Map<String, Double> getMatches() {
+        return getMatches(Maps.newHashMap());
     }
 
-    private static ConjunctionPostingEntry getPostingEntry(
-            final Entry<Key, MutablePair<Integer, TreeMap<Integer, ConjunctionPostingEntry>>> entry) {
-        return getConjunctionPostingEntry(entry.getValue()
-                .getValue(),
-                entry.getValue()
-                        .getKey());
+    // Adds the matches to the given map, for the normal forms of a search to fill a single one.
+    public Map<String, Double> getMatches(final Map<String, Double> result) {
+        final MatchScratch scratch = MatchScratch.get();
+        for (int k = invertedIndex.getMaxK(); k >= 0 && !isSatisfied(result); k--) {
+            match(result, scratch, k);
+        }
+        return result;
     }
 
-    public Map<String, Double> getMatches() {
+    // Matches of a single k level, for a search spread across threads.
+    public Map<String, Double> getMatches(final int k) {
         final Map<String, Double> result = Maps.newHashMap();
-        final Map<Integer, Map<Key, TreeMap<Integer, ConjunctionPostingEntry>>> table = invertedIndex.getTable();
-        final int start = 0;
-        final int end = table.keySet()
-                .stream()
-                .mapToInt(x -> x)
-                .max()
-                .orElse(0);
-        IntStream.rangeClosed(start, end)
-                .map(i -> end - i + start)
-                .boxed()
-                .forEach(k -> {
-                    final TreeSet<Integer> links = invertedIndex.getLinkages()
-                            .get(k);
-                    final Map.Entry<Key, MutablePair<Integer, TreeMap<Integer, ConjunctionPostingEntry>>>[] pLists = getPostingListsDNF(
-                            table,
-                            k);
-                    initializeCurrentEntriesDNF(pLists);
-
-                    /* Processing k = 0 and k = 1 are identical */
-                    if (k == 0) {
-                        k = 1;
-                    }
-                    if (pLists.length < k) {
-                        /* Too few posting lists for any conjunction to be satisfied */
-                        return;
-                    }
-                    int nextID = 0;
-                    while (canContinue(pLists, k)) {
-                        /*
-                         * Check if the first k posting lists have the same conjunction ID in their
-                         * current entries
-                         */
-                        if (sameConjunctionCheck(pLists, k - 1)) {
-                            /* Reject conjunction if EXCLUDED predicate is violated */
-                            final ConjunctionPostingEntry conjunctionPostingEntry = getConjunctionPostingEntry(
-                                    pLists[0].getValue()
-                                            .getValue(),
-                                    pLists[0].getValue()
-                                            .getKey());
-                            if (!conjunctionRejectionCheck(conjunctionPostingEntry)) {
-                                /* conjunction is fully satisfied */
-                                checkAndAdd(result, conjunctionPostingEntry);
-                            }
-                            /* nextID is the smallest possible ID after current ID */
-                            nextID = getNextHigherId(links,
-                                    pLists[k - 1].getValue()
-                                            .getKey());
-
-                        } else {
-                            /* Skip first k-1 posting lists */
-                            nextID = getNextId(links,
-                                    pLists[k - 1].getValue()
-                                            .getKey(),
-                                    nextID);
-                        }
-                        skipTo(pLists, nextID);
-                    }
-                });
+        match(result, MatchScratch.get(), k);
         return result;
     }
 
-    @SuppressWarnings("unchecked")
-    private Map.Entry<Key, MutablePair<Integer, TreeMap<Integer, ConjunctionPostingEntry>>>[] getPostingListsDNF(
-            final Map<Integer, Map<Key, TreeMap<Integer, ConjunctionPostingEntry>>> table,
-            final int k) {
-        final Map<Key, TreeMap<Integer, ConjunctionPostingEntry>> map = table.getOrDefault(k, Collections.emptyMap());
-        return getMatchingKeys(map).collect(Collectors.toMap(x -> x, x -> MutablePair.of(0, map.get(x))))
-                .entrySet()
-                .toArray(Entry[]::new);
+    private void match(final Map<String, Double> result, final MatchScratch scratch, final int k) {
+        try {
+            matchLevel(result, scratch, k);
+        } finally {
+            if (Objects.nonNull(visitedPostings)) {
+                visitedPostings.add(scratch.getVisitedCount());
+            }
+            scratch.release();
+        }
     }
 
-    private Stream<Key> getMatchingKeys(final Map<Key, TreeMap<Integer, ConjunctionPostingEntry>> map) {
-        return map.keySet()
-                .stream()
-                .filter(key -> key.getCaveat()
-                        .visit(new CaveatEnforcer(key,
-                                ChainOperator.operate(key.getPreOps(), pathValues.get(key.getName())))));
+    private void matchLevel(final Map<String, Double> result, final MatchScratch scratch, int k) {
+        final KeyDictionary keyDictionary = invertedIndex.getKeyDictionary(k);
+        scratch.reset(keyDictionary.getPostingLists());
+        if (!KeySelector.select(keyDictionary, k, pathValues, scratch)) {
+            /* Too few candidate posting lists for any match */
+            return;
+        }
+        final PostingCursor[] pLists = scratch.getCursors();
+        final int size = scratch.getCursorCount();
+        PostingCursor.sort(pLists, size, PostingCursor.ENTRY_COMPARATOR);
+
+        /* Processing k = 0 and k = 1 are identical */
+        if (k == 0) {
+            k = 1;
+        }
+        if (size < k) {
+            /* Too few posting lists for any conjunction to be satisfied */
+            return;
+        }
+        if (isOutscored(scratch, pLists, size, k)) {
+            /* No conjunction of the level can beat the N-th best match */
+            return;
+        }
+        scratch.addVisited(size);
+        int nextID = 0;
+        while (!pLists[k - 1].isExhausted() && !isSatisfied(result)) {
+            if (Objects.nonNull(collector)) {
+                final int pivot = findPivot(scratch, pLists, size, k);
+                if (pivot < 0) {
+                    /* No id left in the level can beat the N-th best match */
+                    break;
+                }
+                final int pivotId = pLists[pivot].getId();
+                if (pLists[0].getId() < pivotId) {
+                    /* Ids ahead of the pivot's are held by too few bounds to be worth matching */
+                    scratch.addVisited(PostingCursor.advanceTo(pLists, size, pivotId,
+                            PostingCursor.ENTRY_COMPARATOR));
+                    continue;
+                }
+            }
+            /*
+             * Check if the first k posting lists have the same conjunction ID in their
+             * current entries
+             */
+            if (sameConjunctionCheck(pLists, k - 1)) {
+                /* Reject conjunction if EXCLUDED predicate is violated */
+                if (!pLists[0].isExcluded()) {
+                    /* conjunction is fully satisfied */
+                    checkAndAdd(result, pLists, k);
+                }
+                /* nextID is the smallest possible ID after current ID */
+                nextID = keyDictionary.getNextHigherId(pLists[k - 1].getId());
+
+            } else {
+                /* Skip first k-1 posting lists */
+                nextID = getNextId(keyDictionary, pLists[k - 1].getId(), nextID);
+            }
+            scratch.addVisited(PostingCursor.advanceTo(pLists, size, nextID,
+                    PostingCursor.ENTRY_COMPARATOR));
+        }
     }
 
-    private void initializeCurrentEntriesDNF(
-            Map.Entry<Key, MutablePair<Integer, TreeMap<Integer, ConjunctionPostingEntry>>>[] pLists) {
-        Arrays.stream(pLists)
-                .forEach(pList -> pList.getValue()
-                        .setLeft(pList.getValue()
-                                .getRight()
-                                .firstEntry()
-                                .getValue()
-                                .getIId()));
-        sortByCurrentEntriesDNF(pLists);
+    /*
+     * A conjunction of the level sums the scores of k entries on distinct posting lists, so it scores at most the k
+     * highest list bounds, a UNF criteria's entries carrying its upper bound.
+     */
+    private boolean isOutscored(final MatchScratch scratch, final PostingCursor[] pLists, final int size, final int k) {
+        if (Objects.isNull(collector)) {
+            return false;
+        }
+        final long[] best = scratch.getBounds(k);
+        long bound = 0;
+        for (int i = 0; i < size; i++) {
+            bound += keepBest(best, Math.min(i, k), k, pLists[i].getMaxScore());
+        }
+        return !collector.canAdmit(bound);
     }
 
-    private boolean canContinue(
-            final Map.Entry<Key, MutablePair<Integer, TreeMap<Integer, ConjunctionPostingEntry>>>[] pLists,
-            final int k) {
-        return Objects.nonNull(pLists[k - 1].getValue()
-                .getKey()) && Objects.nonNull(
-                        getConjunctionPostingEntry(pLists[k - 1].getValue()
-                                .getValue(),
-                                pLists[k - 1].getValue()
-                                        .getKey()));
+    /*
+     * WAND pivot of the ordered cursors : the first one at which the k highest bounds among it and the cursors ahead of
+     * it could beat the N-th best match, -1 if there is none. A conjunction with an id below the pivot's has its
+     * entries on cursors ahead of the pivot only, so it cannot make the top N and those cursors may skip to the
+     * pivot's id.
+     */
+    private int findPivot(final MatchScratch scratch, final PostingCursor[] pLists, final int size, final int k) {
+        final long[] best = scratch.getBounds(k);
+        long bound = 0;
+        for (int p = 0; p < size && !pLists[p].isExhausted(); p++) {
+            bound += keepBest(best, Math.min(p, k), k, pLists[p].getMaxScore());
+            if (p >= k - 1 && collector.canAdmit(bound)) {
+                return p;
+            }
+        }
+        return -1;
     }
 
-    private boolean conjunctionRejectionCheck(final ConjunctionPostingEntry conjunctionPostingEntry) {
-        return Objects.isNull(conjunctionPostingEntry)
-                || PredicateType.EXCLUDED.equals(conjunctionPostingEntry.getType());
+    /*
+     * Adds a bound to the k best ones, held in descending order with kept of them so far, and returns by how much
+     * their sum grows.
+     */
+    static long keepBest(final long[] best, final int kept, final int k, final long bound) {
+        if (kept == k && bound <= best[k - 1]) {
+            return 0;
+        }
+        final long dropped = kept == k ? best[k - 1] : 0;
+        int i = Math.min(kept, k - 1);
+        while (i > 0 && best[i - 1] < bound) {
+            best[i] = best[i - 1];
+            i--;
+        }
+        best[i] = bound;
+        return bound - dropped;
     }
 
-    private void sortByCurrentEntriesDNF(
-            final Map.Entry<Key, MutablePair<Integer, TreeMap<Integer, ConjunctionPostingEntry>>>[] pLists) {
-        Arrays.sort(pLists, COMPARATOR);
+    private boolean isSatisfied(final Map<String, Double> result) {
+        return limit > 0 && result.size() >= limit;
     }
 
-    private boolean sameConjunctionCheck(
-            final Map.Entry<Key, MutablePair<Integer, TreeMap<Integer, ConjunctionPostingEntry>>>[] pLists,
-            final Integer k) {
-        return Objects.nonNull(getConjunctionPostingEntry(pLists[0].getValue()
-                .getValue(),
-                pLists[0].getValue()
-                        .getKey()))
-                && Objects.nonNull(getConjunctionPostingEntry(pLists[k].getValue()
-                        .getValue(),
-                        pLists[k].getValue()
-                                .getKey()))
-                && pLists[0].getValue()
-                        .getKey()
-                        .equals(pLists[k].getValue()
-                                .getKey());
+    private boolean sameConjunctionCheck(final PostingCursor[] pLists, final int k) {
+        return !pLists[0].isExhausted() && !pLists[k].isExhausted() && pLists[0].getId() == pLists[k].getId();
     }
 
-    private void checkAndAdd(final Map<String, Double> result, final ConjunctionPostingEntry postingEntry) {
-        // Check to see if the current entry is part of criteria's latest version.
-        if (invertedIndex.getActiveIds()
-                .get(postingEntry.getEId())
-                .contains(postingEntry.getIId())) {
-            result.put(postingEntry.getEId(), computeScore(postingEntry.getEId()));
+    private void checkAndAdd(final Map<String, Double> result, final PostingCursor[] pLists, final int k) {
+        final PostingCursor cursor = pLists[0];
+        // Check to see if the current entry is part of criteria's latest version, a retired criteria having none.
+        final Set<Integer> activeIds = invertedIndex.getActiveIds()
+                .get(cursor.getEId());
+        if (Objects.isNull(activeIds) || !activeIds.contains(cursor.getId())) {
+            return;
+        }
+        final String cId = cursor.getEId();
+        if (Objects.isNull(collector)) {
+            // A criteria scores the best of its satisfied conjunctions.
+            result.merge(cId, computeScore(cId, pLists, k), Math::max);
+        } else if (isWorthScoring(cId)) {
+            collector.offer(cId, computeScore(cId, pLists, k));
         }
     }
 
-    private int getNextHigherId(final TreeSet<Integer> links, final Integer internalId) {
-        return Optional.ofNullable(links.higher(internalId))
-                .orElse(internalId + 1);
+    // Only a criteria scored on its tree is costly enough to be checked against its upper bound first.
+    private boolean isWorthScoring(final String cId) {
+        return !isScoredOnTree(cId) || (!collector.contains(cId)
+                && collector.canAdmit(scoreUpperBounds.getOrDefault(cId, Double.POSITIVE_INFINITY)));
     }
 
-    private int getNextId(final TreeSet<Integer> links, final Integer internalId, final int nextId) {
+    private int getNextId(final KeyDictionary keyDictionary, final int internalId, final int nextId) {
         if (nextId != internalId) {
             return internalId;
         }
-        return getNextHigherId(links, internalId);
+        return keyDictionary.getNextHigherId(internalId);
     }
 
-    private double computeScore(final String cId) {
-        if (score) {
+    private Double computeScore(final String cId, final PostingCursor[] pLists, final int k) {
+        if (!score) {
+            return NO_SCORE;
+        }
+        if (isScoredOnTree(cId)) {
             return allCriterias.get(cId)
                     .getScore(query.getRequestContext());
         }
-        return 0;
+        // The first k entries are the included predicates of the conjunction, each carrying its weight.
+        long conjunctionScore = 0;
+        for (int i = 0; i < k; i++) {
+            conjunctionScore += pLists[i].getScore();
+        }
+        return (double) conjunctionScore;
     }
 
-    private void skipTo(final Entry<Key, MutablePair<Integer, TreeMap<Integer, ConjunctionPostingEntry>>>[] pLists,
-            final int nextID) {
-        IntStream.range(0, pLists.length)
-                .filter(l -> Objects.nonNull(pLists[l].getValue()
-                        .getKey())
-                        && pLists[l].getValue()
-                                .getKey() < nextID)
-                .forEach(l -> pLists[l].getValue()
-                        .setLeft(pLists[l].getValue()
-                                .getValue()
-                                .navigableKeySet()
-                                .ceiling(nextID)));
-        sortByCurrentEntriesDNF(pLists);
+    // A UNF criteria is scored on its own tree, which need not agree with the conjunctions it was normalized into.
+    private boolean isScoredOnTree(final String cId) {
+        return CriteriaForm.UNF.equals(allCriterias.get(cId)
+                .getForm());
     }
 
 }
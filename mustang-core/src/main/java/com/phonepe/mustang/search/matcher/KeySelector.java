@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.search.matcher;
+
+import com.phonepe.mustang.index.core.BucketPlan;
+import com.phonepe.mustang.index.core.Key;
+import com.phonepe.mustang.index.core.KeyBucket;
+import com.phonepe.mustang.index.core.KeyDictionary;
+import com.phonepe.mustang.index.core.KeyGroup;
+
+import lombok.experimental.UtilityClass;
+
+@UtilityClass
+public class KeySelector {
+
+    /*
+     * Adds a cursor to the scratch for every key of the k level the search's path values satisfy, returning false as
+     * soon as the level turns out to have no match. A match needs included entries on at least k posting lists, one
+     * for k = 0, so buckets holding candidate keys are visited first, and the level is given up once even every
+     * candidate key left could not get there. The paths of the remaining buckets are then never read, nor are those
+     * of keys that only exclude.
+     */
+    public boolean select(final KeyDictionary keyDictionary,
+            final int k,
+            final PathValues pathValues,
+            final MatchScratch scratch) {
+        final BucketPlan plan = keyDictionary.getBucketPlan();
+        final KeyGroup[] groups = plan.getGroups();
+        final KeyBucket[] buckets = plan.getBuckets();
+        final int[] remainingCandidateKeys = plan.getRemainingCandidateKeys();
+        final int needed = Math.max(k, 1);
+        for (int i = 0; i < plan.getCandidateBuckets(); i++) {
+            if (scratch.getCandidateCount() + remainingCandidateKeys[i] < needed) {
+                return false;
+            }
+            select(groups[i], buckets[i], pathValues, scratch);
+        }
+        if (scratch.getCandidateCount() < needed) {
+            return false;
+        }
+        for (int i = plan.getCandidateBuckets(); i < plan.size(); i++) {
+            select(groups[i], buckets[i], pathValues, scratch);
+        }
+        return true;
+    }
+
+    private void select(final KeyGroup group,
+            final KeyBucket bucket,
+            final PathValues pathValues,
+            final MatchScratch scratch) {
+        final Object lhsValue = bucket.isUnconditional() ? null : pathValues.get(group);
+        bucket.forEachProbedKey(lhsValue, scratch.getCursorAdder());
+        for (Key key : bucket.getEvaluableKeys()) {
+            if (key.getCaveat()
+                    .visit(scratch.getEnforcer()
+                            .reset(key, lhsValue))) {
+                scratch.addCursor(key);
+            }
+        }
+    }
+
+}
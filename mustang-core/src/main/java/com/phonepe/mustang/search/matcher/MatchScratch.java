@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.search.matcher;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import com.phonepe.mustang.index.core.Key;
+import com.phonepe.mustang.index.core.PostingList;
+
+/*
+ * Per thread working memory of the matchers. Cursors, counters and scores are grown as needed and reused across
+ * searches so that a steady state search does not allocate them again. Nothing of the index is held once a level is
+ * released, so a replaced or compacted level is not kept reachable by an idle search thread.
+ */
+public class MatchScratch {
+    private static final ThreadLocal<MatchScratch> SCRATCH = ThreadLocal.withInitial(MatchScratch::new);
+    private PostingCursor[] cursors = new PostingCursor[16];
+    private int cursorCount;
+    // Cursors on posting lists holding included entries
+    private int candidateCount;
+    // Postings the cursors landed on while matching the level.
+    private long visitedCount;
+    private int[] counters = new int[16];
+    private long[] scores = new long[16];
+    private long[] bounds = new long[16];
+    private final CaveatEnforcer enforcer = new CaveatEnforcer();
+    private final Consumer<Key> cursorAdder = this::addCursor;
+    // Posting lists of the level being matched, held from reset to release only.
+    private Map<Key, PostingList> postingLists;
+
+    public static MatchScratch get() {
+        return SCRATCH.get();
+    }
+
+    public PostingCursor[] getCursors() {
+        return cursors;
+    }
+
+    public int getCursorCount() {
+        return cursorCount;
+    }
+
+    /* Readies the cursor pool for the posting lists of one k level */
+    public void reset(final Map<Key, PostingList> postingLists) {
+        this.postingLists = postingLists;
+        this.cursorCount = 0;
+        this.candidateCount = 0;
+        this.visitedCount = 0;
+    }
+
+    // Drops every reference into the level, to be called once the level is matched.
+    public void release() {
+        for (int i = 0; i < cursorCount; i++) {
+            cursors[i].reset(null);
+        }
+        this.postingLists = null;
+        this.cursorCount = 0;
+        this.candidateCount = 0;
+    }
+
+    public int getCandidateCount() {
+        return candidateCount;
+    }
+
+    public void addVisited(final int count) {
+        visitedCount += count;
+    }
+
+    public long getVisitedCount() {
+        return visitedCount;
+    }
+
+    public Consumer<Key> getCursorAdder() {
+        return cursorAdder;
+    }
+
+    public CaveatEnforcer getEnforcer() {
+        return enforcer;
+    }
+
+    public void addCursor(final Key key) {
+        final PostingList postingList = postingLists.get(key);
+        if (Objects.isNull(postingList) || postingList.size() == 0) {
+            return;
+        }
+        if (cursorCount == cursors.length) {
+            cursors = Arrays.copyOf(cursors, cursorCount * 2);
+        }
+        if (Objects.isNull(cursors[cursorCount])) {
+            cursors[cursorCount] = new PostingCursor(postingList);
+        } else {
+            cursors[cursorCount].reset(postingList);
+        }
+        cursorCount++;
+        if (postingList.hasIncluded()) {
+            candidateCount++;
+        }
+    }
+
+    public int[] getCounters(final int size) {
+        if (counters.length < size) {
+            counters = new int[Math.max(size, counters.length * 2)];
+        }
+        return counters;
+    }
+
+    public long[] getScores(final int size) {
+        if (scores.length < size) {
+            scores = new long[Math.max(size, scores.length * 2)];
+        }
+        return scores;
+    }
+
+    public long[] getBounds(final int size) {
+        if (bounds.length < size) {
+            bounds = new long[Math.max(size, bounds.length * 2)];
+        }
+        return bounds;
+    }
+
+}
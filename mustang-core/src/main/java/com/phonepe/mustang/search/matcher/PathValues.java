@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.search.matcher;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.common.collect.Maps;
+import com.phonepe.mustang.common.PathAccessor;
+import com.phonepe.mustang.common.PathTrie;
+import com.phonepe.mustang.index.core.KeyGroup;
+import com.phonepe.mustang.preoperation.ChainOperator;
+import com.phonepe.mustang.search.Query;
+
+/*
+ * Values of the indexed paths in one search. The first simple path a key needs has every simple path read in one
+ * walk of the event along the path trie, other paths are read off the event the first time a key needs them and
+ * memoized. Paths none of the searched keys sit on are never read through JsonPath. Preop chains are likewise run
+ * once per search for each distinct path and chain, however many levels and forms have keys under them.
+ */
+public class PathValues {
+    private final Query query;
+    private final Map<String, PathAccessor> pathAccessors;
+    private final PathTrie pathTrie;
+    // Paths keys asked for
+    private final Map<String, Object> values = Maps.newHashMap();
+    // Every simple path present in the event, null until the first simple path is asked for
+    private Map<String, Object> walkedValues;
+    private final Map<KeyGroup, Object> operatedValues = Maps.newHashMap();
+
+    public PathValues(final Query query, final Map<String, PathAccessor> pathAccessors, final PathTrie pathTrie) {
+        this.query = query;
+        this.pathAccessors = pathAccessors;
+        this.pathTrie = pathTrie;
+    }
+
+    public Object get(final String path) {
+        final Object value = values.get(path);
+        if (Objects.nonNull(value) || values.containsKey(path)) {
+            return value;
+        }
+        final PathAccessor accessor = pathAccessors.get(path);
+        if (Objects.isNull(accessor)) {
+            // Not a path of the event, e.g. the zero size entry key
+            return null;
+        }
+        // Paths indexed after the trie was taken are read on their own
+        final Object resolvedValue = pathTrie.contains(path)
+                ? getWalkedValues().get(path)
+                : accessor.read(query.getRequestContext()
+                        .getNode(), query.getParsedContext());
+        values.put(path, resolvedValue);
+        return resolvedValue;
+    }
+
+    // Value of the path with the group's preops applied.
+    public Object get(final KeyGroup group) {
+        if (group.getPreOps()
+                .isEmpty()) {
+            return get(group.getName());
+        }
+        final Object value = operatedValues.get(group);
+        if (Objects.nonNull(value) || operatedValues.containsKey(group)) {
+            return value;
+        }
+        final Object operatedValue = ChainOperator.operate(group.getPreOps(), get(group.getName()));
+        operatedValues.put(group, operatedValue);
+        return operatedValue;
+    }
+
+    private Map<String, Object> getWalkedValues() {
+        if (Objects.isNull(walkedValues)) {
+            walkedValues = Maps.newHashMap();
+            pathTrie.collect(query.getRequestContext()
+                    .getNode(), walkedValues::put);
+        }
+        return walkedValues;
+    }
+
+    // Every indexed path read up front, for queries to be told apart by what the index can see of them.
+    public static PathValues project(final Query query, final Map<String, PathAccessor> pathAccessors,
+            final PathTrie pathTrie) {
+        final PathValues pathValues = new PathValues(query, pathAccessors, pathTrie);
+        pathAccessors.keySet()
+                .forEach(pathValues::get);
+        return pathValues;
+    }
+
+    // For a search whose k levels are matched on several threads at once.
+    public static PathValues shared(final Query query, final Map<String, PathAccessor> pathAccessors,
+            final PathTrie pathTrie) {
+        return new PathValues(query, pathAccessors, pathTrie) {
+            @Override
+            public synchronized Object get(final String path) {
+                return super.get(path);
+            }
+
+            @Override
+            public synchronized Object get(final KeyGroup group) {
+                return super.get(group);
+            }
+
+            @Override
+            public synchronized int getResolvedCount() {
+                return super.getResolvedCount();
+            }
+        };
+    }
+
+    public Map<String, Object> getProjection() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    public int getResolvedCount() {
+        return values.size();
+    }
+
+}
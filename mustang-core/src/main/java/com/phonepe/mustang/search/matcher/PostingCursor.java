@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.search.matcher;
+
+import java.util.Comparator;
+
+import com.phonepe.mustang.index.core.PostingList;
+
+import lombok.Getter;
+
+/*
+ * Position within a posting list during a search. Exhausted cursors order after every live one.
+ */
+public class PostingCursor {
+    /* EXCLUDED entries sort ahead of INCLUDED ones for the same id */
+    public static final Comparator<PostingCursor> ENTRY_COMPARATOR = (c1, c2) -> compare(c1, c2, false);
+    public static final Comparator<PostingCursor> ORDERED_ENTRY_COMPARATOR = (c1, c2) -> compare(c1, c2, true);
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    @Getter
+    private PostingList postingList;
+    private int position;
+
+    public PostingCursor(final PostingList postingList) {
+        this.postingList = postingList;
+    }
+
+    public void reset(final PostingList postingList) {
+        this.postingList = postingList;
+        this.position = 0;
+    }
+
+    public boolean isExhausted() {
+        return position >= postingList.size();
+    }
+
+    public int getId() {
+        return postingList.getId(position);
+    }
+
+    public String getEId() {
+        return postingList.getEId(position);
+    }
+
+    public boolean isExcluded() {
+        return postingList.isExcluded(position);
+    }
+
+    public int getOrder() {
+        return postingList.getOrder(position);
+    }
+
+    public long getScore() {
+        return postingList.getScore(position);
+    }
+
+    public long getMaxScore() {
+        return postingList.getMaxScore();
+    }
+
+    public void advanceTo(final int target) {
+        position = postingList.advance(position, target);
+    }
+
+    /*
+     * Cursors behind the target lead the ordered array. Only those are advanced and each is then sifted forward to
+     * its place, leaving the already ordered tail untouched. Returns the number of cursors advanced.
+     */
+    public static int advanceTo(final PostingCursor[] cursors,
+            final int count,
+            final int target,
+            final Comparator<PostingCursor> comparator) {
+        int moved = 0;
+        while (moved < count && !cursors[moved].isExhausted() && cursors[moved].getId() < target) {
+            cursors[moved++].advanceTo(target);
+        }
+        for (int i = moved - 1; i >= 0; i--) {
+            final PostingCursor cursor = cursors[i];
+            int j = i;
+            while (j + 1 < count && comparator.compare(cursor, cursors[j + 1]) > 0) {
+                cursors[j] = cursors[j + 1];
+                j++;
+            }
+            cursors[j] = cursor;
+        }
+        return moved;
+    }
+
+    /*
+     * Orders the first count cursors in place. Unlike Arrays.sort, which takes a temporary array once there are more
+     * than a few dozen cursors, this never allocates : an insertion sort for a few cursors and a heap sort beyond.
+     */
+    public static void sort(final PostingCursor[] cursors,
+            final int count,
+            final Comparator<PostingCursor> comparator) {
+        if (count <= INSERTION_SORT_THRESHOLD) {
+            for (int i = 1; i < count; i++) {
+                final PostingCursor cursor = cursors[i];
+                int j = i;
+                while (j > 0 && comparator.compare(cursors[j - 1], cursor) > 0) {
+                    cursors[j] = cursors[j - 1];
+                    j--;
+                }
+                cursors[j] = cursor;
+            }
+            return;
+        }
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            siftDown(cursors, i, count, comparator);
+        }
+        for (int end = count - 1; end > 0; end--) {
+            final PostingCursor largest = cursors[0];
+            cursors[0] = cursors[end];
+            cursors[end] = largest;
+            siftDown(cursors, 0, end, comparator);
+        }
+    }
+
+    private static void siftDown(final PostingCursor[] cursors,
+            int position,
+            final int end,
+            final Comparator<PostingCursor> comparator) {
+        final PostingCursor cursor = cursors[position];
+        while (2 * position + 1 < end) {
+            int child = 2 * position + 1;
+            if (child + 1 < end && comparator.compare(cursors[child + 1], cursors[child]) > 0) {
+                child++;
+            }
+            if (comparator.compare(cursors[child], cursor) <= 0) {
+                break;
+            }
+            cursors[position] = cursors[child];
+            position = child;
+        }
+        cursors[position] = cursor;
+    }
+
+    private static int compare(final PostingCursor c1, final PostingCursor c2, final boolean ordered) {
+        final boolean exhausted1 = c1.isExhausted();
+        final boolean exhausted2 = c2.isExhausted();
+        if (exhausted1 || exhausted2) {
+            return Boolean.compare(exhausted1, exhausted2);
+        }
+        final int idc = Integer.compare(c1.getId(), c2.getId());
+        if (idc != 0) {
+            return idc;
+        }
+        final int typec = Boolean.compare(c2.isExcluded(), c1.isExcluded());
+        if (typec != 0 || !ordered) {
+            return typec;
+        }
+        return Integer.compare(c1.getOrder(), c2.getOrder());
+    }
+
+}
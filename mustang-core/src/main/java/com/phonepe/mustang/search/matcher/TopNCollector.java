@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.search.matcher;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.common.collect.Maps;
+
+/*
+ * Best N scores seen so far in a search, held in a bounded min-heap over primitive arrays with the worst kept score
+ * at the root. Once full, the root score is the threshold a candidate's score upper bound has to beat for the
+ * candidate to be scored at all. Among equal scores the one offered first ranks higher.
+ */
+public class TopNCollector {
+    private final int capacity;
+    private final double[] scores;
+    private final String[] eIds;
+    private final int[] arrivals;
+    private final Map<String, Integer> positions = Maps.newHashMap();
+    private int size;
+    private int offered;
+
+    public TopNCollector(final int capacity) {
+        this.capacity = capacity;
+        this.scores = new double[capacity];
+        this.eIds = new String[capacity];
+        this.arrivals = new int[capacity];
+    }
+
+    public static Map<String, Double> rank(final Map<String, Double> scores, final int topN) {
+        final TopNCollector collector = new TopNCollector(topN == -1 ? scores.size() : Math.min(topN, scores.size()));
+        scores.forEach(collector::offer);
+        return collector.rank();
+    }
+
+    public boolean contains(final String eId) {
+        return positions.containsKey(eId);
+    }
+
+    // Candidates that can at best tie with the current N-th best are not worth scoring.
+    public boolean canAdmit(final double upperBound) {
+        return size < capacity || (capacity > 0 && upperBound > scores[0]);
+    }
+
+    public void offer(final String eId, final double score) {
+        final Integer position = positions.get(eId);
+        if (Objects.nonNull(position)) {
+            // Met again, e.g. through another conjunction of a DNF, the best score stands.
+            if (score > scores[position]) {
+                scores[position] = score;
+                siftDown(position, size);
+            }
+            return;
+        }
+        if (!canAdmit(score)) {
+            return;
+        }
+        if (size == capacity) {
+            positions.remove(eIds[0]);
+            set(0, eId, score, offered++);
+            siftDown(0, size);
+        } else {
+            set(size, eId, score, offered++);
+            siftUp(size++);
+        }
+    }
+
+    /*
+     * Collected matches, best first. Sorts the heap in place by moving the root to the end of a shrinking heap, so
+     * nothing can be offered afterwards.
+     */
+    public Map<String, Double> rank() {
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+        final LinkedHashMap<String, Double> ranked = Maps.newLinkedHashMapWithExpectedSize(size);
+        for (int i = 0; i < size; i++) {
+            ranked.put(eIds[i], scores[i]);
+        }
+        return ranked;
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            final int parent = (position - 1) >>> 1;
+            if (!isWorse(position, parent)) {
+                return;
+            }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position, final int end) {
+        while (true) {
+            final int left = 2 * position + 1;
+            if (left >= end) {
+                return;
+            }
+            final int right = left + 1;
+            final int worst = right < end && isWorse(right, left) ? right : left;
+            if (!isWorse(worst, position)) {
+                return;
+            }
+            swap(position, worst);
+            position = worst;
+        }
+    }
+
+    private boolean isWorse(final int i, final int j) {
+        return scores[i] < scores[j] || (scores[i] == scores[j] && arrivals[i] > arrivals[j]);
+    }
+
+    private void set(final int position, final String eId, final double score, final int arrival) {
+        eIds[position] = eId;
+        scores[position] = score;
+        arrivals[position] = arrival;
+        positions.put(eId, position);
+    }
+
+    private void swap(final int i, final int j) {
+        final String eId = eIds[i];
+        final double score = scores[i];
+        final int arrival = arrivals[i];
+        set(i, eIds[j], scores[j], arrivals[j]);
+        set(j, eId, score, arrival);
+    }
+
+}
@@ -19,6 +19,9 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import com.phonepe.mustang.exception.ErrorCode;
 import com.phonepe.mustang.exception.MustangException;
@@ -27,17 +30,26 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.phonepe.mustang.MustangEngine;
+import com.phonepe.mustang.common.PathTrie;
 import com.phonepe.mustang.common.RequestContext;
+import com.phonepe.mustang.compaction.CompactionStats;
 import com.phonepe.mustang.composition.impl.Conjunction;
 import com.phonepe.mustang.composition.impl.Disjunction;
 import com.phonepe.mustang.criteria.Criteria;
 import com.phonepe.mustang.criteria.impl.CNFCriteria;
 import com.phonepe.mustang.criteria.impl.DNFCriteria;
 import com.phonepe.mustang.detail.Caveat;
+import com.phonepe.mustang.detail.impl.RangeDetail;
+import com.phonepe.mustang.index.core.ConjunctionPostingEntry;
+import com.phonepe.mustang.index.core.InvertedIndex;
 import com.phonepe.mustang.index.core.Key;
+import com.phonepe.mustang.index.core.KeyDictionary;
+import com.phonepe.mustang.index.core.PostingList;
 import com.phonepe.mustang.predicate.impl.ExcludedPredicate;
 import com.phonepe.mustang.predicate.impl.IncludedPredicate;
 import com.phonepe.mustang.preoperation.impl.IdentityOperation;
@@ -941,4 +953,486 @@ public class IndexTest {
 
     }
 
+    @Test
+    public void testIncrementalIndexingAgreesWithRebuild() {
+        for (int i = 0; i < 60; i++) {
+            engine.add("test", getMixedCriteria(i));
+        }
+        for (int i = 0; i < 60; i += 9) {
+            engine.update("test", DNFCriteria.builder()
+                    .id("C" + i)
+                    .conjunction(Conjunction.builder()
+                            .predicate(IncludedPredicate.builder()
+                                    .lhs("$.a")
+                                    .values(Sets.newHashSet("A" + i))
+                                    .build())
+                            .build())
+                    .build());
+        }
+        final IndexGroup index = engine.getIndexingFacde()
+                .getIndexGroup("test");
+        assertKeyDictionariesAgreeWithRebuild(index.getDnfInvertedIndex(), PostingList::ofConjunctions);
+        assertKeyDictionariesAgreeWithRebuild(index.getCnfInvertedIndex(), PostingList::ofDisjunctions);
+    }
+
+    @Test
+    public void testIndexingSplicesOnlyTouchedPostingLists() {
+        engine.add("test", getSingleKeyCriteria("C1", "$.a", "A1"));
+        engine.add("test", getSingleKeyCriteria("C2", "$.b", "B1"));
+        final InvertedIndex<ConjunctionPostingEntry> invertedIndex = engine.getIndexingFacde()
+                .getIndexGroup("test")
+                .getDnfInvertedIndex();
+        final KeyDictionary keyDictionary = invertedIndex.getKeyDictionary(1);
+        final Map<Key, PostingList> postingLists = Maps.newHashMap(keyDictionary.getPostingLists());
+        final Map<Key, TreeMap<Integer, ConjunctionPostingEntry>> level = Maps.newHashMap(invertedIndex.getTable()
+                .get(1));
+        Assert.assertEquals(2, postingLists.size());
+
+        engine.add("test", getSingleKeyCriteria("C3", "$.a", "A1"));
+        Assert.assertSame(keyDictionary, invertedIndex.getKeyDictionary(1));
+        postingLists.forEach((key, postingList) -> {
+            final PostingList current = keyDictionary.getPostingLists()
+                    .get(key);
+            final TreeMap<Integer, ConjunctionPostingEntry> entries = invertedIndex.getTable()
+                    .get(1)
+                    .get(key);
+            if ("$.a".equals(key.getName())) {
+                // Touched keys get new lists, the ones readers may hold left as they were
+                Assert.assertNotSame(postingList, current);
+                Assert.assertEquals(2, current.size());
+                Assert.assertNotSame(level.get(key), entries);
+                Assert.assertEquals(1, level.get(key)
+                        .size());
+            } else {
+                // Untouched keys keep their list
+                Assert.assertSame(postingList, current);
+                Assert.assertSame(level.get(key), entries);
+            }
+        });
+        assertKeyDictionariesAgreeWithRebuild(invertedIndex, PostingList::ofConjunctions);
+    }
+
+    private static Map<Key, Integer> getFrequencies(final Map<Key, AtomicInteger> keyFrequency) {
+        final Map<Key, Integer> frequencies = Maps.newHashMap();
+        keyFrequency.forEach((key, frequency) -> frequencies.put(key, frequency.get()));
+        return frequencies;
+    }
+
+    private DNFCriteria getSingleKeyCriteria(final String id, final String lhs, final String value) {
+        return DNFCriteria.builder()
+                .id(id)
+                .conjunction(Conjunction.builder()
+                        .predicate(IncludedPredicate.builder()
+                                .lhs(lhs)
+                                .values(Sets.newHashSet(value))
+                                .build())
+                        .build())
+                .build();
+    }
+
+    @Test
+    public void testPathTrieIsRebuiltOnlyForNewPaths() {
+        engine.add("test", getMixedCriteria(0));
+        engine.add("test", DNFCriteria.builder()
+                .id("F")
+                .conjunction(Conjunction.builder()
+                        .predicate(IncludedPredicate.builder()
+                                .lhs("$.list[0].a")
+                                .values(Sets.newHashSet("A1"))
+                                .build())
+                        .build())
+                .build());
+        final IndexGroup index = engine.getIndexingFacde()
+                .getIndexGroup("test");
+        final PathTrie pathTrie = index.getPathTrie();
+        // The filter path is kept out of the trie, yet the trie is up to date.
+        Assert.assertFalse(pathTrie.contains("$.list[0].a"));
+        Assert.assertEquals(index.getPathAccessors()
+                .size(), pathTrie.getSourceCount());
+
+        for (int i = 1; i < 10; i++) {
+            engine.add("test", getMixedCriteria(i));
+        }
+        Assert.assertSame(pathTrie, index.getPathTrie());
+
+        engine.add("test", DNFCriteria.builder()
+                .id("G")
+                .conjunction(Conjunction.builder()
+                        .predicate(IncludedPredicate.builder()
+                                .lhs("$.c")
+                                .values(Sets.newHashSet("C1"))
+                                .build())
+                        .build())
+                .build());
+        Assert.assertNotSame(pathTrie, index.getPathTrie());
+        Assert.assertTrue(index.getPathTrie()
+                .contains("$.c"));
+    }
+
+    @Test
+    public void testBulkBuildAgreesWithIncrementalIndexing() {
+        final List<Criteria> criterias = Lists.newArrayList();
+        for (int i = 0; i < 60; i++) {
+            criterias.add(getMixedCriteria(i));
+        }
+        criterias.add(DNFCriteria.builder()
+                .id("T")
+                .build());
+        engine.add("incremental", criterias);
+        engine.buildIndex("bulk", criterias);
+
+        final IndexGroup incremental = engine.getIndexingFacde()
+                .getIndexGroup("incremental");
+        final IndexGroup bulk = engine.getIndexingFacde()
+                .getIndexGroup("bulk");
+        Assert.assertEquals(Lists.newArrayList(incremental.getAllCriterias()
+                .keySet()),
+                Lists.newArrayList(bulk.getAllCriterias()
+                        .keySet()));
+        Assert.assertEquals(incremental.getTautologicalCriterias()
+                .keySet(),
+                bulk.getTautologicalCriterias()
+                        .keySet());
+        // Frozen once built, its key dictionaries are the only form its postings are kept in
+        for (InvertedIndex<?> invertedIndex : List.of(bulk.getDnfInvertedIndex(), bulk.getCnfInvertedIndex())) {
+            Assert.assertTrue(invertedIndex.getTable()
+                    .isEmpty());
+            Assert.assertTrue(invertedIndex.getLinkages()
+                    .isEmpty());
+        }
+        assertKeyDictionariesAgreeWithRebuild(incremental.getDnfInvertedIndex(), PostingList::ofConjunctions);
+        assertKeyDictionariesAgreeWithRebuild(incremental.getCnfInvertedIndex(), PostingList::ofDisjunctions);
+        Assert.assertEquals(incremental.getDnfInvertedIndex()
+                .getMaxK(),
+                bulk.getDnfInvertedIndex()
+                        .getMaxK());
+        Assert.assertEquals(incremental.getCnfInvertedIndex()
+                .getMaxK(),
+                bulk.getCnfInvertedIndex()
+                        .getMaxK());
+        for (int k = 0; k <= incremental.getDnfInvertedIndex()
+                .getMaxK(); k++) {
+            assertKeyDictionariesAgree(incremental.getDnfInvertedIndex()
+                    .getKeyDictionary(k),
+                    bulk.getDnfInvertedIndex()
+                            .getKeyDictionary(k));
+        }
+        for (int k = 0; k <= incremental.getCnfInvertedIndex()
+                .getMaxK(); k++) {
+            assertKeyDictionariesAgree(incremental.getCnfInvertedIndex()
+                    .getKeyDictionary(k),
+                    bulk.getCnfInvertedIndex()
+                            .getKeyDictionary(k));
+        }
+
+        for (int i = 0; i < 12; i++) {
+            final Map<String, Object> testQuery = Maps.newHashMap();
+            testQuery.put("a", "A" + i % 6);
+            testQuery.put("b", "B" + i % 3);
+            testQuery.put("n", i);
+            final RequestContext context = RequestContext.builder()
+                    .node(mapper.valueToTree(testQuery))
+                    .build();
+            Assert.assertEquals(engine.search("incremental", context), engine.search("bulk", context));
+        }
+
+        // Read only once built
+        Assert.assertTrue(bulk.isFrozen());
+        final MustangException frozen = Assert.assertThrows(MustangException.class,
+                () -> engine.delete("bulk", criterias.get(0)));
+        Assert.assertEquals(ErrorCode.INDEX_FROZEN, frozen.getErrorCode());
+        Assert.assertThrows(MustangException.class, () -> engine.add("bulk", getMixedCriteria(60)));
+        Assert.assertThrows(MustangException.class, () -> engine.compact("bulk", true));
+        Assert.assertTrue(bulk.getAllCriterias()
+                .containsKey(criterias.get(0)
+                        .getId()));
+
+        // The index a build replaces is frozen along with it, a write still holding on to it failing
+        engine.buildIndex("incremental", criterias);
+        Assert.assertTrue(incremental.isFrozen());
+        Assert.assertNotSame(incremental, engine.getIndexingFacde()
+                .getIndexGroup("incremental"));
+    }
+
+    @Test
+    public void testCompactionPurgesRetiredEntries() {
+        for (int i = 0; i < 60; i++) {
+            engine.add("test", getMixedCriteria(i));
+        }
+        final Criteria tautology = DNFCriteria.builder()
+                .id("T")
+                .build();
+        engine.add("test", tautology);
+        // The only criteria reading its path
+        final Criteria gone = getSingleKeyCriteria("G", "$.gone", "G1");
+        engine.add("test", gone);
+        for (int i = 0; i < 60; i += 3) {
+            engine.update("test", CNFCriteria.builder()
+                    .id("C" + i)
+                    .disjunction(Disjunction.builder()
+                            .predicate(IncludedPredicate.builder()
+                                    .lhs("$.a")
+                                    .values(Sets.newHashSet("A" + i % 6))
+                                    .build())
+                            .build())
+                    .build());
+        }
+        for (int i = 1; i < 60; i += 5) {
+            engine.delete("test", getMixedCriteria(i));
+        }
+        engine.delete("test", tautology);
+        engine.delete("test", gone);
+
+        final IndexGroup index = engine.getIndexingFacde()
+                .getIndexGroup("test");
+        engine.add("fresh", Lists.newArrayList(index.getAllCriterias()
+                .values()));
+        final List<RequestContext> contexts = Lists.newArrayList();
+        for (int i = 0; i < 12; i++) {
+            final Map<String, Object> testQuery = Maps.newHashMap();
+            testQuery.put("a", "A" + i % 6);
+            testQuery.put("b", "B" + i % 3);
+            testQuery.put("n", i);
+            contexts.add(RequestContext.builder()
+                    .node(mapper.valueToTree(testQuery))
+                    .build());
+        }
+        // Retired versions stop matching before they are purged
+        contexts.forEach(context -> Assert.assertEquals(engine.search("fresh", context),
+                engine.search("test", context)));
+
+        // Posting lists as a reader off the lock may hold them
+        final Map<Key, TreeMap<Integer, ConjunctionPostingEntry>> held = Maps.newHashMap();
+        final Map<Key, Integer> heldSizes = Maps.newHashMap();
+        index.getDnfInvertedIndex()
+                .getTable()
+                .values()
+                .forEach(level -> level.forEach((key, postingList) -> {
+                    held.put(key, postingList);
+                    heldSizes.put(key, postingList.size());
+                }));
+
+        final CompactionStats stats = engine.compact("test");
+        Assert.assertTrue(stats.getPurgedIds() > 0);
+        Assert.assertTrue(stats.getRemovedEntries() > 0);
+        // Purged on copies, the held lists left as they were
+        held.forEach((key, postingList) -> Assert.assertEquals(heldSizes.get(key), Integer.valueOf(postingList
+                .size())));
+        Assert.assertTrue(held.values()
+                .stream()
+                .anyMatch(postingList -> index.getDnfInvertedIndex()
+                        .getTable()
+                        .values()
+                        .stream()
+                        .noneMatch(level -> level.containsValue(postingList))));
+        Assert.assertTrue(index.getDnfInvertedIndex()
+                .getStaleIds()
+                .isEmpty());
+        Assert.assertTrue(index.getCnfInvertedIndex()
+                .getStaleIds()
+                .isEmpty());
+        final Set<Integer> activeIds = Sets.newHashSet();
+        index.getDnfInvertedIndex()
+                .getActiveIds()
+                .values()
+                .forEach(activeIds::addAll);
+        index.getDnfInvertedIndex()
+                .getTable()
+                .values()
+                .forEach(level -> level.values()
+                        .forEach(postingList -> Assert.assertTrue(activeIds.containsAll(postingList.keySet()))));
+        index.getCnfInvertedIndex()
+                .getTable()
+                .values()
+                .forEach(level -> level.values()
+                        .forEach(postingList -> postingList.values()
+                                .forEach(entry -> Assert.assertEquals(entry.getIId(),
+                                        index.getCnfInvertedIndex()
+                                                .getLiveInternalId(entry.getEId())))));
+        Assert.assertEquals(index.getCnfInvertedIndex()
+                .getIdCache()
+                .size(),
+                index.getCnfInvertedIndex()
+                        .getDisjunctionCounters()
+                        .size());
+        assertKeyDictionariesAgreeWithRebuild(index.getDnfInvertedIndex(), PostingList::ofConjunctions);
+        assertKeyDictionariesAgreeWithRebuild(index.getCnfInvertedIndex(), PostingList::ofDisjunctions);
+        contexts.forEach(context -> Assert.assertEquals(engine.search("fresh", context),
+                engine.search("test", context)));
+        // Key frequencies and paths are those of the live criterias
+        final IndexGroup fresh = engine.getIndexingFacde()
+                .getIndexGroup("fresh");
+        Assert.assertEquals(getFrequencies(fresh.getDnfKeyFrequency()), getFrequencies(index.getDnfKeyFrequency()));
+        Assert.assertEquals(getFrequencies(fresh.getCnfKeyFrequency()), getFrequencies(index.getCnfKeyFrequency()));
+        Assert.assertFalse(index.getAllPaths()
+                .containsKey("$.gone"));
+        Assert.assertEquals(fresh.getAllPaths()
+                .keySet(),
+                index.getAllPaths()
+                        .keySet());
+        Assert.assertEquals(fresh.getPathAccessors()
+                .keySet(),
+                index.getPathAccessors()
+                        .keySet());
+        Assert.assertEquals(index.getPathAccessors()
+                .size(),
+                index.getPathTrie()
+                        .getSourceCount());
+
+        // Nothing left to purge
+        final CompactionStats again = engine.compact("test");
+        Assert.assertEquals(0, again.getPurgedIds());
+        Assert.assertEquals(0, again.getRemovedEntries());
+        Assert.assertEquals(stats.getRemainingEntries(), again.getRemainingEntries());
+    }
+
+    @Test
+    public void testRenumberingHandsOutDenseIds() {
+        for (int i = 0; i < 60; i++) {
+            engine.add("test", getMixedCriteria(i));
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 60; i += 4) {
+                engine.update("test", getMixedCriteria(i));
+            }
+        }
+        for (int i = 1; i < 60; i += 7) {
+            engine.delete("test", getMixedCriteria(i));
+        }
+        final List<String> criteriaIds = Lists.newArrayList(engine.getIndexingFacde()
+                .getIndexGroup("test")
+                .getAllCriterias()
+                .keySet());
+        final List<RequestContext> contexts = Lists.newArrayList();
+        final List<Set<String>> expected = Lists.newArrayList();
+        for (int i = 0; i < 12; i++) {
+            final Map<String, Object> testQuery = Maps.newHashMap();
+            testQuery.put("a", "A" + i % 6);
+            testQuery.put("b", "B" + i % 3);
+            testQuery.put("n", i);
+            contexts.add(RequestContext.builder()
+                    .node(mapper.valueToTree(testQuery))
+                    .build());
+            expected.add(engine.search("test", contexts.get(i)));
+        }
+
+        final CompactionStats stats = engine.compact("test", true);
+        Assert.assertTrue(stats.getPurgedIds() > 0);
+        Assert.assertTrue(stats.getRemovedEntries() > 0);
+
+        final IndexGroup index = engine.getIndexingFacde()
+                .getIndexGroup("test");
+        Assert.assertEquals(criteriaIds, Lists.newArrayList(index.getAllCriterias()
+                .keySet()));
+        final Set<Integer> activeIds = Sets.newTreeSet();
+        index.getDnfInvertedIndex()
+                .getActiveIds()
+                .values()
+                .forEach(activeIds::addAll);
+        Assert.assertEquals(activeIds.size(),
+                index.getDnfInvertedIndex()
+                        .getIdCounter()
+                        .get());
+        Assert.assertEquals(Integer.valueOf(activeIds.size()), Iterables.getLast(activeIds));
+        Assert.assertEquals(index.getCnfInvertedIndex()
+                .getIdCache()
+                .size(),
+                index.getCnfInvertedIndex()
+                        .getIdCounter()
+                        .get());
+        assertKeyDictionariesAgreeWithRebuild(index.getDnfInvertedIndex(), PostingList::ofConjunctions);
+        assertKeyDictionariesAgreeWithRebuild(index.getCnfInvertedIndex(), PostingList::ofDisjunctions);
+        for (int i = 0; i < contexts.size(); i++) {
+            Assert.assertEquals(expected.get(i), engine.search("test", contexts.get(i)));
+        }
+
+        // Writes go to the renumbered index
+        engine.delete("test", getMixedCriteria(0));
+        Assert.assertFalse(index.getAllCriterias()
+                .containsKey("C0"));
+    }
+
+    private Criteria getMixedCriteria(final int i) {
+        final IncludedPredicate range = IncludedPredicate.builder()
+                .lhs("$.n")
+                .detail(RangeDetail.builder()
+                        .lowerBound(i % 10)
+                        .upperBound(i % 10 + 5)
+                        .build())
+                .build();
+        final IncludedPredicate equality = IncludedPredicate.builder()
+                .lhs("$.a")
+                .values(Sets.newHashSet("A" + i % 4, "A" + i % 6))
+                .build();
+        final ExcludedPredicate exclusion = ExcludedPredicate.builder()
+                .lhs("$.b")
+                .values(Sets.newHashSet("B" + i % 3))
+                .build();
+        return i % 2 == 0 ? DNFCriteria.builder()
+                .id("C" + i)
+                .conjunction(Conjunction.builder()
+                        .predicate(equality)
+                        .predicate(exclusion)
+                        .build())
+                .conjunction(Conjunction.builder()
+                        .predicate(range)
+                        .predicate(equality)
+                        .build())
+                .conjunction(Conjunction.builder()
+                        .predicate(exclusion)
+                        .build())
+                .build()
+                : CNFCriteria.builder()
+                        .id("C" + i)
+                        // The same predicate in two disjunctions
+                        .disjunction(Disjunction.builder()
+                                .predicate(equality)
+                                .predicate(range)
+                                .build())
+                        .disjunction(Disjunction.builder()
+                                .predicate(equality)
+                                .build())
+                        .disjunction(Disjunction.builder()
+                                .predicate(exclusion)
+                                .build())
+                        .build();
+    }
+
+    private <T> void assertKeyDictionariesAgreeWithRebuild(final InvertedIndex<T> invertedIndex,
+            final Function<TreeMap<Integer, T>, PostingList> converter) {
+        for (int k = 0; k <= invertedIndex.getMaxK(); k++) {
+            final KeyDictionary incremental = invertedIndex.getKeyDictionary(k);
+            invertedIndex.refreshKeyDictionary(k, converter);
+            assertKeyDictionariesAgree(invertedIndex.getKeyDictionary(k), incremental);
+        }
+    }
+
+    private void assertKeyDictionariesAgree(final KeyDictionary expected, final KeyDictionary actual) {
+        Assert.assertArrayEquals(expected.getLinkages(), actual.getLinkages());
+        Assert.assertEquals(expected.getPostingLists()
+                .keySet(),
+                actual.getPostingLists()
+                        .keySet());
+        expected.getPostingLists()
+                .forEach((key, postingList) -> {
+                    final PostingList actualList = actual.getPostingLists()
+                            .get(key);
+                    Assert.assertEquals(postingList.size(), actualList.size());
+                    for (int i = 0; i < postingList.size(); i++) {
+                        Assert.assertEquals(postingList.getId(i), actualList.getId(i));
+                        Assert.assertEquals(postingList.isExcluded(i), actualList.isExcluded(i));
+                        Assert.assertEquals(postingList.getOrder(i), actualList.getOrder(i));
+                    }
+                });
+        Assert.assertEquals(expected.getBuckets()
+                .keySet(),
+                actual.getBuckets()
+                        .keySet());
+        expected.getBuckets()
+                .forEach((group, bucket) -> Assert.assertEquals(Sets.newHashSet(bucket.getKeys()),
+                        Sets.newHashSet(actual.getBuckets()
+                                .get(group)
+                                .getKeys())));
+    }
+
 }
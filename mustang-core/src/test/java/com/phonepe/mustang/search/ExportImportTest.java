@@ -28,6 +28,10 @@ import static org.mockito.Mockito.mock;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -348,4 +352,43 @@ public class ExportImportTest {
         }
     }
 
+    @Test
+    public void testSnapshotOfShardedIndexWhileWriting() throws Exception {
+        engine.createShardedIndex("sharded", 4);
+        final ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            final Future<?> writes = writer.submit(() -> IntStream.range(0, 500)
+                    .forEach(i -> {
+                        final Criteria criteria = DNFCriteria.builder()
+                                .id("C" + i)
+                                .conjunction(Conjunction.builder()
+                                        .predicate(IncludedPredicate.builder()
+                                                .lhs("$.p" + (i % 7))
+                                                .detail(EqualityDetail.builder()
+                                                        .values(Sets.newHashSet("v" + i, "w" + (i % 11)))
+                                                        .build())
+                                                .build())
+                                        .build())
+                                .build();
+                        engine.add("sharded", criteria);
+                        engine.update("sharded", criteria);
+                    }));
+
+            // Each snapshot and export is taken while shard writes are in flight, and must see the group at rest.
+            while (!writes.isDone()) {
+                assertNotNull(mapper.readTree(engine.snapshot("sharded")));
+                mapper.readValue(engine.exportIndexGroup("sharded"), new TypeReference<List<Criteria>>() {
+                });
+            }
+            writes.get();
+        } finally {
+            writer.shutdownNow();
+        }
+
+        final List<Criteria> exported = mapper.readValue(engine.exportIndexGroup("sharded"),
+                new TypeReference<List<Criteria>>() {
+                });
+        assertThat(exported, hasSize(500));
+    }
+
 }
@@ -19,18 +19,25 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.TimeZone;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -43,13 +50,24 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.phonepe.mustang.MustangEngine;
 import com.phonepe.mustang.common.RequestContext;
+import com.phonepe.mustang.composition.CompositionType;
 import com.phonepe.mustang.composition.impl.Conjunction;
 import com.phonepe.mustang.composition.impl.Disjunction;
 import com.phonepe.mustang.criteria.Criteria;
 import com.phonepe.mustang.criteria.impl.CNFCriteria;
 import com.phonepe.mustang.criteria.impl.DNFCriteria;
+import com.phonepe.mustang.criteria.impl.UNFCriteria;
+import com.phonepe.mustang.detail.Detail;
+import com.phonepe.mustang.detail.impl.CheckType;
+import com.phonepe.mustang.detail.impl.EqualSetDetail;
+import com.phonepe.mustang.detail.impl.RangeDetail;
+import com.phonepe.mustang.detail.impl.RegexDetail;
+import com.phonepe.mustang.detail.impl.SubSetDetail;
+import com.phonepe.mustang.detail.impl.SuperSetDetail;
+import com.phonepe.mustang.detail.impl.VersioningDetail;
 import com.phonepe.mustang.exception.ErrorCode;
 import com.phonepe.mustang.exception.MustangException;
+import com.phonepe.mustang.index.IndexGroup;
 import com.phonepe.mustang.predicate.impl.ExcludedPredicate;
 import com.phonepe.mustang.predicate.impl.IncludedPredicate;
 import com.phonepe.mustang.preoperation.impl.AdditionPreOperation;
@@ -1996,6 +2014,1329 @@ public class ExtendedSearchTest {
         assertThat(ratificationResult.getAnamolyDetails(), is(empty()));
     }
 
+    @Test
+    public void testEqualityAcrossNumericTypesAndListValues() {
+        Criteria c1 = DNFCriteria.builder()
+                .id("C1")
+                .conjunction(Conjunction.builder()
+                        .predicate(IncludedPredicate.builder()
+                                .lhs("$.n")
+                                .values(Sets.newHashSet(5))
+                                .build())
+                        .predicate(IncludedPredicate.builder()
+                                .lhs("$.m")
+                                .values(Sets.newHashSet(2.0))
+                                .build())
+                        .build())
+                .build();
+        Criteria c2 = CNFCriteria.builder()
+                .id("C2")
+                .disjunction(Disjunction.builder()
+                        .predicate(IncludedPredicate.builder()
+                                .lhs("$.n")
+                                .values(Sets.newHashSet(5L))
+                                .build())
+                        .build())
+                .disjunction(Disjunction.builder()
+                        .predicate(IncludedPredicate.builder()
+                                .lhs("$.tags")
+                                .values(Sets.newHashSet("T1"))
+                                .build())
+                        .build())
+                .build();
+        Criteria c3 = DNFCriteria.builder()
+                .id("C3")
+                .conjunction(Conjunction.builder()
+                        .predicate(IncludedPredicate.builder()
+                                .lhs("$.tags")
+                                .values(Sets.newHashSet("T2"))
+                                .build())
+                        .build())
+                .build();
+        engine.add("test", List.of(c1, c2, c3));
+
+        Map<String, Object> testQuery = Maps.newHashMap();
+        testQuery.put("n", 5.0);
+        testQuery.put("m", 2);
+        testQuery.put("tags", List.of("T1", "T2"));
+        final Set<String> searchResults = engine.search("test",
+                RequestContext.builder()
+                        .node(mapper.valueToTree(testQuery))
+                        .build());
+        assertThat(searchResults, hasSize(2));
+        assertThat(searchResults, containsInAnyOrder("C1", "C2"));
+    }
+
+    @Test
+    public void testOverlappingRangesAgreeWithScanAtBoundaries() {
+        final List<Criteria> criterias = Lists.newArrayList();
+        for (int i = 0; i < 40; i++) {
+            final RangeDetail detail = RangeDetail.builder()
+                    .lowerBound(i % 7)
+                    .upperBound(i % 7 + i % 5 + 0.5 * (i % 3))
+                    .includeLowerBound(i % 2 == 0)
+                    .includeUpperBound(i % 4 < 2)
+                    .build();
+            criterias.add(i % 2 == 0 ? DNFCriteria.builder()
+                    .id("C" + i)
+                    .conjunction(Conjunction.builder()
+                            .predicate(IncludedPredicate.builder()
+                                    .lhs("$.a")
+                                    .detail(detail)
+                                    .build())
+                            .build())
+                    .build()
+                    : CNFCriteria.builder()
+                            .id("C" + i)
+                            .disjunction(Disjunction.builder()
+                                    .predicate(IncludedPredicate.builder()
+                                            .lhs("$.a")
+                                            .detail(detail)
+                                            .build())
+                                    .build())
+                            .build());
+        }
+        engine.add("test", criterias);
+
+        for (double a = -1; a <= 13; a += 0.25) {
+            final Map<String, Object> testQuery = Maps.newHashMap();
+            testQuery.put("a", a);
+            final RequestContext context = RequestContext.builder()
+                    .node(mapper.valueToTree(testQuery))
+                    .build();
+            assertThat(engine.search("test", context), is(engine.scan("test", context)));
+        }
+
+        final Map<String, Object> testQuery = Maps.newHashMap();
+        testQuery.put("a", 0);
+        final Set<String> searchResults = engine.search("test", RequestContext.builder()
+                .node(mapper.valueToTree(testQuery))
+                .build());
+        // [0,0], [0,5) and [0,3.5] include the lower bound, (0,2.5), (0,1] and (0,1) do not.
+        assertThat(searchResults, containsInAnyOrder("C0", "C14", "C28"));
+
+        testQuery.put("a", "0");
+        assertThat(engine.search("test", RequestContext.builder()
+                .node(mapper.valueToTree(testQuery))
+                .build()), is(empty()));
+    }
+
+    @Test
+    public void testRegexKindsAgreeWithScan() {
+        final List<String> regexes = List.of("AMAZON", "AMAZON.*", "AMAZ?ON PAY", "AMAZON\\s+PAY", "(?i)amazon.*",
+                ".*PAY", "SWIGGY|ZOMATO", "SWI[G]+Y", "^SWIGGY$", "");
+        final List<Criteria> criterias = Lists.newArrayList();
+        for (int i = 0; i < regexes.size(); i++) {
+            final RegexDetail detail = RegexDetail.builder()
+                    .regex(regexes.get(i))
+                    .build();
+            criterias.add(i % 2 == 0 ? DNFCriteria.builder()
+                    .id("C" + i)
+                    .conjunction(Conjunction.builder()
+                            .predicate(IncludedPredicate.builder()
+                                    .lhs("$.name")
+                                    .detail(detail)
+                                    .build())
+                            .build())
+                    .build()
+                    : CNFCriteria.builder()
+                            .id("C" + i)
+                            .disjunction(Disjunction.builder()
+                                    .predicate(IncludedPredicate.builder()
+                                            .lhs("$.name")
+                                            .detail(detail)
+                                            .build())
+                                    .build())
+                            .build());
+        }
+        engine.add("test", criterias);
+
+        for (String name : List.of("AMAZON", "AMAZON PAY", "AMAZON   PAY", "AMZON PAY", "amazon", "AMAZ", "GPAY",
+                "SWIGGY", "SWIGGGY", "ZOMATO", "", "BLINKIT")) {
+            final Map<String, Object> testQuery = Maps.newHashMap();
+            testQuery.put("name", name);
+            final RequestContext context = RequestContext.builder()
+                    .node(mapper.valueToTree(testQuery))
+                    .build();
+            assertThat(engine.search("test", context), is(engine.scan("test", context)));
+        }
+
+        final Map<String, Object> testQuery = Maps.newHashMap();
+        testQuery.put("name", "AMAZON PAY");
+        assertThat(engine.search("test", RequestContext.builder()
+                .node(mapper.valueToTree(testQuery))
+                .build()), containsInAnyOrder("C1", "C2", "C3", "C4", "C5"));
+        testQuery.put("name", 1);
+        assertThat(engine.search("test", RequestContext.builder()
+                .node(mapper.valueToTree(testQuery))
+                .build()), is(empty()));
+    }
+
+    @Test
+    public void testVersionChecksAgreeWithScanAtBaseVersions() {
+        final List<String> versions = List.of("1.0", "1.2.3", "2.0-SNAPSHOT", "2.0", "2.0.1", "10.1");
+        final List<Criteria> criterias = Lists.newArrayList();
+        int id = 0;
+        for (String version : versions) {
+            for (CheckType check : CheckType.values()) {
+                for (boolean excludeBase : List.of(true, false)) {
+                    final VersioningDetail detail = VersioningDetail.builder()
+                            .check(check)
+                            .baseVersion(version)
+                            .excludeBase(excludeBase)
+                            .build();
+                    criterias.add(id % 2 == 0 ? DNFCriteria.builder()
+                            .id("C" + id)
+                            .conjunction(Conjunction.builder()
+                                    .predicate(IncludedPredicate.builder()
+                                            .lhs("$.appVersion")
+                                            .detail(detail)
+                                            .build())
+                                    .build())
+                            .build()
+                            : CNFCriteria.builder()
+                                    .id("C" + id)
+                                    .disjunction(Disjunction.builder()
+                                            .predicate(IncludedPredicate.builder()
+                                                    .lhs("$.appVersion")
+                                                    .detail(detail)
+                                                    .build())
+                                            .build())
+                                    .build());
+                    id++;
+                }
+            }
+        }
+        engine.add("test", criterias);
+
+        for (String appVersion : List.of("0.9", "1.0", "1.0.0", "1.2", "1.2.3", "2.0-SNAPSHOT", "2.0", "2.0.1",
+                "9.9", "10.1", "11")) {
+            final Map<String, Object> testQuery = Maps.newHashMap();
+            testQuery.put("appVersion", appVersion);
+            final RequestContext context = RequestContext.builder()
+                    .node(mapper.valueToTree(testQuery))
+                    .build();
+            assertThat(engine.search("test", context), is(engine.scan("test", context)));
+        }
+
+        final Map<String, Object> testQuery = Maps.newHashMap();
+        testQuery.put("appVersion", "2.0");
+        // inclusive checks on 2.0, both BELOW checks on newer bases and both ABOVE checks on older ones
+        assertThat(engine.search("test", RequestContext.builder()
+                .node(mapper.valueToTree(testQuery))
+                .build()), hasSize(12));
+    }
+
+    @Test
+    public void testSetContainmentAgreesWithScan() {
+        final List<Set<Object>> sets = List.of(Sets.newHashSet("A"), Sets.newHashSet("A", "B"),
+                Sets.newHashSet("A", "B", "C"), Sets.newHashSet("B", "D"), Sets.newHashSet(1, 2), Sets.newHashSet());
+        final List<Criteria> criterias = Lists.newArrayList();
+        int id = 0;
+        for (Set<Object> values : sets) {
+            for (Detail detail : List.of(SubSetDetail.builder()
+                    .values(values)
+                    .build(),
+                    SuperSetDetail.builder()
+                            .values(values)
+                            .build(),
+                    EqualSetDetail.builder()
+                            .values(values)
+                            .build())) {
+                criterias.add(id % 2 == 0 ? DNFCriteria.builder()
+                        .id("C" + id)
+                        .conjunction(Conjunction.builder()
+                                .predicate(IncludedPredicate.builder()
+                                        .lhs("$.tags")
+                                        .detail(detail)
+                                        .build())
+                                .build())
+                        .build()
+                        : CNFCriteria.builder()
+                                .id("C" + id)
+                                .disjunction(Disjunction.builder()
+                                        .predicate(IncludedPredicate.builder()
+                                                .lhs("$.tags")
+                                                .detail(detail)
+                                                .build())
+                                        .build())
+                                .build());
+                id++;
+            }
+        }
+        engine.add("test", criterias);
+
+        for (List<Object> tags : List.<List<Object>>of(List.of("A"), List.of("B", "A"), List.of("A", "A", "B"),
+                List.of("A", "B", "C", "D"), List.of("D", "B"), List.of(2, 1), List.of("E"), List.of(),
+                List.of("B", "A"))) {
+            final Map<String, Object> testQuery = Maps.newHashMap();
+            testQuery.put("tags", tags);
+            final RequestContext context = RequestContext.builder()
+                    .node(mapper.valueToTree(testQuery))
+                    .build();
+            assertThat(engine.search("test", context), is(engine.scan("test", context)));
+        }
+
+        final Map<String, Object> testQuery = Maps.newHashMap();
+        testQuery.put("tags", List.of("B", "A"));
+        // subsets of {A,B} and {A,B,C}, supersets of {A}, {A,B} and {}, and {A,B} itself
+        assertThat(engine.search("test", RequestContext.builder()
+                .node(mapper.valueToTree(testQuery))
+                .build()), containsInAnyOrder("C3", "C6", "C1", "C4", "C16", "C5"));
+        testQuery.put("tags", "A");
+        assertThat(engine.search("test", RequestContext.builder()
+                .node(mapper.valueToTree(testQuery))
+                .build()), is(empty()));
+    }
+
+    @Test
+    public void testSkippingThroughLongPostingListsAgreesWithScan() {
+        final List<Criteria> criterias = Lists.newArrayList();
+        for (int i = 0; i < 600; i++) {
+            final IncludedPredicate common = IncludedPredicate.builder()
+                    .lhs("$.a")
+                    .values(Sets.newHashSet(1))
+                    .build();
+            final IncludedPredicate selective = IncludedPredicate.builder()
+                    .lhs("$.b")
+                    .values(Sets.newHashSet(i % 37))
+                    .build();
+            final ExcludedPredicate exclusion = ExcludedPredicate.builder()
+                    .lhs("$.c")
+                    .values(Sets.newHashSet(i % 5))
+                    .build();
+            criterias.add(i % 2 == 0 ? DNFCriteria.builder()
+                    .id("C" + i)
+                    .conjunction(Conjunction.builder()
+                            .predicate(common)
+                            .predicate(selective)
+                            .predicate(exclusion)
+                            .build())
+                    .build()
+                    : CNFCriteria.builder()
+                            .id("C" + i)
+                            .disjunction(Disjunction.builder()
+                                    .predicate(common)
+                                    .build())
+                            .disjunction(Disjunction.builder()
+                                    .predicate(selective)
+                                    .predicate(exclusion)
+                                    .build())
+                            .build());
+        }
+        engine.add("test", criterias);
+        for (int i = 0; i < 600; i += 7) {
+            engine.delete("test", criterias.get(i));
+        }
+
+        for (int b = 0; b < 37; b += 4) {
+            for (int c = 0; c < 5; c += 2) {
+                final Map<String, Object> testQuery = Maps.newHashMap();
+                testQuery.put("a", 1);
+                testQuery.put("b", b);
+                testQuery.put("c", c);
+                final RequestContext context = RequestContext.builder()
+                        .node(mapper.valueToTree(testQuery))
+                        .build();
+                final Set<String> searchResults = engine.search("test", context);
+                assertThat(searchResults, is(engine.scan("test", context)));
+                assertThat(searchResults.isEmpty(), is(false));
+            }
+        }
+    }
+
+    @Test
+    public void testTopNSearchAgreesWithFullRanking() {
+        final List<Criteria> criterias = Lists.newArrayList();
+        for (int i = 0; i < 300; i++) {
+            final IncludedPredicate common = IncludedPredicate.builder()
+                    .lhs("$.a")
+                    .values(Sets.newHashSet(1))
+                    .weight((long) (i % 11))
+                    .build();
+            final IncludedPredicate selective = IncludedPredicate.builder()
+                    .lhs("$.b")
+                    .values(Sets.newHashSet(i % 7))
+                    .weight((long) (i % 13))
+                    .build();
+            final IncludedPredicate other = IncludedPredicate.builder()
+                    .lhs("$.c")
+                    .values(Sets.newHashSet(i % 3))
+                    .weight((long) (i % 17))
+                    .build();
+            final ExcludedPredicate exclusion = ExcludedPredicate.builder()
+                    .lhs("$.d")
+                    .values(Sets.newHashSet(i % 5))
+                    .build();
+            criterias.add(i % 2 == 0 ? DNFCriteria.builder()
+                    .id("C" + i)
+                    .conjunction(Conjunction.builder()
+                            .predicate(common)
+                            .predicate(exclusion)
+                            .build())
+                    .conjunction(Conjunction.builder()
+                            .predicate(selective)
+                            .predicate(other)
+                            .build())
+                    .build()
+                    : CNFCriteria.builder()
+                            .id("C" + i)
+                            .disjunction(Disjunction.builder()
+                                    .predicate(common)
+                                    .predicate(other)
+                                    .build())
+                            .disjunction(Disjunction.builder()
+                                    .predicate(selective)
+                                    .predicate(exclusion)
+                                    .build())
+                            .build());
+        }
+        criterias.add(DNFCriteria.builder()
+                .id("T")
+                .build());
+        engine.add("test", criterias);
+        for (int i = 0; i < 300; i += 19) {
+            engine.delete("test", criterias.get(i));
+        }
+        final Map<String, Criteria> allCriterias = engine.getIndexingFacde()
+                .getIndexGroup("test")
+                .getAllCriterias();
+
+        for (int b = 0; b < 7; b += 3) {
+            for (int d = 0; d < 5; d += 2) {
+                final Map<String, Object> testQuery = Maps.newHashMap();
+                testQuery.put("a", 1);
+                testQuery.put("b", b);
+                testQuery.put("c", b % 3);
+                testQuery.put("d", d);
+                final RequestContext context = RequestContext.builder()
+                        .node(mapper.valueToTree(testQuery))
+                        .build();
+                final List<Double> ranking = engine.search("test", context, true)
+                        .stream()
+                        .map(id -> allCriterias.get(id)
+                                .getScore(context))
+                        .toList();
+                for (int topN : new int[] { 1, 5, 40 }) {
+                    final List<Double> topScores = engine.search("test", context, topN)
+                            .stream()
+                            .map(id -> allCriterias.get(id)
+                                    .getScore(context))
+                            .toList();
+                    assertThat(topScores, is(ranking.subList(0, topN)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTopNSearchRanksTreeScoredCriteriasWithWeightedOnes() {
+        final List<Criteria> criterias = Lists.newArrayList();
+        for (int i = 0; i < 120; i++) {
+            final IncludedPredicate common = IncludedPredicate.builder()
+                    .lhs("$.a")
+                    .values(Sets.newHashSet(1))
+                    .weight((long) (i % 5))
+                    .build();
+            final IncludedPredicate selective = IncludedPredicate.builder()
+                    .lhs("$.b")
+                    .values(Sets.newHashSet(i % 4))
+                    .weight((long) (i % 7))
+                    .build();
+            if (i % 3 != 0) {
+                criterias.add(DNFCriteria.builder()
+                        .id("C" + i)
+                        .conjunction(Conjunction.builder()
+                                .predicate(common)
+                                .predicate(selective)
+                                .build())
+                        .build());
+                continue;
+            }
+            // Scored on its tree, the nested AND outscoring the weights its normalized entries would carry.
+            criterias.add(UNFCriteria.builder()
+                    .id("C" + i)
+                    .type(CompositionType.OR)
+                    .criteria(UNFCriteria.builder()
+                            .id("N" + i)
+                            .type(CompositionType.AND)
+                            .predicate(common)
+                            .predicate(selective)
+                            .predicate(IncludedPredicate.builder()
+                                    .lhs("$.c")
+                                    .detail(RangeDetail.builder()
+                                            .lowerBound(i % 10)
+                                            .upperBound(20)
+                                            .build())
+                                    .weight((long) (i % 11))
+                                    .build())
+                            .build())
+                    .predicate(IncludedPredicate.builder()
+                            .lhs("$.d")
+                            .values(Sets.newHashSet(i % 2))
+                            .weight(1L)
+                            .build())
+                    .build());
+        }
+        engine.add("test", criterias);
+        final Map<String, Criteria> allCriterias = engine.getIndexingFacde()
+                .getIndexGroup("test")
+                .getAllCriterias();
+
+        for (int b = 0; b < 4; b++) {
+            for (int d = 0; d < 2; d++) {
+                final Map<String, Object> testQuery = Maps.newHashMap();
+                testQuery.put("a", 1);
+                testQuery.put("b", b);
+                testQuery.put("c", 12);
+                testQuery.put("d", d);
+                final RequestContext context = RequestContext.builder()
+                        .node(mapper.valueToTree(testQuery))
+                        .build();
+                final List<Double> ranking = engine.search("test", context, true)
+                        .stream()
+                        .map(id -> allCriterias.get(id)
+                                .getScore(context))
+                        .toList();
+                for (int topN : new int[] { 1, 3, 10 }) {
+                    final List<Double> topScores = engine.search("test", context, topN)
+                            .stream()
+                            .map(id -> allCriterias.get(id)
+                                    .getScore(context))
+                            .toList();
+                    assertThat(topScores, is(ranking.subList(0, topN)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTopNSearchSkipsPostingsThatCannotMakeIt() {
+        final List<Criteria> criterias = Lists.newArrayList();
+        for (int i = 0; i < 600; i++) {
+            // Few criterias hold the heavy key, and they come last.
+            final boolean heavy = i >= 590;
+            criterias.add(DNFCriteria.builder()
+                    .id("C" + i)
+                    .conjunction(Conjunction.builder()
+                            .predicate(IncludedPredicate.builder()
+                                    .lhs(heavy ? "$.b" : "$.a")
+                                    .values(Sets.newHashSet(1))
+                                    .weight(heavy ? 50L + i % 3 : 1L + i % 2)
+                                    .build())
+                            .build())
+                    .build());
+            criterias.add(CNFCriteria.builder()
+                    .id("D" + i)
+                    .disjunction(Disjunction.builder()
+                            .predicate(IncludedPredicate.builder()
+                                    .lhs(heavy ? "$.b" : "$.a")
+                                    .values(Sets.newHashSet(1))
+                                    .weight(heavy ? 40L : 1L)
+                                    .build())
+                            .build())
+                    .disjunction(Disjunction.builder()
+                            .predicate(IncludedPredicate.builder()
+                                    .lhs("$.c")
+                                    .values(Sets.newHashSet(1))
+                                    .weight(1L)
+                                    .build())
+                            .build())
+                    .build());
+        }
+        engine.add("test", criterias);
+        final IndexGroup indexGroup = engine.getIndexingFacde()
+                .getIndexGroup("test");
+        final Map<String, Object> testQuery = Maps.newHashMap();
+        testQuery.put("a", 1);
+        testQuery.put("b", 1);
+        testQuery.put("c", 1);
+        final RequestContext context = RequestContext.builder()
+                .node(mapper.valueToTree(testQuery))
+                .build();
+
+        final Map<String, Double> allScores = engine.searchWithScores("test", context, -1);
+        final long fullyVisited = indexGroup.getVisitedPostingCount()
+                .sumThenReset();
+        assertThat(allScores.size(), is(1200));
+
+        final Map<String, Double> topScores = engine.searchWithScores("test", context, 10);
+        final long topVisited = indexGroup.getVisitedPostingCount()
+                .sum();
+        assertThat(Lists.newArrayList(topScores.values()), is(Lists.newArrayList(allScores.values())
+                .subList(0, 10)));
+        Assert.assertTrue(topVisited > 0);
+        Assert.assertTrue(topVisited * 10 < fullyVisited);
+    }
+
+    @Test
+    public void testSearchWithScoresIsRankedBestFirst() {
+        final List<Criteria> criterias = Lists.newArrayList();
+        for (int i = 0; i < 50; i++) {
+            criterias.add(DNFCriteria.builder()
+                    .id("C" + i)
+                    .conjunction(Conjunction.builder()
+                            .predicate(IncludedPredicate.builder()
+                                    .lhs("$.a")
+                                    .values(Sets.newHashSet(1))
+                                    .weight((long) (i % 9))
+                                    .build())
+                            .build())
+                    .build());
+        }
+        engine.add("test", criterias);
+        final Map<String, Object> testQuery = Maps.newHashMap();
+        testQuery.put("a", 1);
+        final RequestContext context = RequestContext.builder()
+                .node(mapper.valueToTree(testQuery))
+                .build();
+
+        final Map<String, Double> allScores = engine.searchWithScores("test", context, -1);
+        assertThat(allScores.size(), is(50));
+        final List<Double> ranking = Lists.newArrayList(allScores.values());
+        for (int i = 1; i < ranking.size(); i++) {
+            Assert.assertTrue(ranking.get(i - 1) >= ranking.get(i));
+        }
+        allScores.forEach((id, score) -> Assert.assertEquals(criterias.get(Integer.parseInt(id.substring(1)))
+                .getScore(context), score, 0.0));
+
+        final Map<String, Double> topScores = engine.searchWithScores("test", context, 5);
+        assertThat(Lists.newArrayList(topScores.values()), is(ranking.subList(0, 5)));
+        assertThat(topScores.values(), contains(8.0, 8.0, 8.0, 8.0, 8.0));
+        assertThat(Lists.newArrayList(engine.search("test", context, 5)),
+                is(Lists.newArrayList(topScores.keySet())));
+        assertThat(engine.searchWithScores("test", context, 0)
+                .isEmpty(), is(true));
+    }
+
+    @Test
+    public void testScoresFromPostingsAgreeWithCriteriaScores() {
+        final Map<String, Criteria> criterias = Maps.newHashMap();
+        for (int i = 0; i < 120; i++) {
+            final long weight = i < 60 ? i % 4 : (i * 7) % 5;
+            final IncludedPredicate first = IncludedPredicate.builder()
+                    .lhs("$.a")
+                    .values(Sets.newHashSet(i % 2, 5))
+                    .weight(weight)
+                    .build();
+            final IncludedPredicate second = IncludedPredicate.builder()
+                    .lhs("$.b")
+                    .values(Sets.newHashSet(i % 3))
+                    .weight(weight + 3)
+                    .build();
+            final IncludedPredicate third = IncludedPredicate.builder()
+                    .lhs("$.c")
+                    .detail(RangeDetail.builder()
+                            .lowerBound(i % 10)
+                            .upperBound(20)
+                            .build())
+                    .weight(2 * weight)
+                    .build();
+            final ExcludedPredicate exclusion = ExcludedPredicate.builder()
+                    .lhs("$.d")
+                    .values(Sets.newHashSet(i % 4))
+                    .weight(9L)
+                    .build();
+            final String id = "C" + (i % 60);
+            criterias.put(id, i % 2 == 0 ? DNFCriteria.builder()
+                    .id(id)
+                    .conjunction(Conjunction.builder()
+                            .predicate(first)
+                            .predicate(second)
+                            .build())
+                    .conjunction(Conjunction.builder()
+                            .predicate(third)
+                            .predicate(exclusion)
+                            .build())
+                    .conjunction(Conjunction.builder()
+                            .predicate(exclusion)
+                            .build())
+                    .build()
+                    : CNFCriteria.builder()
+                            .id(id)
+                            .disjunction(Disjunction.builder()
+                                    .predicate(first)
+                                    .predicate(third)
+                                    .build())
+                            .disjunction(Disjunction.builder()
+                                    .predicate(second)
+                                    .predicate(exclusion)
+                                    .build())
+                            .build());
+            // The second half re-weighs the first through updates.
+            if (i < 60) {
+                engine.add("test", criterias.get(id));
+            } else {
+                engine.update("test", criterias.get(id));
+            }
+        }
+
+        for (int a = 0; a < 2; a++) {
+            for (int c = 0; c < 12; c += 5) {
+                for (int d = 0; d < 4; d++) {
+                    final Map<String, Object> testQuery = Maps.newHashMap();
+                    testQuery.put("a", a);
+                    testQuery.put("b", (a + c) % 3);
+                    testQuery.put("c", c);
+                    testQuery.put("d", d);
+                    final RequestContext context = RequestContext.builder()
+                            .node(mapper.valueToTree(testQuery))
+                            .build();
+                    final Map<String, Double> scores = engine.searchWithScores("test", context, -1);
+                    assertThat(scores.keySet(), is(engine.scan("test", context)));
+                    assertThat(scores.isEmpty(), is(false));
+                    scores.forEach((id, score) -> Assert.assertEquals(id, criterias.get(id)
+                            .getScore(context), score, 0.0));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPathStatsCountPathsReadPerSearch() {
+        engine.add("test", DNFCriteria.builder()
+                .id("C1")
+                .conjunction(Conjunction.builder()
+                        .predicate(IncludedPredicate.builder()
+                                .lhs("$.a")
+                                .values(Sets.newHashSet("A1"))
+                                .build())
+                        .predicate(ExcludedPredicate.builder()
+                                .lhs("$.b")
+                                .values(Sets.newHashSet("B1"))
+                                .build())
+                        .build())
+                .build());
+        engine.add("test", CNFCriteria.builder()
+                .id("C2")
+                .disjunction(Disjunction.builder()
+                        .predicate(ExcludedPredicate.builder()
+                                .lhs("$.c")
+                                .values(Sets.newHashSet("C1"))
+                                .build())
+                        .build())
+                .build());
+        assertThat(engine.getPathStats("test")
+                .getSearches(), is(0L));
+
+        final Map<String, Object> testQuery = Maps.newHashMap();
+        testQuery.put("a", "A1");
+        testQuery.put("x", "X1");
+        final RequestContext context = RequestContext.builder()
+                .node(mapper.valueToTree(testQuery))
+                .build();
+        assertThat(engine.search("test", context), containsInAnyOrder("C1", "C2"));
+        assertThat(engine.search("test", context, 1), hasSize(1));
+
+        PathStats pathStats = engine.getPathStats("test");
+        assertThat(pathStats.getIndexedPaths(), is(3L));
+        assertThat(pathStats.getSearches(), is(2L));
+        // Each path is read once per search, however many levels and forms look it up.
+        assertThat(pathStats.getResolvedPaths(), is(6L));
+        assertThat(pathStats.getResolvedPathsPerSearch(), is(3.0));
+
+        // Without a, nothing can match at the DNF level, so b, which only excludes, is never read.
+        testQuery.remove("a");
+        assertThat(engine.search("test", RequestContext.builder()
+                .node(mapper.valueToTree(testQuery))
+                .build()), containsInAnyOrder("C2"));
+        pathStats = engine.getPathStats("test");
+        assertThat(pathStats.getSearches(), is(3L));
+        assertThat(pathStats.getResolvedPaths(), is(8L));
+        Assert.assertTrue(pathStats.getResolvedPathsPerSearch() < pathStats.getIndexedPaths());
+    }
+
+    @Test
+    public void testPreOperationChainsSharedAcrossLevelsAndForms() {
+        // Same path and modulo chain at k = 1 and k = 2 in DNF and in a CNF criteria.
+        engine.add("test", DNFCriteria.builder()
+                .id("C1")
+                .conjunction(Conjunction.builder()
+                        .predicate(IncludedPredicate.builder()
+                                .lhs("$.n")
+                                .preOperation(ModuloPreOperation.builder()
+                                        .rhs(4)
+                                        .build())
+                                .values(Sets.newHashSet(1))
+                                .build())
+                        .build())
+                .build());
+        engine.add("test", DNFCriteria.builder()
+                .id("C2")
+                .conjunction(Conjunction.builder()
+                        .predicate(IncludedPredicate.builder()
+                                .lhs("$.n")
+                                .preOperation(ModuloPreOperation.builder()
+                                        .rhs(4)
+                                        .build())
+                                .values(Sets.newHashSet(1, 2))
+                                .build())
+                        .predicate(IncludedPredicate.builder()
+                                .lhs("$.a")
+                                .values(Sets.newHashSet("A1"))
+                                .build())
+                        .build())
+                .build());
+        engine.add("test", CNFCriteria.builder()
+                .id("C3")
+                .disjunction(Disjunction.builder()
+                        .predicate(IncludedPredicate.builder()
+                                .lhs("$.n")
+                                .preOperation(ModuloPreOperation.builder()
+                                        .rhs(4)
+                                        .build())
+                                .values(Sets.newHashSet(3))
+                                .build())
+                        .build())
+                .build());
+        engine.add("test", CNFCriteria.builder()
+                .id("C4")
+                .disjunction(Disjunction.builder()
+                        .predicate(IncludedPredicate.builder()
+                                .lhs("$.n")
+                                .preOperation(ModuloPreOperation.builder()
+                                        .rhs(3)
+                                        .build())
+                                .values(Sets.newHashSet(2))
+                                .build())
+                        .build())
+                .build());
+
+        final Map<String, Object> testQuery = Maps.newHashMap();
+        testQuery.put("n", 5);
+        testQuery.put("a", "A1");
+        assertThat(engine.search("test", RequestContext.builder()
+                .node(mapper.valueToTree(testQuery))
+                .build()), containsInAnyOrder("C1", "C2", "C4"));
+        testQuery.put("n", 7);
+        assertThat(engine.search("test", RequestContext.builder()
+                .node(mapper.valueToTree(testQuery))
+                .build()), containsInAnyOrder("C3"));
+    }
+
+    @Test
+    public void testParallelSearchAgreesWithSequentialSearch() {
+        final MustangEngine parallelEngine = MustangEngine.builder()
+                .mapper(mapper)
+                .parallelSearch(ParallelSearch.builder()
+                        .threshold(0)
+                        .build())
+                .build();
+        final List<Criteria> criterias = Lists.newArrayList();
+        for (int i = 0; i < 200; i++) {
+            final Conjunction.ConjunctionBuilder conjunction = Conjunction.builder();
+            final Disjunction.DisjunctionBuilder disjunction = Disjunction.builder();
+            // k varies from 1 to 3 across criterias
+            for (int j = 0; j <= i % 3; j++) {
+                conjunction.predicate(IncludedPredicate.builder()
+                        .lhs("$.p" + j)
+                        .values(Sets.newHashSet((i + j) % 4))
+                        .weight((long) (i % 5))
+                        .build());
+                disjunction.predicate(IncludedPredicate.builder()
+                        .lhs("$.p" + j)
+                        .values(Sets.newHashSet(i % 4))
+                        .weight((long) (i % 7))
+                        .build());
+            }
+            conjunction.predicate(ExcludedPredicate.builder()
+                    .lhs("$.x")
+                    .values(Sets.newHashSet(i % 6))
+                    .build());
+            criterias.add(i % 2 == 0 ? DNFCriteria.builder()
+                    .id("C" + i)
+                    .conjunction(conjunction.build())
+                    .build()
+                    : CNFCriteria.builder()
+                            .id("C" + i)
+                            .disjunction(disjunction.build())
+                            .build());
+        }
+        criterias.add(DNFCriteria.builder()
+                .id("T")
+                .build());
+        engine.add("test", criterias);
+        parallelEngine.add("test", criterias);
+
+        for (int q = 0; q < 24; q++) {
+            final Map<String, Object> testQuery = Maps.newHashMap();
+            testQuery.put("p0", q % 4);
+            testQuery.put("p1", (q / 4) % 4);
+            testQuery.put("p2", (q + 1) % 4);
+            testQuery.put("x", q % 6);
+            final RequestContext context = RequestContext.builder()
+                    .node(mapper.valueToTree(testQuery))
+                    .build();
+            final Set<String> matches = engine.search("test", context);
+            assertThat(matches, hasItem("T"));
+            assertThat(parallelEngine.search("test", context), is(matches));
+            assertThat(parallelEngine.searchWithScores("test", context, -1),
+                    is(engine.searchWithScores("test", context, -1)));
+        }
+        assertThat(parallelEngine.getPathStats("test")
+                .getResolvedPaths(),
+                is(engine.getPathStats("test")
+                        .getResolvedPaths()));
+    }
+
+    @Test
+    public void testSearchBatchAlignsWithSingleSearches() {
+        for (int i = 0; i < 60; i++) {
+            engine.add("test", i % 2 == 0 ? DNFCriteria.builder()
+                    .id("C" + i)
+                    .conjunction(Conjunction.builder()
+                            .predicate(IncludedPredicate.builder()
+                                    .lhs("$.a")
+                                    .values(Sets.newHashSet(i % 4))
+                                    .build())
+                            .predicate(ExcludedPredicate.builder()
+                                    .lhs("$.b.c")
+                                    .values(Sets.newHashSet(i % 3))
+                                    .build())
+                            .build())
+                    .build()
+                    : CNFCriteria.builder()
+                            .id("C" + i)
+                            .disjunction(Disjunction.builder()
+                                    .predicate(IncludedPredicate.builder()
+                                            .lhs("$.a")
+                                            .values(Sets.newHashSet(i % 5))
+                                            .build())
+                                    .predicate(IncludedPredicate.builder()
+                                            .lhs("$.b.c")
+                                            .values(Sets.newHashSet(i % 3))
+                                            .build())
+                                    .build())
+                            .build());
+        }
+        final List<RequestContext> contexts = Lists.newArrayList();
+        for (int q = 0; q < 40; q++) {
+            final Map<String, Object> testQuery = Maps.newHashMap();
+            testQuery.put("a", q % 6);
+            testQuery.put("b", Collections.singletonMap("c", q % 4));
+            // Not indexed, so events differing only here are searched once
+            testQuery.put("z", q);
+            contexts.add(RequestContext.builder()
+                    .node(mapper.valueToTree(testQuery))
+                    .build());
+        }
+        final List<Set<String>> expected = contexts.stream()
+                .map(context -> engine.search("test", context))
+                .toList();
+        final long searches = engine.getPathStats("test")
+                .getSearches();
+
+        assertThat(engine.searchBatch("test", contexts), is(expected));
+        // 6 values of a and 4 of b.c, 12 distinct projections
+        assertThat(engine.getPathStats("test")
+                .getSearches() - searches, is(12L));
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            assertThat(engine.searchBatch("test", contexts, executor), is(expected));
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(engine.searchBatch("test", Collections.emptyList()), is(empty()));
+    }
+
+    @Test
+    public void testShardedIndexAgreesWithSingleIndex() {
+        engine.createShardedIndex("sharded", 4);
+        final List<Criteria> criterias = Lists.newArrayList();
+        for (int i = 0; i < 120; i++) {
+            criterias.add(i % 2 == 0 ? DNFCriteria.builder()
+                    .id("C" + i)
+                    .conjunction(Conjunction.builder()
+                            .predicate(IncludedPredicate.builder()
+                                    .lhs("$.a")
+                                    .values(Sets.newHashSet(i % 4))
+                                    .weight((long) (i % 5))
+                                    .build())
+                            .predicate(ExcludedPredicate.builder()
+                                    .lhs("$.b")
+                                    .values(Sets.newHashSet(i % 3))
+                                    .build())
+                            .build())
+                    .build()
+                    : CNFCriteria.builder()
+                            .id("C" + i)
+                            .disjunction(Disjunction.builder()
+                                    .predicate(IncludedPredicate.builder()
+                                            .lhs("$.a")
+                                            .values(Sets.newHashSet(i % 5))
+                                            .weight((long) (i % 7))
+                                            .build())
+                                    .predicate(IncludedPredicate.builder()
+                                            .lhs("$.b")
+                                            .values(Sets.newHashSet(i % 3))
+                                            .weight((long) (i % 3))
+                                            .build())
+                                    .build())
+                            .build());
+        }
+        criterias.add(DNFCriteria.builder()
+                .id("T")
+                .build());
+        engine.add("test", criterias);
+        engine.add("sharded", criterias);
+        for (int i = 0; i < 120; i += 7) {
+            final Criteria updated = DNFCriteria.builder()
+                    .id("C" + i)
+                    .conjunction(Conjunction.builder()
+                            .predicate(IncludedPredicate.builder()
+                                    .lhs("$.b")
+                                    .values(Sets.newHashSet(i % 2))
+                                    .weight(3L)
+                                    .build())
+                            .build())
+                    .build();
+            engine.update("test", updated);
+            engine.update("sharded", updated);
+        }
+        for (int i = 1; i < 120; i += 11) {
+            engine.delete("test", criterias.get(i));
+            engine.delete("sharded", criterias.get(i));
+        }
+        Assert.assertThrows(MustangException.class, () -> engine.add("sharded", criterias.get(0)));
+        assertThat(engine.getIndexingFacde()
+                .getIndexGroup("sharded")
+                .getAllCriterias()
+                .keySet(),
+                is(engine.getIndexingFacde()
+                        .getIndexGroup("test")
+                        .getAllCriterias()
+                        .keySet()));
+
+        for (int q = 0; q < 30; q++) {
+            final Map<String, Object> testQuery = Maps.newHashMap();
+            testQuery.put("a", q % 5);
+            testQuery.put("b", q % 3);
+            final RequestContext context = RequestContext.builder()
+                    .node(mapper.valueToTree(testQuery))
+                    .build();
+            final Set<String> matches = engine.search("test", context);
+            assertThat(matches, hasItem("T"));
+            assertThat(engine.search("sharded", context), is(matches));
+            assertThat(engine.scan("sharded", context), is(engine.scan("test", context)));
+            assertThat(engine.searchWithScores("sharded", context, -1),
+                    is(engine.searchWithScores("test", context, -1)));
+            assertThat(Lists.newArrayList(engine.searchWithScores("sharded", context, 5)
+                    .values()),
+                    is(Lists.newArrayList(engine.searchWithScores("test", context, 5)
+                            .values())));
+        }
+        assertThat(engine.searchBatch("sharded", List.of(RequestContext.builder()
+                .node(mapper.valueToTree(Collections.singletonMap("a", 1)))
+                .build())),
+                is(List.of(engine.search("test", RequestContext.builder()
+                        .node(mapper.valueToTree(Collections.singletonMap("a", 1)))
+                        .build()))));
+    }
+
+    @Test
+    public void testShardedWriteDuringBuildIsRejected() throws Exception {
+        engine.createShardedIndex("sharded", 4);
+        final List<Criteria> criterias = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            criterias.add(DNFCriteria.builder()
+                    .id("C" + i)
+                    .conjunction(Conjunction.builder()
+                            .predicate(IncludedPredicate.builder()
+                                    .lhs("$.a")
+                                    .values(Sets.newHashSet(i % 6))
+                                    .build())
+                            .build())
+                    .build());
+        }
+        final ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            // Written until the index turns read only, which the build must make known rather than drop the write
+            final Future<MustangException> writes = writer.submit(() -> {
+                for (int i = 0;; i++) {
+                    try {
+                        engine.add("sharded", DNFCriteria.builder()
+                                .id("W" + i)
+                                .build());
+                    } catch (MustangException e) {
+                        return e;
+                    }
+                }
+            });
+            engine.buildIndex("sharded", criterias);
+            assertThat(writes.get(30, TimeUnit.SECONDS)
+                    .getErrorCode(), is(ErrorCode.INDEX_FROZEN));
+        } finally {
+            writer.shutdownNow();
+        }
+
+        final IndexGroup sharded = engine.getIndexingFacde()
+                .getIndexGroup("sharded");
+        final Set<String> criteriaIds = criterias.stream()
+                .map(Criteria::getId)
+                .collect(Collectors.toSet());
+        assertThat(sharded.getAllCriterias()
+                .keySet(), is(criteriaIds));
+        assertThat(sharded.getShards()
+                .stream()
+                .flatMap(shard -> shard.getAllCriterias()
+                        .keySet()
+                        .stream())
+                .collect(Collectors.toSet()), is(criteriaIds));
+    }
+
+    @Test
+    public void testSegmentedIndexAgreesWithSingleIndex() {
+        // Merges run on the writing thread
+        engine.createSegmentedIndex("segmented", 8, 2, Runnable::run);
+        final List<Criteria> criterias = Lists.newArrayList();
+        for (int i = 0; i < 120; i++) {
+            criterias.add(i % 2 == 0 ? DNFCriteria.builder()
+                    .id("C" + i)
+                    .conjunction(Conjunction.builder()
+                            .predicate(IncludedPredicate.builder()
+                                    .lhs("$.a")
+                                    .values(Sets.newHashSet(i % 4))
+                                    .weight((long) (i % 5))
+                                    .build())
+                            .predicate(ExcludedPredicate.builder()
+                                    .lhs("$.b")
+                                    .values(Sets.newHashSet(i % 3))
+                                    .build())
+                            .build())
+                    .build()
+                    : CNFCriteria.builder()
+                            .id("C" + i)
+                            .disjunction(Disjunction.builder()
+                                    .predicate(IncludedPredicate.builder()
+                                            .lhs("$.a")
+                                            .values(Sets.newHashSet(i % 5))
+                                            .weight((long) (i % 7))
+                                            .build())
+                                    .predicate(IncludedPredicate.builder()
+                                            .lhs("$.b")
+                                            .values(Sets.newHashSet(i % 3))
+                                            .weight((long) (i % 3))
+                                            .build())
+                                    .build())
+                            .build());
+        }
+        final Criteria tautology = DNFCriteria.builder()
+                .id("T")
+                .build();
+        criterias.add(tautology);
+        // Written one at a time, updates and deletes reaching into sealed segments as the index grows
+        for (int i = 0; i < criterias.size(); i++) {
+            engine.add("test", criterias.get(i));
+            engine.add("segmented", criterias.get(i));
+            if (i % 7 == 6) {
+                final Criteria updated = DNFCriteria.builder()
+                        .id("C" + (i - 6))
+                        .conjunction(Conjunction.builder()
+                                .predicate(IncludedPredicate.builder()
+                                        .lhs("$.b")
+                                        .values(Sets.newHashSet(i % 2))
+                                        .weight(3L)
+                                        .build())
+                                .build())
+                        .build();
+                engine.update("test", updated);
+                engine.update("segmented", updated);
+            }
+            if (i % 11 == 10) {
+                engine.delete("test", criterias.get(i - 9));
+                engine.delete("segmented", criterias.get(i - 9));
+            }
+        }
+        engine.delete("test", tautology);
+        engine.delete("segmented", tautology);
+        Assert.assertThrows(MustangException.class, () -> engine.add("segmented", criterias.get(0)));
+        Assert.assertThrows(MustangException.class, () -> engine.delete("segmented", criterias.get(1)));
+
+        final IndexGroup segmented = engine.getIndexingFacde()
+                .getIndexGroup("segmented");
+        assertThat(segmented.getAllCriterias()
+                .keySet(),
+                is(engine.getIndexingFacde()
+                        .getIndexGroup("test")
+                        .getAllCriterias()
+                        .keySet()));
+        // Merged as they fill up, and every criteria lives in the one segment owning it
+        Assert.assertTrue(segmented.getSegments()
+                .size() < 8);
+        final Set<String> segmentCriterias = Sets.newHashSet();
+        segmented.getSegments()
+                .forEach(segment -> segment.getAllCriterias()
+                        .keySet()
+                        .forEach(criteriaId -> {
+                            Assert.assertTrue(segmentCriterias.add(criteriaId));
+                            Assert.assertSame(segment, segmented.getSegmentOwners()
+                                    .get(criteriaId));
+                        }));
+        assertThat(segmentCriterias, is(segmented.getAllCriterias()
+                .keySet()));
+
+        final Runnable assertAgreement = () -> {
+            for (int q = 0; q < 30; q++) {
+                final Map<String, Object> testQuery = Maps.newHashMap();
+                testQuery.put("a", q % 5);
+                testQuery.put("b", q % 3);
+                final RequestContext context = RequestContext.builder()
+                        .node(mapper.valueToTree(testQuery))
+                        .build();
+                assertThat(engine.search("segmented", context), is(engine.search("test", context)));
+                assertThat(engine.searchWithScores("segmented", context, -1),
+                        is(engine.searchWithScores("test", context, -1)));
+                assertThat(Lists.newArrayList(engine.searchWithScores("segmented", context, 5)
+                        .values()),
+                        is(Lists.newArrayList(engine.searchWithScores("test", context, 5)
+                                .values())));
+                assertThat(engine.searchFirst("segmented", context, 3)
+                        .size(),
+                        is(Math.min(3,
+                                engine.search("test", context)
+                                        .size())));
+            }
+        };
+        assertAgreement.run();
+        engine.compact("segmented");
+        assertAgreement.run();
+        engine.compact("segmented", true);
+        assertAgreement.run();
+    }
+
+    @Test
+    public void testSegmentedIndexKeepsMergingOnceRenamed() throws Exception {
+        final ExecutorService merger = Executors.newSingleThreadExecutor();
+        try {
+            engine.createSegmentedIndex("staging", 4, 2, merger);
+            final List<Criteria> criterias = Lists.newArrayList();
+            for (int i = 0; i < 200; i++) {
+                criterias.add(DNFCriteria.builder()
+                        .id("C" + i)
+                        .conjunction(Conjunction.builder()
+                                .predicate(IncludedPredicate.builder()
+                                        .lhs("$.a")
+                                        .values(Sets.newHashSet(i % 6))
+                                        .build())
+                                .build())
+                        .build());
+            }
+            for (int i = 0; i < 100; i++) {
+                engine.add("test", criterias.get(i));
+                engine.add("staging", criterias.get(i));
+            }
+            // Renamed while merges of the segments may still be running, writes then going in under the new name
+            engine.replaceIndex("live", "staging");
+            for (int i = 100; i < 200; i++) {
+                engine.add("test", criterias.get(i));
+                engine.add("live", criterias.get(i));
+                if (i % 5 == 0) {
+                    engine.delete("test", criterias.get(i - 100));
+                    engine.delete("live", criterias.get(i - 100));
+                }
+            }
+            merger.submit(() -> {
+            })
+                    .get();
+
+            final IndexGroup live = engine.getIndexingFacde()
+                    .getIndexGroup("live");
+            final Set<String> segmentCriterias = Sets.newHashSet();
+            live.getSegments()
+                    .forEach(segment -> {
+                        Assert.assertTrue(segment.getName()
+                                .startsWith("live@"));
+                        segment.getAllCriterias()
+                                .keySet()
+                                .forEach(criteriaId -> {
+                                    Assert.assertTrue(segmentCriterias.add(criteriaId));
+                                    Assert.assertSame(segment, live.getSegmentOwners()
+                                            .get(criteriaId));
+                                });
+                    });
+            assertThat(segmentCriterias, is(engine.getIndexingFacde()
+                    .getIndexGroup("test")
+                    .getAllCriterias()
+                    .keySet()));
+            for (int q = 0; q < 6; q++) {
+                final Map<String, Object> testQuery = Maps.newHashMap();
+                testQuery.put("a", q);
+                final RequestContext context = RequestContext.builder()
+                        .node(mapper.valueToTree(testQuery))
+                        .build();
+                assertThat(engine.search("live", context), is(engine.search("test", context)));
+            }
+        } finally {
+            merger.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSearchFirstReturnsEnoughOfTheMatches() {
+        engine.createShardedIndex("sharded", 3);
+        final List<Criteria> criterias = Lists.newArrayList();
+        for (int i = 0; i < 90; i++) {
+            criterias.add(i % 2 == 0 ? DNFCriteria.builder()
+                    .id("C" + i)
+                    .conjunction(Conjunction.builder()
+                            .predicate(IncludedPredicate.builder()
+                                    .lhs("$.a")
+                                    .values(Sets.newHashSet(i % 6))
+                                    .build())
+                            .predicate(ExcludedPredicate.builder()
+                                    .lhs("$.b")
+                                    .values(Sets.newHashSet(i % 4))
+                                    .build())
+                            .build())
+                    .build()
+                    : CNFCriteria.builder()
+                            .id("C" + i)
+                            .disjunction(Disjunction.builder()
+                                    .predicate(IncludedPredicate.builder()
+                                            .lhs("$.a")
+                                            .values(Sets.newHashSet(i % 9))
+                                            .build())
+                                    .build())
+                            .disjunction(Disjunction.builder()
+                                    .predicate(IncludedPredicate.builder()
+                                            .lhs("$.b")
+                                            .values(Sets.newHashSet(i % 4))
+                                            .build())
+                                    .build())
+                            .build());
+        }
+        engine.add("test", criterias);
+        engine.add("sharded", criterias);
+        engine.add("tautological", criterias);
+        engine.add("tautological", DNFCriteria.builder()
+                .id("T")
+                .build());
+
+        for (int q = 0; q < 40; q++) {
+            final Map<String, Object> testQuery = Maps.newHashMap();
+            testQuery.put("a", q % 10);
+            testQuery.put("b", q % 5);
+            final RequestContext context = RequestContext.builder()
+                    .node(mapper.valueToTree(testQuery))
+                    .build();
+            final Set<String> matches = engine.search("test", context);
+            assertThat(engine.exists("test", context), is(!matches.isEmpty()));
+            assertThat(engine.exists("sharded", context), is(!matches.isEmpty()));
+            assertThat(engine.exists("tautological", context), is(true));
+            assertThat(engine.searchFirst("test", context, 0), is(empty()));
+            for (int k : new int[] { 1, 3, 100 }) {
+                final Set<String> firstMatches = engine.searchFirst("test", context, k);
+                assertThat(firstMatches, hasSize(Math.min(k, matches.size())));
+                assertThat(matches.containsAll(firstMatches), is(true));
+                final Set<String> firstShardedMatches = engine.searchFirst("sharded", context, k);
+                assertThat(firstShardedMatches, hasSize(Math.min(k, matches.size())));
+                assertThat(matches.containsAll(firstShardedMatches), is(true));
+                // Tautologies are taken first
+                assertThat(engine.searchFirst("tautological", context, k), hasItem("T"));
+            }
+        }
+    }
+
     @Test
     public void testDNFSingleInclusionPredicateAndQueryWithInclusionIndexData() {
         Criteria c1 = DNFCriteria.builder()
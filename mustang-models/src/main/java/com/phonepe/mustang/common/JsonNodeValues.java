@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.common;
+
+import java.math.BigDecimal;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.Iterators;
+
+import lombok.experimental.UtilityClass;
+
+/*
+ * Read only Map and List views over a Jackson tree, handed to JsonPath in place of a re-parsed copy of the event.
+ * Values are converted as they are read, to the same types the event's JSON text parses into : the narrowest of
+ * Integer, Long and BigInteger for integral numbers, Double (BigDecimal past 18 characters) for the others, and
+ * text for whatever Jackson writes out quoted.
+ */
+@UtilityClass
+public class JsonNodeValues {
+    private static final int MAX_DOUBLE_TEXT_LENGTH = 18;
+
+    public static Object of(final JsonNode node) {
+        if (Objects.isNull(node) || node.isNull() || node.isMissingNode()) {
+            return null;
+        }
+        if (node.isObject()) {
+            return new ObjectNodeMap(node);
+        }
+        if (node.isArray()) {
+            return new ArrayNodeList(node);
+        }
+        if (node.isBoolean()) {
+            return node.booleanValue();
+        }
+        if (node.isIntegralNumber()) {
+            return getIntegralValue(node);
+        }
+        if (node.isNumber()) {
+            return getDecimalValue(node);
+        }
+        return node.asText();
+    }
+
+    private static Object getIntegralValue(final JsonNode node) {
+        if (node.canConvertToInt()) {
+            return node.intValue();
+        }
+        if (node.canConvertToLong()) {
+            return node.longValue();
+        }
+        return node.bigIntegerValue();
+    }
+
+    private static Object getDecimalValue(final JsonNode node) {
+        if ((node.isDouble() || node.isFloat()) && !Double.isFinite(node.doubleValue())) {
+            // Written out as quoted text
+            return node.asText();
+        }
+        final String text = node.isBigDecimal() ? node.decimalValue()
+                .toString() : node.asText();
+        return text.length() > MAX_DOUBLE_TEXT_LENGTH ? new BigDecimal(text) : Double.valueOf(text);
+    }
+
+    private static final class ObjectNodeMap extends AbstractMap<String, Object> {
+        private final JsonNode node;
+
+        private ObjectNodeMap(final JsonNode node) {
+            this.node = node;
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return key instanceof String field && node.has(field);
+        }
+
+        @Override
+        public Object get(final Object key) {
+            return key instanceof String field ? of(node.get(field)) : null;
+        }
+
+        @Override
+        public int size() {
+            return node.size();
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return Iterators.transform(node.fields(), field -> new SimpleImmutableEntry<>(field.getKey(),
+                            of(field.getValue())));
+                }
+
+                @Override
+                public int size() {
+                    return node.size();
+                }
+            };
+        }
+    }
+
+    private static final class ArrayNodeList extends AbstractList<Object> {
+        private final JsonNode node;
+
+        private ArrayNodeList(final JsonNode node) {
+            this.node = node;
+        }
+
+        @Override
+        public Object get(final int index) {
+            if (index < 0 || index >= node.size()) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return of(node.get(index));
+        }
+
+        @Override
+        public int size() {
+            return node.size();
+        }
+    }
+
+}
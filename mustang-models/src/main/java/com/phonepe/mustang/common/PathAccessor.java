@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+
+import lombok.Getter;
+
+/*
+ * An lhs path compiled once at index time. Plain field chains, $.a.b.c or $['a']['b'], are read by walking the
+ * JsonNode tree field by field; anything else (filters, wildcards, deep scans, functions) goes through JsonPath.
+ */
+public class PathAccessor {
+    private static final Pattern FIELD_SEGMENT = Pattern.compile("\\G(?:\\.([A-Za-z0-9_-]+)|\\['([^']*)'\\])");
+
+    @Getter
+    private final String path;
+    @JsonIgnore
+    private final JsonPath jsonPath;
+    // Fields to walk from the root, null when the path needs JsonPath.
+    @JsonIgnore
+    private final String[] fields;
+
+    private PathAccessor(final String path, final JsonPath jsonPath, final String[] fields) {
+        this.path = path;
+        this.jsonPath = jsonPath;
+        this.fields = fields;
+    }
+
+    public static PathAccessor compile(final String path) {
+        return new PathAccessor(path, JsonPath.compile(path), getFields(path));
+    }
+
+    @JsonIgnore
+    public boolean isSimple() {
+        return Objects.nonNull(fields);
+    }
+
+    public Object read(final JsonNode node) {
+        return isSimple() ? walk(node) : Utils.getNodeValue(Utils.parse(node), jsonPath, null);
+    }
+
+    // The parsed context is only read for paths that need JsonPath.
+    public Object read(final JsonNode node, final DocumentContext parsedContext) {
+        return isSimple() ? walk(node) : Utils.getNodeValue(parsedContext, jsonPath, null);
+    }
+
+    private Object walk(final JsonNode root) {
+        JsonNode node = root;
+        for (String field : fields) {
+            node = node.get(field);
+            if (Objects.isNull(node)) {
+                return null;
+            }
+        }
+        return getValue(node);
+    }
+
+    // Same as Utils.getNodeValue : an empty list reads as no value.
+    static Object getValue(final JsonNode node) {
+        final Object value = JsonNodeValues.of(node);
+        return value instanceof List<?> list && list.isEmpty() ? null : value;
+    }
+
+    String[] getFields() {
+        return fields;
+    }
+
+    private static String[] getFields(final String path) {
+        if (!path.startsWith("$") || path.length() == 1) {
+            return null;
+        }
+        final Matcher matcher = FIELD_SEGMENT.matcher(path);
+        matcher.region(1, path.length());
+        final List<String> fields = new ArrayList<>();
+        int end = 1;
+        while (matcher.find()) {
+            fields.add(Objects.nonNull(matcher.group(1)) ? matcher.group(1) : matcher.group(2));
+            end = matcher.end();
+        }
+        return end == path.length() ? fields.toArray(new String[0]) : null;
+    }
+
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/*
+ * Trie over the fields of every simple indexed path. One depth first walk of an event yields the values of all of
+ * them, navigating shared prefixes once and never descending into fields no path goes through. Built whole and
+ * never modified, so it is replaced rather than updated as paths are added.
+ */
+public class PathTrie {
+    public static final PathTrie EMPTY = new PathTrie(new Node(), Collections.emptySet(), 0);
+    private final Node root;
+    private final Set<String> paths;
+    // Paths the trie was built from, simple or not, for its owner to tell when it falls behind.
+    private final int sourceCount;
+
+    private PathTrie(final Node root, final Set<String> paths, final int sourceCount) {
+        this.root = root;
+        this.paths = paths;
+        this.sourceCount = sourceCount;
+    }
+
+    public static PathTrie of(final Collection<PathAccessor> accessors) {
+        final Node root = new Node();
+        final Set<String> paths = Sets.newHashSet();
+        int sourceCount = 0;
+        for (PathAccessor accessor : accessors) {
+            sourceCount++;
+            if (!accessor.isSimple()) {
+                continue;
+            }
+            Node node = root;
+            for (String field : accessor.getFields()) {
+                node = node.children.computeIfAbsent(field, x -> new Node());
+            }
+            node.paths.add(accessor.getPath());
+            paths.add(accessor.getPath());
+        }
+        return new PathTrie(root, paths, sourceCount);
+    }
+
+    public boolean contains(final String path) {
+        return paths.contains(path);
+    }
+
+    public int size() {
+        return paths.size();
+    }
+
+    public int getSourceCount() {
+        return sourceCount;
+    }
+
+    // Hands out the value of every path of the trie present in the event, missing ones are skipped.
+    public void collect(final JsonNode event, final BiConsumer<String, Object> consumer) {
+        collect(root, event, consumer);
+    }
+
+    private static void collect(final Node trieNode, final JsonNode node, final BiConsumer<String, Object> consumer) {
+        if (!trieNode.paths.isEmpty()) {
+            final Object value = PathAccessor.getValue(node);
+            trieNode.paths.forEach(path -> consumer.accept(path, value));
+        }
+        if (trieNode.children.isEmpty() || !node.isObject()) {
+            return;
+        }
+        // Look up whichever side has fewer fields.
+        if (trieNode.children.size() <= node.size()) {
+            for (Map.Entry<String, Node> child : trieNode.children.entrySet()) {
+                final JsonNode childNode = node.get(child.getKey());
+                if (Objects.nonNull(childNode)) {
+                    collect(child.getValue(), childNode, consumer);
+                }
+            }
+            return;
+        }
+        final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while (fields.hasNext()) {
+            final Map.Entry<String, JsonNode> field = fields.next();
+            final Node child = trieNode.children.get(field.getKey());
+            if (Objects.nonNull(child)) {
+                collect(child, field.getValue(), consumer);
+            }
+        }
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = Maps.newHashMap();
+        private final List<String> paths = new ArrayList<>();
+    }
+
+}
@@ -24,6 +24,8 @@ import java.util.Set;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.jayway.jsonpath.Configuration;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
@@ -45,6 +47,13 @@ public class Utils {
     public static final Configuration JSONPATH_CONFIGURATION = Configuration.defaultConfiguration()
             .addOptions(Option.SUPPRESS_EXCEPTIONS);
 
+    // Paths read outside of an index group, e.g. by criterias evaluated on their own. Bounded, as those paths come
+    // from whatever criterias get evaluated over the lifetime of the process.
+    private static final int MAX_COMPILED_PATHS = 10_000;
+    private static final Cache<String, PathAccessor> COMPILED_PATHS = CacheBuilder.newBuilder()
+            .maximumSize(MAX_COMPILED_PATHS)
+            .build();
+
     public static boolean checkExistence(Object value) {
         return Objects.nonNull(value);
     }
@@ -110,7 +119,14 @@ public class Utils {
     }
 
     public static Object getNodeValue(final JsonNode node, final String path) {
-        return getNodeValue(JsonPath.parse(node.toString(), Utils.JSONPATH_CONFIGURATION), JsonPath.compile(path), null);
+        return COMPILED_PATHS.asMap()
+                .computeIfAbsent(path, PathAccessor::compile)
+                .read(node);
+    }
+
+    // Reads the event in place rather than through its JSON text.
+    public static DocumentContext parse(final JsonNode node) {
+        return JsonPath.parse(JsonNodeValues.of(node), JSONPATH_CONFIGURATION);
     }
 
     public static Object getNodeValue(final DocumentContext documentContext,
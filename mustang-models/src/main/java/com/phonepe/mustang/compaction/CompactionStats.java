@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.compaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CompactionStats {
+    // Internal ids of retired versions purged, along with their posting entries.
+    private long purgedIds;
+    private long removedEntries;
+    // Keys and k levels left without a single entry.
+    private long removedKeys;
+    private long removedLevels;
+    private long remainingEntries;
+    private long timeTakenMs;
+
+    public CompactionStats plus(final CompactionStats other) {
+        return CompactionStats.builder()
+                .purgedIds(purgedIds + other.purgedIds)
+                .removedEntries(removedEntries + other.removedEntries)
+                .removedKeys(removedKeys + other.removedKeys)
+                .removedLevels(removedLevels + other.removedLevels)
+                .remainingEntries(remainingEntries + other.remainingEntries)
+                .timeTakenMs(timeTakenMs + other.timeTakenMs)
+                .build();
+    }
+}
@@ -29,9 +29,12 @@ import com.phonepe.mustang.detail.Detail;
 import com.phonepe.mustang.detail.DetailVisitor;
 
 import io.dropwizard.validation.ValidationMethod;
+import lombok.AccessLevel;
 import lombok.Builder;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.ToString;
 
 @Data
@@ -40,6 +43,13 @@ import lombok.ToString;
 public class RegexDetail extends Detail {
     @NotBlank
     private String regex;
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    // Compiled on first use, criterias being shared across searching and scanning threads.
+    private transient volatile Pattern pattern;
 
     @Builder
     @JsonCreator
@@ -48,11 +58,21 @@ public class RegexDetail extends Detail {
         this.regex = regex;
     }
 
+    public void setRegex(String regex) {
+        this.regex = regex;
+        this.pattern = null;
+    }
+
     @Override
     public boolean validate(Object lhsValue) {
         if (Objects.nonNull(lhsValue) && String.class.isAssignableFrom(lhsValue.getClass())) {
-            return lhsValue.toString()
-                    .matches(regex);
+            Pattern compiled = pattern;
+            if (Objects.isNull(compiled)) {
+                compiled = Pattern.compile(regex);
+                pattern = compiled;
+            }
+            return compiled.matcher(lhsValue.toString())
+                    .matches();
         }
         return false;
     }
@@ -23,5 +23,6 @@ public enum ErrorCode {
     CORRUPTED_JSON_ERROR,
     INDEX_EXPORT_ERROR,
     INDEX_IMPORT_ERROR,
-    INDEX_GROUP_EXISTS
+    INDEX_GROUP_EXISTS,
+    INDEX_FROZEN
 }
\ No newline at end of file
@@ -16,13 +16,21 @@
  */
 package com.phonepe.mustang.index;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.validation.constraints.NotBlank;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.collect.Maps;
 import com.jayway.jsonpath.JsonPath;
+import com.phonepe.mustang.common.PathAccessor;
+import com.phonepe.mustang.common.PathTrie;
 import com.phonepe.mustang.criteria.Criteria;
 import com.phonepe.mustang.index.core.ConjunctionPostingEntry;
 import com.phonepe.mustang.index.core.DisjunctionPostingEntry;
@@ -31,11 +39,13 @@ import com.phonepe.mustang.index.core.impl.CNFInvertedIndex;
 import com.phonepe.mustang.index.core.impl.DNFInvertedIndex;
 import com.phonepe.mustang.ratify.RatificationResult;
 
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 
 @Data
 @Builder
@@ -53,8 +63,99 @@ public class IndexGroup {
             .build();
     private final Map<String, Criteria> allCriterias = Maps.newLinkedHashMap();
     private final Map<String, Criteria> tautologicalCriterias = Maps.newConcurrentMap();
+    private final Map<String, Double> scoreUpperBounds = Maps.newConcurrentMap();
     private final Map<Key, AtomicInteger> dnfKeyFrequency = Maps.newConcurrentMap();
     private final Map<Key, AtomicInteger> cnfKeyFrequency = Maps.newConcurrentMap();
     private final Map<String, JsonPath> allPaths = Maps.newConcurrentMap();
+    // Compiled reader of each path of allPaths, kept out of snapshots, which keep the JsonPath form.
+    @JsonIgnore
+    private final Map<String, PathAccessor> pathAccessors = Maps.newConcurrentMap();
+    // Trie over the simple paths of pathAccessors, replaced whole as paths get added so searches can read it lock free.
+    @JsonIgnore
+    @Builder.Default
+    private volatile PathTrie pathTrie = PathTrie.EMPTY;
+    // Searches served and the paths they read off their events, see PathStats.
+    @JsonIgnore
+    private final LongAdder searchCount = new LongAdder();
+    @JsonIgnore
+    private final LongAdder resolvedPathCount = new LongAdder();
+    // Postings the matchers' cursors landed on across those searches.
+    @JsonIgnore
+    private final LongAdder visitedPostingCount = new LongAdder();
     private RatificationResult ratificationResult;
+    // Set on a sharded group only, its criterias being hash partitioned by id across these. The group itself then
+    // keeps every criteria and path while its own inverted indexes stay empty. Replaced whole when a shard is rebuilt.
+    @Builder.Default
+    private volatile List<IndexGroup> shards = Collections.emptyList();
+    // Shards are indexed and searched on it, null keeps them sequential.
+    @JsonIgnore
+    private Executor shardExecutor;
+    // Set on a segmented group only, sealed segments oldest first and the mutable delta taking every write last. The
+    // group itself keeps every criteria and path, as a sharded one does. Replaced whole as segments are sealed and
+    // merged.
+    @Builder.Default
+    private volatile List<IndexGroup> segments = Collections.emptyList();
+    // Segment holding the live version of each criteria, older versions being retired in the segments they were in.
+    @JsonIgnore
+    private final Map<String, IndexGroup> segmentOwners = Maps.newConcurrentMap();
+    // Criterias a delta takes before it is sealed, and sealed segments of a tier merged into one at a time.
+    private int deltaLimit;
+    private int mergeFactor;
+    // Merges run on it, null merging on the writing thread.
+    @JsonIgnore
+    private Executor mergeExecutor;
+    @JsonIgnore
+    private final AtomicBoolean merging = new AtomicBoolean();
+    // Set once the group is published read only, as a bulk built one is, writes to it being rejected from then on.
+    @Setter(AccessLevel.NONE)
+    private volatile boolean frozen;
+
+    // Paths are added by writes and dropped by compaction, each refreshing the trie, so a trie built from another
+    // number of paths than there are now is behind.
+    public void refreshPathTrie() {
+        if (pathTrie.getSourceCount() != pathAccessors.size()) {
+            pathTrie = PathTrie.of(pathAccessors.values());
+        }
+    }
+
+    /*
+     * Its shards are frozen along with it, a write waiting on a shard's lock finding it so once it gets the lock. The
+     * tables are released, leaving the key dictionaries as the only form of its postings.
+     */
+    public void freeze() {
+        frozen = true;
+        dnfInvertedIndex.releaseTable();
+        cnfInvertedIndex.releaseTable();
+        shards.forEach(IndexGroup::freeze);
+    }
+
+    @JsonIgnore
+    public boolean isSharded() {
+        return !shards.isEmpty();
+    }
+
+    public IndexGroup getShard(final String criteriaId) {
+        return shards.get(getShardIndex(criteriaId));
+    }
+
+    public int getShardIndex(final String criteriaId) {
+        return Math.floorMod(criteriaId.hashCode(), shards.size());
+    }
+
+    @JsonIgnore
+    public boolean isSegmented() {
+        return !segments.isEmpty();
+    }
+
+    @JsonIgnore
+    public IndexGroup getDelta() {
+        final List<IndexGroup> current = segments;
+        return current.get(current.size() - 1);
+    }
+
+    // Groups a sharded or segmented group is made of, each searched on its own and their matches put together.
+    @JsonIgnore
+    public List<IndexGroup> getParts() {
+        return isSharded() ? shards : segments;
+    }
 }
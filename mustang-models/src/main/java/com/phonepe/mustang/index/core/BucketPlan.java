@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.index.core;
+
+import java.util.Map;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/*
+ * Order in which a search visits the buckets of a level. Only keys whose posting lists hold included entries can put
+ * a criteria in the running, so buckets holding such candidate keys come first and buckets whose keys only exclude
+ * come last.
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class BucketPlan {
+    public static final BucketPlan EMPTY = new BucketPlan(new KeyGroup[0], new KeyBucket[0], new int[1], 0);
+    private final KeyGroup[] groups;
+    private final KeyBucket[] buckets;
+    // Candidate keys in the buckets at and after each position
+    private final int[] remainingCandidateKeys;
+    // Buckets holding candidate keys, which lead the plan
+    private final int candidateBuckets;
+
+    public static BucketPlan of(final Map<KeyGroup, KeyBucket> buckets, final Map<KeyGroup, Integer> candidateKeys) {
+        final int size = buckets.size();
+        final KeyGroup[] groups = new KeyGroup[size];
+        final KeyBucket[] orderedBuckets = new KeyBucket[size];
+        int first = 0;
+        int last = size;
+        for (Map.Entry<KeyGroup, KeyBucket> entry : buckets.entrySet()) {
+            final int position = candidateKeys.getOrDefault(entry.getKey(), 0) > 0 ? first++ : --last;
+            groups[position] = entry.getKey();
+            orderedBuckets[position] = entry.getValue();
+        }
+        final int[] remainingCandidateKeys = new int[size + 1];
+        for (int i = size - 1; i >= 0; i--) {
+            remainingCandidateKeys[i] = remainingCandidateKeys[i + 1] + candidateKeys.getOrDefault(groups[i], 0);
+        }
+        return new BucketPlan(groups, orderedBuckets, remainingCandidateKeys, first);
+    }
+
+    public int size() {
+        return groups.length;
+    }
+
+}
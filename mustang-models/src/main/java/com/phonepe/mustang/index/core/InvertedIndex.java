@@ -16,16 +16,23 @@
  */
 package com.phonepe.mustang.index.core;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Map;
+import java.util.Objects;
 import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import javax.validation.constraints.NotNull;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.phonepe.mustang.criteria.CriteriaForm;
 
 import lombok.AllArgsConstructor;
@@ -40,6 +47,10 @@ public abstract class InvertedIndex<T> {
     private final Map<Integer, Map<Key, TreeMap<Integer, T>>> table = Maps.newConcurrentMap();
     private final Map<String, PriorityQueue<Integer>> idCache = Maps.newConcurrentMap();
     private final Map<Integer, TreeSet<Integer>> linkages = Maps.newConcurrentMap();
+    // Internal ids of retired versions, whose entries stay in the table until compaction purges them.
+    private final Set<Integer> staleIds = Sets.newConcurrentHashSet();
+    @JsonIgnore
+    private final Map<Integer, KeyDictionary> keyDictionaries = Maps.newConcurrentMap();
 
     public Integer getInternalIdFromCache(final String externalId) {
         return idCache.computeIfAbsent(externalId, x -> {
@@ -57,4 +68,62 @@ public abstract class InvertedIndex<T> {
                 .peek();
     }
 
+    // The internal id an external id is live under, without handing out one to an id that has none.
+    public Integer getLiveInternalId(final String externalId) {
+        final PriorityQueue<Integer> internalIds = idCache.get(externalId);
+        return Objects.isNull(internalIds) ? null : internalIds.peek();
+    }
+
+    // The external id no longer matches, every internal id it had is left for compaction to purge.
+    public void retire(final String externalId) {
+        final PriorityQueue<Integer> internalIds = idCache.remove(externalId);
+        if (Objects.nonNull(internalIds)) {
+            staleIds.addAll(internalIds);
+        }
+    }
+
+    // Read off the key dictionaries, which hold a level for every level of the table, and the table may be released.
+    @JsonIgnore
+    public int getMaxK() {
+        int maxK = 0;
+        for (Integer k : keyDictionaries.keySet()) {
+            maxK = Math.max(maxK, k);
+        }
+        return maxK;
+    }
+
+    /*
+     * Drops the write side once the index is frozen. Searches read only the key dictionaries, which hold the same
+     * postings as primitive lists, so these become the only form the postings are kept in.
+     */
+    public void releaseTable() {
+        table.clear();
+        linkages.clear();
+    }
+
+    public KeyDictionary getKeyDictionary(final int k) {
+        return keyDictionaries.getOrDefault(k, KeyDictionary.EMPTY);
+    }
+
+    public void refreshKeyDictionary(final int k, final Function<TreeMap<Integer, T>, PostingList> converter) {
+        final Map<Key, PostingList> postingLists = Maps.newHashMap();
+        table.getOrDefault(k, Collections.emptyMap())
+                .forEach((key, entries) -> postingLists.put(key, converter.apply(entries)));
+        keyDictionaries.put(k, KeyDictionary.of(postingLists, linkages.getOrDefault(k, Sets.newTreeSet())));
+    }
+
+    /*
+     * Converts only the entries added to the given keys and splices them into the level's dictionary, see
+     * KeyDictionary.add.
+     */
+    public void updateKeyDictionary(final int k,
+            final Map<Key, TreeMap<Integer, T>> addedEntries,
+            final Collection<Integer> addedIds,
+            final Function<TreeMap<Integer, T>, PostingList> converter) {
+        final Map<Key, PostingList> addedLists = Maps.newHashMap();
+        addedEntries.forEach((key, entries) -> addedLists.put(key, converter.apply(entries)));
+        keyDictionaries.computeIfAbsent(k, x -> KeyDictionary.of(Collections.emptyMap(), Collections.emptySet()))
+                .add(addedLists, addedIds);
+    }
+
 }
@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.index.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import com.google.common.collect.Maps;
+import com.phonepe.mustang.detail.Caveat;
+
+import lombok.Data;
+
+@Data
+public class KeyBucket {
+    // Every key placed, for the bucket to be rebuilt when its keys change.
+    private final List<Key> keys = new ArrayList<>();
+    private final Map<Object, List<Key>> equalityKeys = Maps.newHashMap();
+    private final List<Key> existenceKeys = new ArrayList<>();
+    private final List<Key> nonExistenceKeys = new ArrayList<>();
+    private final List<Key> unconditionalKeys = new ArrayList<>();
+    // Keys whose caveat can't be answered by a hash probe and hence are enforced one by one.
+    private final List<Key> evaluableKeys = new ArrayList<>();
+    private final List<Key> rangeKeys = new ArrayList<>();
+    private final List<Key> regexKeys = new ArrayList<>();
+    private final List<Key> versionKeys = new ArrayList<>();
+    private final List<Key> setKeys = new ArrayList<>();
+    private RangeKeyTree rangeKeyTree = RangeKeyTree.EMPTY;
+    private RegexKeyIndex regexKeyIndex = RegexKeyIndex.EMPTY;
+    private VersionKeyIndex versionKeyIndex = VersionKeyIndex.EMPTY;
+    private SetKeyIndex setKeyIndex = SetKeyIndex.EMPTY;
+
+    public void add(final Key key) {
+        keys.add(key);
+        key.getCaveat()
+                .visit(new KeyPlacer(key));
+    }
+
+    public void compile() {
+        rangeKeyTree = RangeKeyTree.of(rangeKeys);
+        regexKeyIndex = RegexKeyIndex.of(regexKeys);
+        evaluableKeys.addAll(regexKeyIndex.getInvalidKeys());
+        versionKeyIndex = VersionKeyIndex.of(versionKeys);
+        setKeyIndex = SetKeyIndex.of(setKeys);
+    }
+
+    // Whether every key is satisfied whatever the value, e.g. the zero size entry key, so its path needn't be read.
+    public boolean isUnconditional() {
+        return unconditionalKeys.size() == keys.size();
+    }
+
+    // Every key the sub-indexes find satisfied by the value, evaluable keys are left to the caller.
+    public void forEachProbedKey(final Object lhsValue, final Consumer<Key> consumer) {
+        getEqualityKeys(lhsValue).forEach(consumer);
+        (Objects.nonNull(lhsValue) ? existenceKeys : nonExistenceKeys).forEach(consumer);
+        unconditionalKeys.forEach(consumer);
+        rangeKeyTree.forEachMatchingKey(lhsValue, consumer);
+        regexKeyIndex.forEachMatchingKey(lhsValue, consumer);
+        versionKeyIndex.forEachMatchingKey(lhsValue, consumer);
+        setKeyIndex.forEachMatchingKey(lhsValue, consumer);
+    }
+
+    private List<Key> getEqualityKeys(final Object lhsValue) {
+        // Mirrors Utils.compare : a list is compared on its first element.
+        final Object comparedValue = lhsValue instanceof List<?> list
+                ? (list.isEmpty() ? null : list.get(0))
+                : lhsValue;
+        final Object hashableValue = getHashableValue(comparedValue);
+        if (Objects.isNull(hashableValue)) {
+            return Collections.emptyList();
+        }
+        return equalityKeys.getOrDefault(hashableValue, Collections.emptyList());
+    }
+
+    // Numbers are compared on their double value, everything else on equals.
+    private static Object getHashableValue(final Object value) {
+        if (value instanceof Number number) {
+            final double numericalValue = number.doubleValue();
+            if (Double.isNaN(numericalValue)) {
+                return null;
+            }
+            // -0.0 and 0.0 are equal numerically but not as boxed doubles.
+            return numericalValue == 0.0D ? 0.0D : numericalValue;
+        }
+        return value;
+    }
+
+    private final class KeyPlacer implements Caveat.Visitor<Boolean> {
+        private final Key key;
+
+        private KeyPlacer(final Key key) {
+            this.key = key;
+        }
+
+        @Override
+        public Boolean visitNone() {
+            return unconditionalKeys.add(key);
+        }
+
+        @Override
+        public Boolean visitExistence() {
+            return existenceKeys.add(key);
+        }
+
+        @Override
+        public Boolean visitNonExistence() {
+            return nonExistenceKeys.add(key);
+        }
+
+        @Override
+        public Boolean visitEquality() {
+            final Object hashableValue = getHashableValue(key.getValue());
+            if (Objects.isNull(hashableValue)) {
+                // NaN never equals anything, nothing to index
+                return false;
+            }
+            return equalityKeys.computeIfAbsent(hashableValue, x -> new ArrayList<>())
+                    .add(key);
+        }
+
+        @Override
+        public Boolean visitSubSet() {
+            return placeSetKey();
+        }
+
+        @Override
+        public Boolean visitEqualSet() {
+            return placeSetKey();
+        }
+
+        @Override
+        public Boolean visitSuperSet() {
+            return placeSetKey();
+        }
+
+        private Boolean placeSetKey() {
+            return key.getValue() instanceof Collection ? setKeys.add(key) : evaluableKeys.add(key);
+        }
+
+        @Override
+        public Boolean visitRegexMatch() {
+            return regexKeys.add(key);
+        }
+
+        @Override
+        public Boolean visitRange() {
+            return rangeKeys.add(key);
+        }
+
+        @Override
+        public Boolean visitVersioning() {
+            return versionKeys.add(key);
+        }
+    }
+
+}
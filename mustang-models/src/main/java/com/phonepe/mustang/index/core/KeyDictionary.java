@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.index.core;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/*
+ * Read side of a level of the table. Built whole on a refresh, then kept up to date as criterias are added : the
+ * posting list of a key is replaced by a copy with the new entries spliced in, and the bucket of a group only when a
+ * key new to the level joins it. Lists and buckets of every other key are left as they are, and searches running
+ * meanwhile only ever see a complete list or bucket.
+ */
+@Getter
+public class KeyDictionary {
+    public static final KeyDictionary EMPTY = new KeyDictionary(Collections.emptyMap(), Collections.emptyMap(),
+            Collections.emptyMap(), new int[0]);
+    private final Map<KeyGroup, KeyBucket> buckets;
+    private final Map<Key, PostingList> postingLists;
+    // Keys of each group whose posting lists hold included entries, see BucketPlan
+    private final Map<KeyGroup, Integer> candidateKeys;
+    private volatile BucketPlan bucketPlan;
+    // Internal ids of the level in ascending order
+    @Getter(AccessLevel.NONE)
+    private volatile Linkages linkages;
+
+    private KeyDictionary(final Map<KeyGroup, KeyBucket> buckets,
+            final Map<Key, PostingList> postingLists,
+            final Map<KeyGroup, Integer> candidateKeys,
+            final int[] linkages) {
+        this.buckets = buckets;
+        this.postingLists = postingLists;
+        this.candidateKeys = candidateKeys;
+        this.bucketPlan = BucketPlan.of(buckets, candidateKeys);
+        this.linkages = new Linkages(linkages, linkages.length);
+    }
+
+    public static KeyDictionary of(final Map<Key, PostingList> postingLists, final Collection<Integer> linkages) {
+        final Map<KeyGroup, KeyBucket> buckets = Maps.newConcurrentMap();
+        postingLists.keySet()
+                .forEach(key -> buckets.computeIfAbsent(KeyGroup.of(key), x -> new KeyBucket())
+                        .add(key));
+        buckets.values()
+                .forEach(KeyBucket::compile);
+        final Map<KeyGroup, Integer> candidateKeys = Maps.newConcurrentMap();
+        postingLists.forEach((key, postingList) -> {
+            if (postingList.hasIncluded()) {
+                candidateKeys.merge(KeyGroup.of(key), 1, Integer::sum);
+            }
+        });
+        final Map<Key, PostingList> levelLists = Maps.newConcurrentMap();
+        levelLists.putAll(postingLists);
+        return new KeyDictionary(buckets, levelLists, candidateKeys, linkages.stream()
+                .mapToInt(Integer::intValue)
+                .sorted()
+                .toArray());
+    }
+
+    /*
+     * Splices the given entries into the posting lists of their keys and adds the given ids to the linkages. Costs the
+     * length of the touched lists, plus the size of a bucket that gains a key, whatever the size of the level.
+     */
+    public void add(final Map<Key, PostingList> addedLists, final Collection<Integer> addedIds) {
+        final Map<KeyGroup, Set<Key>> addedKeys = Maps.newHashMap();
+        boolean candidacyChanged = false;
+        for (Map.Entry<Key, PostingList> entry : addedLists.entrySet()) {
+            final Key key = entry.getKey();
+            final PostingList current = postingLists.get(key);
+            final PostingList updated = Objects.isNull(current)
+                    ? entry.getValue()
+                    : current.splice(entry.getValue());
+            if (!isCandidate(current) && isCandidate(updated)) {
+                candidateKeys.merge(KeyGroup.of(key), 1, Integer::sum);
+                candidacyChanged = true;
+            }
+            // The list is in place before its key is in a bucket, where searches find it
+            postingLists.put(key, updated);
+            if (Objects.isNull(current)) {
+                addedKeys.computeIfAbsent(KeyGroup.of(key), x -> Sets.newHashSet())
+                        .add(key);
+            }
+        }
+        addedKeys.forEach((group, keys) -> {
+            final KeyBucket bucket = new KeyBucket();
+            final KeyBucket current = buckets.get(group);
+            if (Objects.nonNull(current)) {
+                current.getKeys()
+                        .forEach(bucket::add);
+            }
+            keys.forEach(bucket::add);
+            bucket.compile();
+            buckets.put(group, bucket);
+        });
+        if (candidacyChanged || !addedKeys.isEmpty()) {
+            bucketPlan = BucketPlan.of(buckets, candidateKeys);
+        }
+        linkages = linkages.with(addedIds);
+    }
+
+    private static boolean isCandidate(final PostingList postingList) {
+        return Objects.nonNull(postingList) && postingList.hasIncluded();
+    }
+
+    public int[] getLinkages() {
+        final Linkages current = linkages;
+        return Arrays.copyOf(current.ids, current.size);
+    }
+
+    // Smallest internal id of the level above the given one, or the next integer when there is none.
+    public int getNextHigherId(final int internalId) {
+        final Linkages current = linkages;
+        int low = 0;
+        int high = current.size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (current.ids[mid] <= internalId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < current.size ? current.ids[low] : internalId + 1;
+    }
+
+    /*
+     * The first size ids of the array. Ids above all others, as newly handed out ones are, get appended past size,
+     * where no earlier holder reads, so that an add doesn't copy the level's ids.
+     */
+    private static final class Linkages {
+        private final int[] ids;
+        private final int size;
+
+        private Linkages(final int[] ids, final int size) {
+            this.ids = ids;
+            this.size = size;
+        }
+
+        private Linkages with(final Collection<Integer> addedIds) {
+            final int[] added = addedIds.stream()
+                    .mapToInt(Integer::intValue)
+                    .filter(id -> Arrays.binarySearch(ids, 0, size, id) < 0)
+                    .sorted()
+                    .distinct()
+                    .toArray();
+            if (added.length == 0) {
+                return this;
+            }
+            if (size == 0 || ids[size - 1] < added[0]) {
+                final int[] appended = ids.length >= size + added.length
+                        ? ids
+                        : Arrays.copyOf(ids, Math.max(size + added.length, ids.length * 2));
+                System.arraycopy(added, 0, appended, size, added.length);
+                return new Linkages(appended, size + added.length);
+            }
+            final int[] merged = new int[size + added.length];
+            int i = 0;
+            int j = 0;
+            int position = 0;
+            while (i < size || j < added.length) {
+                merged[position++] = j == added.length || (i < size && ids[i] < added[j]) ? ids[i++] : added[j++];
+            }
+            return new Linkages(merged, merged.length);
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.index.core;
+
+import java.util.List;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotEmpty;
+
+import com.phonepe.mustang.preoperation.PreOperation;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.EqualsAndHashCode.CacheStrategy;
+
+@Data
+@Builder
+// Groups are hashed once per level and form in every search, their preops needn't be rehashed each time.
+@EqualsAndHashCode(cacheStrategy = CacheStrategy.LAZY)
+@AllArgsConstructor
+public class KeyGroup {
+    @NotBlank
+    private final String name;
+    @NotEmpty
+    private final List<PreOperation> preOps;
+
+    public static KeyGroup of(final Key key) {
+        return new KeyGroup(key.getName(), key.getPreOps());
+    }
+
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.index.core;
+
+import java.util.TreeMap;
+
+import com.phonepe.mustang.predicate.PredicateType;
+
+/*
+ * Read side copy of a posting list : ids sorted ascending with the entry attributes in parallel primitive arrays.
+ */
+public class PostingList {
+    private final int[] ids;
+    private final String[] eIds;
+    private final boolean[] excluded;
+    private final int[] orders;
+    private final long[] scores;
+    /*
+     * Highest score any entry adds, never below 0, and so a bound on what the key adds to the score of any criteria
+     * it holds. Entries of a criteria scored on its own tree carry that criteria's upper bound, so it holds for them
+     * too.
+     */
+    private long maxScore;
+    // Entries of an included predicate, a list with none only ever ruling criterias out.
+    private int includedCount;
+
+    private PostingList(final int size) {
+        this.ids = new int[size];
+        this.eIds = new String[size];
+        this.excluded = new boolean[size];
+        this.orders = new int[size];
+        this.scores = new long[size];
+    }
+
+    // Entries come from a TreeMap keyed on internal id, hence in ascending id order.
+    private void set(final int position,
+            final int id,
+            final String eId,
+            final boolean isExcluded,
+            final int order,
+            final long score) {
+        ids[position] = id;
+        eIds[position] = eId;
+        excluded[position] = isExcluded;
+        orders[position] = order;
+        scores[position] = score;
+        maxScore = Math.max(maxScore, score);
+        if (!excluded[position]) {
+            includedCount++;
+        }
+    }
+
+    public static PostingList ofConjunctions(final TreeMap<Integer, ConjunctionPostingEntry> entries) {
+        final PostingList postingList = new PostingList(entries.size());
+        int position = 0;
+        for (ConjunctionPostingEntry entry : entries.values()) {
+            postingList.set(position++, entry.getIId(), entry.getEId(), isExcluded(entry.getType()), 0,
+                    entry.getScore());
+        }
+        return postingList;
+    }
+
+    public static PostingList ofDisjunctions(final TreeMap<Integer, DisjunctionPostingEntry> entries) {
+        final PostingList postingList = new PostingList(entries.size());
+        int position = 0;
+        for (DisjunctionPostingEntry entry : entries.values()) {
+            postingList.set(position++, entry.getIId(), entry.getEId(), isExcluded(entry.getType()),
+                    entry.getOrder(), entry.getScore());
+        }
+        return postingList;
+    }
+
+    private static boolean isExcluded(final PredicateType type) {
+        return PredicateType.EXCLUDED.equals(type);
+    }
+
+    /*
+     * Copy of the list with the entries of the given one merged in by id, an id this list holds already keeping its
+     * entry. Newly handed out ids sort after every id of the list, then the arrays are copied over whole.
+     */
+    public PostingList splice(final PostingList added) {
+        if (size() == 0 || added.size() == 0 || ids[size() - 1] < added.ids[0]) {
+            final PostingList spliced = new PostingList(size() + added.size());
+            spliced.copy(0, this);
+            spliced.copy(size(), added);
+            return spliced;
+        }
+        int shared = 0;
+        for (int i = 0, j = 0; i < size() && j < added.size();) {
+            if (ids[i] == added.ids[j]) {
+                shared++;
+                i++;
+                j++;
+            } else if (ids[i] < added.ids[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        final PostingList spliced = new PostingList(size() + added.size() - shared);
+        int i = 0;
+        int j = 0;
+        int position = 0;
+        while (i < size() || j < added.size()) {
+            if (j == added.size() || (i < size() && ids[i] <= added.ids[j])) {
+                if (j < added.size() && ids[i] == added.ids[j]) {
+                    j++;
+                }
+                spliced.set(position++, ids[i], eIds[i], excluded[i], orders[i], scores[i]);
+                i++;
+            } else {
+                spliced.set(position++, added.ids[j], added.eIds[j], added.excluded[j], added.orders[j],
+                        added.scores[j]);
+                j++;
+            }
+        }
+        return spliced;
+    }
+
+    // Copies every entry of the given list in, from the given position on.
+    private void copy(final int position, final PostingList from) {
+        final int count = from.size();
+        System.arraycopy(from.ids, 0, ids, position, count);
+        System.arraycopy(from.eIds, 0, eIds, position, count);
+        System.arraycopy(from.excluded, 0, excluded, position, count);
+        System.arraycopy(from.orders, 0, orders, position, count);
+        System.arraycopy(from.scores, 0, scores, position, count);
+        maxScore = Math.max(maxScore, from.maxScore);
+        includedCount += from.includedCount;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public int getId(final int position) {
+        return ids[position];
+    }
+
+    public String getEId(final int position) {
+        return eIds[position];
+    }
+
+    public boolean isExcluded(final int position) {
+        return excluded[position];
+    }
+
+    public int getOrder(final int position) {
+        return orders[position];
+    }
+
+    public long getScore(final int position) {
+        return scores[position];
+    }
+
+    public long getMaxScore() {
+        return maxScore;
+    }
+
+    public boolean hasIncluded() {
+        return includedCount > 0;
+    }
+
+    // First position at or after from whose id is not below target, size() if there is none. Gallops ahead of from
+    // before the binary search so that short skips stay cheap on long lists.
+    public int advance(final int from, final int target) {
+        if (from >= ids.length || ids[from] >= target) {
+            return from;
+        }
+        int low = from;
+        int step = 1;
+        while (low + step < ids.length && ids[low + step] < target) {
+            low += step;
+            step <<= 1;
+        }
+        int high = Math.min(low + step, ids.length);
+        low++;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (ids[mid] < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.index.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import com.phonepe.mustang.detail.impl.RangeDetail;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// Centered interval tree over the pre-parsed bounds of RANGE keys, answering stabbing queries in O(log n + hits).
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class RangeKeyTree {
+    public static final RangeKeyTree EMPTY = new RangeKeyTree(null, 0);
+    private static final Comparator<Interval> LOW_COMPARATOR = Comparator.comparingDouble(Interval::getLow);
+    private static final Comparator<Interval> HIGH_COMPARATOR = Comparator.comparingDouble(Interval::getHigh)
+            .reversed();
+    private final Node root;
+    @Getter
+    private final int size;
+
+    public static RangeKeyTree of(final Collection<Key> keys) {
+        final List<Interval> intervals = keys.stream()
+                .map(Interval::of)
+                .filter(Interval::isSatisfiable)
+                .toList();
+        if (intervals.isEmpty()) {
+            return EMPTY;
+        }
+        return new RangeKeyTree(build(intervals), intervals.size());
+    }
+
+    public void forEachMatchingKey(final Object lhsValue, final Consumer<Key> consumer) {
+        if (Objects.isNull(root) || !(lhsValue instanceof Number number) || Double.isNaN(number.doubleValue())) {
+            return;
+        }
+        final double value = number.doubleValue();
+        Node node = root;
+        while (Objects.nonNull(node)) {
+            if (value < node.center) {
+                for (Interval interval : node.byLow) {
+                    if (interval.low > value) {
+                        break;
+                    }
+                    addIfContains(consumer, interval, value);
+                }
+                node = node.left;
+            } else if (value > node.center) {
+                for (Interval interval : node.byHigh) {
+                    if (interval.high < value) {
+                        break;
+                    }
+                    addIfContains(consumer, interval, value);
+                }
+                node = node.right;
+            } else {
+                for (Interval interval : node.byLow) {
+                    addIfContains(consumer, interval, value);
+                }
+                node = null;
+            }
+        }
+    }
+
+    private static void addIfContains(final Consumer<Key> consumer, final Interval interval, final double value) {
+        if (interval.contains(value)) {
+            consumer.accept(interval.key);
+        }
+    }
+
+    private static Node build(final List<Interval> intervals) {
+        if (intervals.isEmpty()) {
+            return null;
+        }
+        final double[] endpoints = new double[intervals.size() * 2];
+        for (int i = 0; i < intervals.size(); i++) {
+            endpoints[2 * i] = intervals.get(i).low;
+            endpoints[2 * i + 1] = intervals.get(i).high;
+        }
+        Arrays.sort(endpoints);
+        final double center = endpoints[endpoints.length / 2];
+
+        final List<Interval> lefts = new ArrayList<>();
+        final List<Interval> rights = new ArrayList<>();
+        final List<Interval> overlaps = new ArrayList<>();
+        intervals.forEach(interval -> {
+            if (interval.high < center) {
+                lefts.add(interval);
+            } else if (interval.low > center) {
+                rights.add(interval);
+            } else {
+                overlaps.add(interval);
+            }
+        });
+        final Interval[] byLow = overlaps.toArray(Interval[]::new);
+        final Interval[] byHigh = overlaps.toArray(Interval[]::new);
+        Arrays.sort(byLow, LOW_COMPARATOR);
+        Arrays.sort(byHigh, HIGH_COMPARATOR);
+        return new Node(center, byLow, byHigh, build(lefts), build(rights));
+    }
+
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    private static final class Node {
+        private final double center;
+        private final Interval[] byLow;
+        private final Interval[] byHigh;
+        private final Node left;
+        private final Node right;
+    }
+
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    private static final class Interval {
+        private final double low;
+        private final double high;
+        private final boolean includeLow;
+        private final boolean includeHigh;
+        private final Key key;
+
+        private static Interval of(final Key key) {
+            final RangeDetail detail = RangeDetail.of(String.valueOf(key.getValue()));
+            return new Interval(detail.getLowerBound()
+                    .doubleValue(),
+                    detail.getUpperBound()
+                            .doubleValue(),
+                    detail.isIncludeLowerBound(),
+                    detail.isIncludeUpperBound(),
+                    key);
+        }
+
+        private boolean isSatisfiable() {
+            return low <= high;
+        }
+
+        private boolean contains(final double value) {
+            return (includeLow ? low <= value : low < value) && (includeHigh ? value <= high : value < high);
+        }
+    }
+
+}
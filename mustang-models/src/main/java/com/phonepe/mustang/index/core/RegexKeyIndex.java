@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.index.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.google.common.collect.Maps;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/*
+ * Regex keys of a path, compiled once. Patterns free of metacharacters are answered by a hash probe and the rest
+ * are partitioned by their literal prefix, so only patterns whose prefix the input starts with are run.
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class RegexKeyIndex {
+    public static final RegexKeyIndex EMPTY = new RegexKeyIndex(Collections.emptyMap(), Collections.emptyMap(),
+            new int[0], Collections.emptyList(), Collections.emptyList());
+    private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+    private static final String QUANTIFIERS = "?*+{";
+    private final Map<String, List<Key>> literalKeys;
+    private final Map<String, List<CompiledKey>> prefixedKeys;
+    private final int[] prefixLengths;
+    private final List<CompiledKey> unprefixedKeys;
+    @Getter
+    private final List<Key> invalidKeys;
+
+    public static RegexKeyIndex of(final Collection<Key> keys) {
+        if (keys.isEmpty()) {
+            return EMPTY;
+        }
+        final Map<String, List<Key>> literalKeys = Maps.newHashMap();
+        final Map<String, List<CompiledKey>> prefixedKeys = Maps.newHashMap();
+        final List<CompiledKey> unprefixedKeys = new ArrayList<>();
+        final List<Key> invalidKeys = new ArrayList<>();
+        keys.forEach(key -> {
+            final String regex = String.valueOf(key.getValue());
+            final String prefix = getLiteralPrefix(regex);
+            if (prefix.length() == regex.length()) {
+                literalKeys.computeIfAbsent(regex, x -> new ArrayList<>())
+                        .add(key);
+                return;
+            }
+            final CompiledKey compiledKey;
+            try {
+                compiledKey = new CompiledKey(key, Pattern.compile(regex));
+            } catch (PatternSyntaxException e) {
+                // left to be enforced, and fail, as before
+                invalidKeys.add(key);
+                return;
+            }
+            if (prefix.isEmpty()) {
+                unprefixedKeys.add(compiledKey);
+            } else {
+                prefixedKeys.computeIfAbsent(prefix, x -> new ArrayList<>())
+                        .add(compiledKey);
+            }
+        });
+        final int[] prefixLengths = prefixedKeys.keySet()
+                .stream()
+                .map(String::length)
+                .collect(TreeSet<Integer>::new, TreeSet::add, TreeSet::addAll)
+                .stream()
+                .mapToInt(Integer::intValue)
+                .toArray();
+        return new RegexKeyIndex(literalKeys, prefixedKeys, prefixLengths, unprefixedKeys, invalidKeys);
+    }
+
+    public void forEachMatchingKey(final Object lhsValue, final Consumer<Key> consumer) {
+        if (!(lhsValue instanceof String input)) {
+            return;
+        }
+        literalKeys.getOrDefault(input, Collections.emptyList())
+                .forEach(consumer);
+        for (int prefixLength : prefixLengths) {
+            if (prefixLength > input.length()) {
+                break;
+            }
+            addMatches(consumer, prefixedKeys.get(input.substring(0, prefixLength)), input);
+        }
+        addMatches(consumer, unprefixedKeys, input);
+    }
+
+    private static void addMatches(final Consumer<Key> consumer,
+            final List<CompiledKey> compiledKeys,
+            final String input) {
+        if (Objects.isNull(compiledKeys)) {
+            return;
+        }
+        compiledKeys.forEach(compiledKey -> {
+            if (compiledKey.pattern.matcher(input)
+                    .matches()) {
+                consumer.accept(compiledKey.key);
+            }
+        });
+    }
+
+    // Literal characters every match must start with; empty when alternation could bypass them.
+    private static String getLiteralPrefix(final String regex) {
+        if (regex.indexOf('|') >= 0) {
+            return "";
+        }
+        int end = 0;
+        while (end < regex.length() && METACHARACTERS.indexOf(regex.charAt(end)) < 0) {
+            end++;
+        }
+        if (end < regex.length() && QUANTIFIERS.indexOf(regex.charAt(end)) >= 0) {
+            end--;
+        }
+        return regex.substring(0, Math.max(end, 0));
+    }
+
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    private static final class CompiledKey {
+        private final Key key;
+        private final Pattern pattern;
+    }
+
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.index.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import com.google.common.collect.Maps;
+import com.phonepe.mustang.detail.Caveat;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+
+/*
+ * Element to key inverted map over the SUBSET / EQUALSET / SUPERSET keys of a path. Counting, per key, how many of
+ * the event's distinct elements it holds decides containment in either direction without a containsAll per key.
+ * Counts are kept in per thread scratch and only the keys an element reaches are touched, so a search costs what the
+ * event's elements have postings for rather than the number of keys.
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class SetKeyIndex {
+    public static final SetKeyIndex EMPTY = new SetKeyIndex(new Key[0], new int[0], new boolean[0], new boolean[0],
+            Collections.emptyMap(), new int[0], new Key[0]);
+    private static final ThreadLocal<Counts> COUNTS = ThreadLocal.withInitial(Counts::new);
+    private final Key[] keys;
+    private final int[] keySizes;
+    // SUBSET keys need to hold the event, SUPERSET keys to be held by it and EQUALSET keys both.
+    private final boolean[] keyMustContainEvent;
+    private final boolean[] eventMustContainKey;
+    private final Map<Object, int[]> postings;
+    private final int[] emptyKeyIds;
+    // Keys an empty event satisfies, every SUBSET key and the empty keys of the other caveats.
+    private final Key[] emptyEventKeys;
+
+    public static SetKeyIndex of(final List<Key> keys) {
+        if (keys.isEmpty()) {
+            return EMPTY;
+        }
+        final int[] keySizes = new int[keys.size()];
+        final boolean[] keyMustContainEvent = new boolean[keys.size()];
+        final boolean[] eventMustContainKey = new boolean[keys.size()];
+        final Map<Object, List<Integer>> elementKeyIds = Maps.newHashMap();
+        final List<Integer> emptyKeyIds = new ArrayList<>();
+        final List<Key> emptyEventKeys = new ArrayList<>();
+        for (int id = 0; id < keys.size(); id++) {
+            final Set<?> elements = new HashSet<>((Collection<?>) keys.get(id)
+                    .getValue());
+            keySizes[id] = elements.size();
+            keyMustContainEvent[id] = Caveat.SUPERSET != keys.get(id)
+                    .getCaveat();
+            eventMustContainKey[id] = Caveat.SUBSET != keys.get(id)
+                    .getCaveat();
+            if (elements.isEmpty()) {
+                emptyKeyIds.add(id);
+            }
+            if (elements.isEmpty() || !eventMustContainKey[id]) {
+                emptyEventKeys.add(keys.get(id));
+            }
+            for (Object element : elements) {
+                elementKeyIds.computeIfAbsent(element, x -> new ArrayList<>())
+                        .add(id);
+            }
+        }
+        final Map<Object, int[]> postings = Maps.newHashMapWithExpectedSize(elementKeyIds.size());
+        elementKeyIds.forEach((element, ids) -> postings.put(element, toArray(ids)));
+        return new SetKeyIndex(keys.toArray(Key[]::new), keySizes, keyMustContainEvent, eventMustContainKey, postings,
+                toArray(emptyKeyIds), emptyEventKeys.toArray(Key[]::new));
+    }
+
+    public void forEachMatchingKey(final Object lhsValue, final Consumer<Key> consumer) {
+        if (keys.length == 0 || !(lhsValue instanceof Collection<?> collection)) {
+            return;
+        }
+        final Set<?> elements = new HashSet<>(collection);
+        if (elements.isEmpty()) {
+            // every set contains the empty set, but only empty sets are contained in it
+            for (Key key : emptyEventKeys) {
+                consumer.accept(key);
+            }
+            return;
+        }
+        final Counts scratch = COUNTS.get();
+        final int[] counts = scratch.getCounts(keys.length);
+        int[] touchedIds = scratch.touchedIds;
+        int touchedCount = 0;
+        try {
+            for (Object element : elements) {
+                final int[] ids = postings.get(element);
+                if (Objects.isNull(ids)) {
+                    continue;
+                }
+                for (int id : ids) {
+                    if (counts[id]++ == 0) {
+                        if (touchedCount == touchedIds.length) {
+                            touchedIds = scratch.growTouchedIds();
+                        }
+                        touchedIds[touchedCount++] = id;
+                    }
+                }
+            }
+            for (int i = 0; i < touchedCount; i++) {
+                final int id = touchedIds[i];
+                addIfContained(consumer, id, counts[id], elements.size());
+            }
+        } finally {
+            // Left zeroed for the next search, a consumer throwing midway included
+            for (int i = 0; i < touchedCount; i++) {
+                counts[touchedIds[i]] = 0;
+            }
+        }
+        for (int id : emptyKeyIds) {
+            addIfContained(consumer, id, 0, elements.size());
+        }
+    }
+
+    private void addIfContained(final Consumer<Key> consumer,
+            final int id,
+            final int commonCount,
+            final int eventSize) {
+        if ((!keyMustContainEvent[id] || commonCount == eventSize)
+                && (!eventMustContainKey[id] || commonCount == keySizes[id])) {
+            consumer.accept(keys[id]);
+        }
+    }
+
+    private static int[] toArray(final List<Integer> ids) {
+        return ids.stream()
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    // Per thread counts by key id, all zero between searches, and the ids touched in the current one.
+    private static final class Counts {
+        private int[] counts = new int[16];
+        private int[] touchedIds = new int[16];
+
+        private int[] getCounts(final int size) {
+            if (counts.length < size) {
+                counts = new int[Math.max(size, counts.length * 2)];
+            }
+            return counts;
+        }
+
+        private int[] growTouchedIds() {
+            touchedIds = Arrays.copyOf(touchedIds, touchedIds.length * 2);
+            return touchedIds;
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.index.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.apache.maven.artifact.versioning.ComparableVersion;
+
+import com.phonepe.mustang.detail.impl.CheckType;
+import com.phonepe.mustang.detail.impl.VersioningDetail;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+
+/*
+ * Versioning keys of a path, pre-parsed and sorted on base version per (check, excludeBase). Satisfied keys for a
+ * version are a prefix (ABOVE) or a suffix (BELOW) of each sorted run.
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class VersionKeyIndex {
+    public static final VersionKeyIndex EMPTY = new VersionKeyIndex(Collections.emptyList());
+    private final List<VersionRun> runs;
+
+    public static VersionKeyIndex of(final Collection<Key> keys) {
+        if (keys.isEmpty()) {
+            return EMPTY;
+        }
+        final Map<Boolean, Map<CheckType, List<ParsedKey>>> grouped = keys.stream()
+                .map(ParsedKey::of)
+                .collect(Collectors.partitioningBy(parsedKey -> parsedKey.detail.isExcludeBase(),
+                        Collectors.groupingBy(parsedKey -> parsedKey.detail.getCheck())));
+        final List<VersionRun> runs = new ArrayList<>();
+        grouped.forEach((excludeBase, byCheck) -> byCheck
+                .forEach((check, parsedKeys) -> runs.add(VersionRun.of(check, excludeBase, parsedKeys))));
+        return new VersionKeyIndex(runs);
+    }
+
+    public void forEachMatchingKey(final Object lhsValue, final Consumer<Key> consumer) {
+        if (runs.isEmpty() || !(lhsValue instanceof String version)) {
+            return;
+        }
+        final ComparableVersion comparableVersion = new ComparableVersion(version);
+        for (VersionRun run : runs) {
+            run.addMatches(consumer, comparableVersion);
+        }
+    }
+
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    private static final class ParsedKey {
+        private final Key key;
+        private final VersioningDetail detail;
+        private final ComparableVersion baseVersion;
+
+        private static ParsedKey of(final Key key) {
+            final VersioningDetail detail = VersioningDetail.of(String.valueOf(key.getValue()));
+            return new ParsedKey(key, detail, new ComparableVersion(detail.getBaseVersion()));
+        }
+    }
+
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    private static final class VersionRun implements CheckType.Visitor<Boolean> {
+        private final CheckType check;
+        private final boolean excludeBase;
+        private final ComparableVersion[] baseVersions;
+        private final Key[] keys;
+
+        private static VersionRun of(final CheckType check,
+                final boolean excludeBase,
+                final List<ParsedKey> parsedKeys) {
+            final ParsedKey[] sorted = parsedKeys.stream()
+                    .sorted(Comparator.comparing(parsedKey -> parsedKey.baseVersion))
+                    .toArray(ParsedKey[]::new);
+            return new VersionRun(check, excludeBase, Arrays.stream(sorted)
+                    .map(parsedKey -> parsedKey.baseVersion)
+                    .toArray(ComparableVersion[]::new),
+                    Arrays.stream(sorted)
+                            .map(parsedKey -> parsedKey.key)
+                            .toArray(Key[]::new));
+        }
+
+        private void addMatches(final Consumer<Key> consumer, final ComparableVersion version) {
+            // split point of the run around the version; bases equal to it fall on the satisfied side unless excluded
+            final boolean prefix = check.accept(this);
+            final int boundary = prefix == excludeBase ? firstNotBelow(version) : firstAbove(version);
+            final int from = prefix ? 0 : boundary;
+            final int to = prefix ? boundary : keys.length;
+            for (int i = from; i < to; i++) {
+                consumer.accept(keys[i]);
+            }
+        }
+
+        private int firstNotBelow(final ComparableVersion version) {
+            int low = 0;
+            int high = baseVersions.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (baseVersions[mid].compareTo(version) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int firstAbove(final ComparableVersion version) {
+            int low = 0;
+            int high = baseVersions.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (baseVersions[mid].compareTo(version) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // ABOVE keys are satisfied by the bases up to the version, BELOW keys by those from it.
+        @Override
+        public Boolean visitAbove() {
+            return true;
+        }
+
+        @Override
+        public Boolean visitBelow() {
+            return false;
+        }
+    }
+
+}
@@ -17,7 +17,6 @@
 package com.phonepe.mustang.preoperation;
 
 import java.util.List;
-import java.util.concurrent.atomic.AtomicReference;
 
 import lombok.experimental.UtilityClass;
 
@@ -25,9 +24,11 @@ import lombok.experimental.UtilityClass;
 public class ChainOperator {
 
     public static Object operate(final List<PreOperation> operations, final Object value) {
-        final AtomicReference<Object> outcome = new AtomicReference<>(value);
-        operations.forEach(operation -> outcome.getAndSet(operation.operate(outcome.get())));
-        return outcome.get();
+        Object outcome = value;
+        for (PreOperation operation : operations) {
+            outcome = operation.operate(outcome);
+        }
+        return outcome;
     }
 
 }
@@ -16,10 +16,9 @@
  */
 package com.phonepe.mustang.search;
 
-import com.jayway.jsonpath.JsonPath;
 import com.phonepe.mustang.common.RequestContext;
-
 import com.phonepe.mustang.common.Utils;
+
 import lombok.experimental.UtilityClass;
 
 @UtilityClass
@@ -28,8 +27,7 @@ public class QueryBuilder {
     public Query buildQuery(final RequestContext context) {
         return Query.builder()
                 .requestContext(context)
-                .parsedContext(JsonPath.parse(context.getNode()
-                        .toString(), Utils.JSONPATH_CONFIGURATION))
+                .parsedContext(Utils.parse(context.getNode()))
                 .build();
     }
 
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.phonepe.mustang.common;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class PathAccessorTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testSimplePathDetection() {
+        for (String path : Arrays.asList("$.a", "$.a.b.c", "$.a_b.c-d.e1", "$['a']", "$['a b']['c']", "$.a['b.c']")) {
+            Assert.assertTrue(path, PathAccessor.compile(path)
+                    .isSimple());
+        }
+        for (String path : Arrays.asList("$", "$.a[0]", "$.a[*]", "$..a", "$.*", "$.a.length()", "$['a','b']",
+                "$.a[?(@.b > 1)]")) {
+            Assert.assertFalse(path, PathAccessor.compile(path)
+                    .isSimple());
+        }
+    }
+
+    @Test
+    public void testSimplePathsReadAsJsonPath() {
+        final ObjectNode node = mapper.createObjectNode();
+        node.put("a", 1);
+        node.putNull("n");
+        node.putArray("empty");
+        node.putArray("list")
+                .add("x")
+                .addObject()
+                .put("b", 2);
+        final ObjectNode nested = node.putObject("o");
+        nested.put("t", "text");
+        nested.put("d", 2.5D);
+        nested.putObject("p")
+                .put("q", true);
+        nested.put("a b", "spaced");
+        nested.put("c.d", "dotted");
+        final DocumentContext parsedContext = Utils.parse(node);
+        for (String path : Arrays.asList("$.a", "$.n", "$.empty", "$.list", "$.list.b", "$.o", "$.o.t", "$.o.d",
+                "$.o.p.q", "$.o.p", "$['o']['a b']", "$.o['c.d']", "$.missing", "$.a.b", "$.o.t.x", "$.o.missing.x",
+                "$.list[1].b", "$..q")) {
+            final PathAccessor accessor = PathAccessor.compile(path);
+            final Object expected = Utils.getNodeValue(parsedContext, JsonPath.compile(path), null);
+            Assert.assertEquals(path, expected, accessor.read(node));
+            Assert.assertEquals(path, expected, accessor.read(node, parsedContext));
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2022 PhonePe India Pvt. Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.phonepe.mustang.common;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Maps;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public class PathTrieTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testTrieWalkReadsAsPathAccessors() {
+        final ObjectNode node = mapper.createObjectNode();
+        node.put("a", 1);
+        node.putNull("n");
+        node.putArray("empty");
+        node.putArray("list")
+                .addObject()
+                .put("b", 2);
+        final ObjectNode nested = node.putObject("o");
+        nested.put("t", "text");
+        nested.putObject("p")
+                .put("q", true);
+        nested.put("c.d", "dotted");
+        for (int i = 0; i < 20; i++) {
+            node.put("unindexed" + i, i);
+        }
+        final List<PathAccessor> accessors = Arrays.asList("$.a", "$.n", "$.empty", "$.list", "$.list.b", "$.o",
+                "$.o.t", "$['o']['t']", "$.o.p.q", "$.o['c.d']", "$.missing", "$.a.b", "$.o.missing.x", "$..q",
+                "$.list[0].b")
+                .stream()
+                .map(PathAccessor::compile)
+                .collect(Collectors.toList());
+        final PathTrie pathTrie = PathTrie.of(accessors);
+        Assert.assertEquals(13, pathTrie.size());
+        Assert.assertEquals(15, pathTrie.getSourceCount());
+        Assert.assertFalse(pathTrie.contains("$..q"));
+        Assert.assertFalse(pathTrie.contains("$.list[0].b"));
+
+        final Map<String, Object> values = Maps.newHashMap();
+        pathTrie.collect(node, values::put);
+        Assert.assertFalse(values.containsKey("$.missing"));
+        Assert.assertFalse(values.containsKey("$.o.missing.x"));
+        for (PathAccessor accessor : accessors) {
+            if (pathTrie.contains(accessor.getPath())) {
+                Assert.assertEquals(accessor.getPath(), accessor.read(node), values.get(accessor.getPath()));
+            }
+        }
+    }
+
+}
@@ -18,16 +18,23 @@ package com.phonepe.mustang.common;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 public class UtilsTest {
@@ -190,6 +197,47 @@ public class UtilsTest {
         Assert.assertNull(result);
     }
 
+    @Test
+    public void testGetNodeValueReadsTreeAsItsJsonText() {
+        final ObjectNode node = mapper.createObjectNode();
+        node.put("i", 5);
+        node.put("l", 5L);
+        node.put("bl", 50000000000L);
+        node.put("bi", new BigInteger("123456789012345678901234"));
+        node.put("f", 0.1f);
+        node.put("d", 0.1D);
+        node.put("bd", new BigDecimal("1.50"));
+        node.put("hp", new BigDecimal("1.2345678901234567890123"));
+        node.put("nan", Double.NaN);
+        node.put("b", true);
+        node.put("t", "x");
+        node.put("bin", new byte[] { 1, 2, 3 });
+        node.putNull("nul");
+        node.putArray("arr")
+                .add(1)
+                .add("x")
+                .addObject()
+                .put("k", 2);
+        node.putObject("o")
+                .putArray("items")
+                .addObject()
+                .put("price", 12.5);
+        final DocumentContext textContext = JsonPath.parse(node.toString(), Utils.JSONPATH_CONFIGURATION);
+        for (String path : Arrays.asList("$.i", "$.l", "$.bl", "$.bi", "$.f", "$.d", "$.bd", "$.hp", "$.nan", "$.b",
+                "$.t", "$.bin", "$.nul", "$.missing", "$.arr", "$.arr[1]", "$.arr[2].k", "$.arr[*]", "$.o",
+                "$.o.items[?(@.price > 10)].price", "$..k", "$.arr.length()")) {
+            final Object expected = Utils.getNodeValue(textContext, JsonPath.compile(path), null);
+            final Object actual = Utils.getNodeValue(node, path);
+            Assert.assertEquals(path, expected, actual);
+            if (Objects.nonNull(expected)) {
+                Assert.assertEquals(path, expected instanceof List, actual instanceof List);
+                if (!(expected instanceof Collection) && !(expected instanceof Map)) {
+                    Assert.assertEquals(path, expected.getClass(), actual.getClass());
+                }
+            }
+        }
+    }
+
     @Test
     public void testConstants() {
         Assert.assertEquals("AD", Utils.Constants.ERA_AD);
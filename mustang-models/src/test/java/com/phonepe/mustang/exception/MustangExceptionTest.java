@@ -68,7 +68,7 @@ public class MustangExceptionTest {
 
     @Test
     public void testErrorCodeValues() {
-        Assert.assertEquals(7, ErrorCode.values().length);
+        Assert.assertEquals(8, ErrorCode.values().length);
         Assert.assertNotNull(ErrorCode.valueOf("INTERNAL_ERROR"));
         Assert.assertNotNull(ErrorCode.valueOf("INDEX_NOT_FOUND"));
         Assert.assertNotNull(ErrorCode.valueOf("INDEX_GENERATION_ERROR"));
@@ -76,6 +76,7 @@ public class MustangExceptionTest {
         Assert.assertNotNull(ErrorCode.valueOf("INDEX_EXPORT_ERROR"));
         Assert.assertNotNull(ErrorCode.valueOf("INDEX_IMPORT_ERROR"));
         Assert.assertNotNull(ErrorCode.valueOf("INDEX_GROUP_EXISTS"));
+        Assert.assertNotNull(ErrorCode.valueOf("INDEX_FROZEN"));
     }
 }
 